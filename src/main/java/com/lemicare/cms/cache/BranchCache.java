@@ -0,0 +1,92 @@
+package com.lemicare.cms.cache;
+
+import com.cosmicdoc.common.model.Branch;
+import com.cosmicdoc.common.repository.BranchRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Tenant-keyed cache of an organization's branches.
+ * <p>
+ * Branches change rarely but are needed on every checkout and paged listing. Entries
+ * older than {@code refresh-after} are still served while a single background reload
+ * runs (refresh-ahead); only entries older than {@code expire-after} (or missing ones)
+ * make the caller wait for Firestore.
+ */
+@Component
+public class BranchCache {
+    private static final Logger log = LoggerFactory.getLogger(BranchCache.class);
+
+    private final BranchRepository branchRepository;
+    private final ThreadPoolTaskExecutor refreshExecutor;
+    private final ConcurrentMap<String, CachedBranches> branchesByOrg = new ConcurrentHashMap<>();
+
+    @Value("${app.storefront.branch-cache.refresh-after:5m}")
+    private Duration refreshAfter;
+
+    @Value("${app.storefront.branch-cache.expire-after:30m}")
+    private Duration expireAfter;
+
+    public BranchCache(BranchRepository branchRepository,
+                       @Qualifier("storefrontLookupExecutor") ThreadPoolTaskExecutor refreshExecutor) {
+        this.branchRepository = branchRepository;
+        this.refreshExecutor = refreshExecutor;
+    }
+
+    public List<Branch> getBranches(String orgId) {
+        CachedBranches cached = branchesByOrg.get(orgId);
+        long now = System.nanoTime();
+
+        if (cached == null || cached.ageNanos(now) > expireAfter.toNanos()) {
+            return branchesByOrg.compute(orgId, (key, current) ->
+                    current != null && current.ageNanos(System.nanoTime()) <= expireAfter.toNanos() ? current : load(orgId)
+            ).branches();
+        }
+
+        if (cached.ageNanos(now) > refreshAfter.toNanos() && cached.refreshing().compareAndSet(false, true)) {
+            try {
+                refreshExecutor.execute(() -> refresh(orgId, cached));
+            } catch (RuntimeException e) {
+                cached.refreshing().set(false);
+                log.warn("Could not schedule branch refresh for org {}: {}", orgId, e.getMessage());
+            }
+        }
+        return cached.branches();
+    }
+
+    public void invalidate(String orgId) {
+        branchesByOrg.remove(orgId);
+    }
+
+    private void refresh(String orgId, CachedBranches stale) {
+        try {
+            CachedBranches fresh = load(orgId);
+            // Only replace the entry we set out to refresh; an invalidation wins.
+            branchesByOrg.replace(orgId, stale, fresh);
+        } catch (RuntimeException e) {
+            log.warn("Background branch refresh for org {} failed; serving cached branches: {}", orgId, e.getMessage());
+            stale.refreshing().set(false);
+        }
+    }
+
+    private CachedBranches load(String orgId) {
+        List<Branch> branches = List.copyOf(branchRepository.findAllByOrganizationId(orgId));
+        return new CachedBranches(branches, System.nanoTime(), new AtomicBoolean(false));
+    }
+
+    private record CachedBranches(List<Branch> branches, long loadedAtNanos, AtomicBoolean refreshing) {
+        long ageNanos(long now) {
+            return now - loadedAtNanos;
+        }
+    }
+}
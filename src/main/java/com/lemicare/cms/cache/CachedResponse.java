@@ -0,0 +1,40 @@
+package com.lemicare.cms.cache;
+
+import org.springframework.http.ETag;
+
+import java.time.Duration;
+import java.time.Instant;
+
+/**
+ * A fully serialized JSON response body together with its strong ETag.
+ */
+public record CachedResponse(byte[] body, String etag, Instant createdAt) {
+
+    /**
+     * Evaluates an {@code If-None-Match} header value against this response's ETag.
+     */
+    public boolean matches(String ifNoneMatch) {
+        return matches(ifNoneMatch, etag);
+    }
+
+    /**
+     * Evaluates an {@code If-None-Match} header value (a list of tags, or {@code *}) against
+     * an ETag, using the weak comparison mandated for If-None-Match (RFC 9110, section 13.1.2).
+     */
+    public static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null || ifNoneMatch.isBlank()) {
+            return false;
+        }
+        ETag current = ETag.create(etag);
+        for (ETag candidate : ETag.parse(ifNoneMatch)) {
+            if (candidate.isWildcard() || candidate.compare(current, false)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public boolean isOlderThan(Duration maxAge) {
+        return createdAt.plus(maxAge).isBefore(Instant.now());
+    }
+}
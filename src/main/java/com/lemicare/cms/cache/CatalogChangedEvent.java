@@ -0,0 +1,28 @@
+package com.lemicare.cms.cache;
+
+import java.util.Set;
+
+/**
+ * Published by {@link CatalogSnapshotCache} whenever an organization's catalog changes,
+ * regardless of whether the change came from a local write or a Firestore listener.
+ *
+ * @param organizationId     The tenant whose catalog changed.
+ * @param productIds         The IDs of products that were added, modified or removed.
+ * @param categoriesChanged  Whether any category was added, modified or removed.
+ * @param fullReload         Whether the whole catalog was replaced, in which case the
+ *                           other fields do not enumerate every change.
+ */
+public record CatalogChangedEvent(String organizationId, Set<String> productIds, boolean categoriesChanged, boolean fullReload) {
+
+    public static CatalogChangedEvent products(String organizationId, Set<String> productIds) {
+        return new CatalogChangedEvent(organizationId, productIds, false, false);
+    }
+
+    public static CatalogChangedEvent categories(String organizationId) {
+        return new CatalogChangedEvent(organizationId, Set.of(), true, false);
+    }
+
+    public static CatalogChangedEvent reload(String organizationId) {
+        return new CatalogChangedEvent(organizationId, Set.of(), true, true);
+    }
+}
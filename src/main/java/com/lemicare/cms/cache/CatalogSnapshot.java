@@ -0,0 +1,97 @@
+package com.lemicare.cms.cache;
+
+import com.cosmicdoc.common.model.StorefrontProduct;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * An immutable, point-in-time view of a single organization's storefront catalog.
+ * <p>
+ * Snapshots are never modified in place. Every change produces a new snapshot
+ * (copy-on-write), so readers can hand the product list straight to the web layer
+ * without any locking. The products themselves are mutable POJOs shared by every reader,
+ * so they must not be modified either.
+ */
+public final class CatalogSnapshot {
+
+    private final Map<String, StorefrontProduct> productsById;
+    private final List<StorefrontProduct> products;
+    private final Instant loadedAt;
+
+    private CatalogSnapshot(Map<String, StorefrontProduct> productsById, Instant loadedAt) {
+        this.productsById = Collections.unmodifiableMap(productsById);
+        this.products = List.copyOf(productsById.values());
+        this.loadedAt = loadedAt;
+    }
+
+    /**
+     * Builds a fresh snapshot from a full catalog read, preserving the repository ordering.
+     */
+    public static CatalogSnapshot of(Collection<StorefrontProduct> products) {
+        Map<String, StorefrontProduct> byId = new LinkedHashMap<>();
+        for (StorefrontProduct product : products) {
+            if (product != null && product.getProductId() != null) {
+                byId.put(product.getProductId(), product);
+            }
+        }
+        return new CatalogSnapshot(byId, Instant.now());
+    }
+
+    public List<StorefrontProduct> getProducts() {
+        return products;
+    }
+
+    public Optional<StorefrontProduct> findProduct(String productId) {
+        return Optional.ofNullable(productsById.get(productId));
+    }
+
+    public int size() {
+        return products.size();
+    }
+
+    /**
+     * Returns a new snapshot with the given product added or replaced. The original
+     * load time is kept so that patching never extends the snapshot's lifetime.
+     */
+    public CatalogSnapshot withProduct(StorefrontProduct product) {
+        Map<String, StorefrontProduct> copy = new LinkedHashMap<>(productsById);
+        copy.put(product.getProductId(), product);
+        return new CatalogSnapshot(copy, loadedAt);
+    }
+
+    /**
+     * Returns a new snapshot without the given product, or this snapshot if it was not present.
+     */
+    public CatalogSnapshot withoutProduct(String productId) {
+        if (!productsById.containsKey(productId)) {
+            return this;
+        }
+        Map<String, StorefrontProduct> copy = new LinkedHashMap<>(productsById);
+        copy.remove(productId);
+        return new CatalogSnapshot(copy, loadedAt);
+    }
+
+    /**
+     * Applies a batch of changes in one copy, e.g. all document changes of a single
+     * Firestore listener event.
+     */
+    public CatalogSnapshot withChanges(Collection<StorefrontProduct> upserts, Collection<String> removedIds) {
+        Map<String, StorefrontProduct> copy = new LinkedHashMap<>(productsById);
+        removedIds.forEach(copy::remove);
+        for (StorefrontProduct product : upserts) {
+            copy.put(product.getProductId(), product);
+        }
+        return new CatalogSnapshot(copy, loadedAt);
+    }
+
+    public boolean isOlderThan(Duration maxAge) {
+        return loadedAt.plus(maxAge).isBefore(Instant.now());
+    }
+}
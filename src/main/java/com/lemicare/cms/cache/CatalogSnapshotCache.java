@@ -0,0 +1,269 @@
+package com.lemicare.cms.cache;
+
+import com.cosmicdoc.common.model.StorefrontCategory;
+import com.cosmicdoc.common.model.StorefrontProduct;
+import lombok.RequiredArgsConstructor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Holds one {@link CatalogSnapshot} per organization so that storefront listings can be
+ * served from memory instead of scanning the Firestore collection on every page view.
+ * <p>
+ * A snapshot is loaded lazily on first access and afterwards patched by the write paths
+ * in {@code StorefrontService} and by the Firestore listeners in
+ * {@code CatalogChangeListener}, which carry writes made by other instances. The TTL is
+ * only a safety net that bounds how long a missed update can survive; it is not the
+ * primary freshness mechanism.
+ * <p>
+ * Loads run outside of any map lock, and concurrent callers for the same organization
+ * join the one load in flight. A load that overlapped a change to the organization's
+ * catalog is returned to its callers but not cached, since it may predate the change.
+ * <p>
+ * Categories are cached the same way, in a separate {@link CategorySnapshot} per organization.
+ * <p>
+ * The products and categories handed out are shared by all readers and must be treated
+ * as read-only; to change one, read it from the repository, save it and {@link #upsert}
+ * the saved instance, which the cache then owns.
+ * <p>
+ * Every change is announced as a {@link CatalogChangedEvent} so that derived caches
+ * (e.g. {@link PublicResponseCache}) can evict what they built from the old data.
+ */
+@Component
+@RequiredArgsConstructor
+public class CatalogSnapshotCache {
+    private static final Logger log = LoggerFactory.getLogger(CatalogSnapshotCache.class);
+
+    private final Slots<CatalogSnapshot> snapshots = new Slots<>();
+    private final Slots<CategorySnapshot> categorySnapshots = new Slots<>();
+    private final ApplicationEventPublisher eventPublisher;
+
+    @Value("${app.storefront.catalog-cache.ttl:10m}")
+    private Duration ttl;
+
+    /**
+     * The cached snapshots of one kind, with the loads in flight and a per-organization
+     * change counter that tells a load whether the catalog changed while it was reading.
+     */
+    private static final class Slots<S> {
+        private final ConcurrentMap<String, S> byOrg = new ConcurrentHashMap<>();
+        private final ConcurrentMap<String, CompletableFuture<S>> loads = new ConcurrentHashMap<>();
+        private final ConcurrentMap<String, AtomicLong> generations = new ConcurrentHashMap<>();
+
+        S get(String orgId) {
+            return byOrg.get(orgId);
+        }
+
+        long generation(String orgId) {
+            AtomicLong generation = generations.get(orgId);
+            return generation == null ? 0 : generation.get();
+        }
+
+        /** Called before every change, so that a load running concurrently is not cached. */
+        void changing(String orgId) {
+            generations.computeIfAbsent(orgId, key -> new AtomicLong()).incrementAndGet();
+        }
+    }
+
+    /**
+     * Returns the cached product list for an organization, loading it with the given
+     * loader when there is no snapshot yet or the current one has expired.
+     * Concurrent callers for the same organization share a single load. The list is
+     * unmodifiable and its products must not be modified.
+     */
+    public List<StorefrontProduct> getProducts(String orgId, Supplier<List<StorefrontProduct>> loader) {
+        return getSnapshot(orgId, loader).getProducts();
+    }
+
+    public CatalogSnapshot getSnapshot(String orgId, Supplier<List<StorefrontProduct>> loader) {
+        CatalogSnapshot snapshot = snapshots.get(orgId);
+        if (snapshot != null && !snapshot.isOlderThan(ttl)) {
+            return snapshot;
+        }
+        CatalogSnapshot loaded = load(snapshots, orgId, snapshot, current -> !current.isOlderThan(ttl), () -> {
+            CatalogSnapshot fresh = CatalogSnapshot.of(loader.get());
+            log.debug("Loaded catalog snapshot for org {} with {} products", orgId, fresh.size());
+            return fresh;
+        });
+        if (loaded != snapshot) {
+            eventPublisher.publishEvent(CatalogChangedEvent.reload(orgId));
+        }
+        return loaded;
+    }
+
+    /**
+     * Looks up a product in the current snapshot without triggering a load. The product is
+     * shared with other readers and must not be modified.
+     */
+    public Optional<StorefrontProduct> findProduct(String orgId, String productId) {
+        CatalogSnapshot snapshot = snapshots.get(orgId);
+        if (snapshot == null || snapshot.isOlderThan(ttl)) {
+            return Optional.empty();
+        }
+        return snapshot.findProduct(productId);
+    }
+
+    /**
+     * Replaces (or adds) a single product in the organization's snapshot, if one is loaded.
+     * The caller must not modify the product afterwards.
+     */
+    public void upsert(String orgId, StorefrontProduct product) {
+        if (product == null || product.getProductId() == null) {
+            return;
+        }
+        snapshots.changing(orgId);
+        snapshots.byOrg.computeIfPresent(orgId, (key, current) -> current.withProduct(product));
+        eventPublisher.publishEvent(CatalogChangedEvent.products(orgId, Set.of(product.getProductId())));
+    }
+
+    /**
+     * Removes a single product from the organization's snapshot, if one is loaded.
+     */
+    public void remove(String orgId, String productId) {
+        snapshots.changing(orgId);
+        snapshots.byOrg.computeIfPresent(orgId, (key, current) -> current.withoutProduct(productId));
+        eventPublisher.publishEvent(CatalogChangedEvent.products(orgId, Set.of(productId)));
+    }
+
+    /**
+     * Applies a batch of product changes to the organization's snapshot, if one is loaded.
+     */
+    public void applyProductChanges(String orgId, Collection<StorefrontProduct> upserts, Collection<String> removedIds) {
+        snapshots.changing(orgId);
+        snapshots.byOrg.computeIfPresent(orgId, (key, current) -> current.withChanges(upserts, removedIds));
+        Set<String> changedIds = new HashSet<>(removedIds);
+        upserts.forEach(product -> changedIds.add(product.getProductId()));
+        eventPublisher.publishEvent(CatalogChangedEvent.products(orgId, changedIds));
+    }
+
+    /**
+     * Replaces the organization's snapshot with a complete, freshly observed product set.
+     */
+    public void replaceProducts(String orgId, Collection<StorefrontProduct> products) {
+        snapshots.changing(orgId);
+        snapshots.byOrg.put(orgId, CatalogSnapshot.of(products));
+        eventPublisher.publishEvent(CatalogChangedEvent.reload(orgId));
+    }
+
+    // --- Categories ---
+
+    public List<StorefrontCategory> getCategories(String orgId, Supplier<List<StorefrontCategory>> loader) {
+        CategorySnapshot snapshot = categorySnapshots.get(orgId);
+        if (snapshot != null && !snapshot.isOlderThan(ttl)) {
+            return snapshot.getCategories();
+        }
+        CategorySnapshot loaded = load(categorySnapshots, orgId, snapshot, current -> !current.isOlderThan(ttl),
+                () -> CategorySnapshot.of(loader.get()));
+        if (loaded != snapshot) {
+            eventPublisher.publishEvent(CatalogChangedEvent.categories(orgId));
+        }
+        return loaded.getCategories();
+    }
+
+    /**
+     * Returns the organization's categories if they are loaded and fresh, without
+     * triggering a load.
+     */
+    public Optional<List<StorefrontCategory>> findCategories(String orgId) {
+        CategorySnapshot snapshot = categorySnapshots.get(orgId);
+        if (snapshot == null || snapshot.isOlderThan(ttl)) {
+            return Optional.empty();
+        }
+        return Optional.of(snapshot.getCategories());
+    }
+
+    public void upsertCategory(String orgId, StorefrontCategory category) {
+        if (category == null || category.getCategoryId() == null) {
+            return;
+        }
+        applyCategoryChanges(orgId, List.of(category), List.of());
+    }
+
+    public void removeCategory(String orgId, String categoryId) {
+        applyCategoryChanges(orgId, List.of(), List.of(categoryId));
+    }
+
+    public void applyCategoryChanges(String orgId, Collection<StorefrontCategory> upserts, Collection<String> removedIds) {
+        categorySnapshots.changing(orgId);
+        categorySnapshots.byOrg.computeIfPresent(orgId, (key, current) -> current.withChanges(upserts, removedIds));
+        eventPublisher.publishEvent(CatalogChangedEvent.categories(orgId));
+    }
+
+    public void replaceCategories(String orgId, Collection<StorefrontCategory> categories) {
+        categorySnapshots.changing(orgId);
+        categorySnapshots.byOrg.put(orgId, CategorySnapshot.of(categories));
+        eventPublisher.publishEvent(CatalogChangedEvent.categories(orgId));
+    }
+
+    /**
+     * Drops the organization's snapshots so that the next read rebuilds them from Firestore.
+     */
+    public void invalidate(String orgId) {
+        snapshots.changing(orgId);
+        categorySnapshots.changing(orgId);
+        snapshots.byOrg.remove(orgId);
+        categorySnapshots.byOrg.remove(orgId);
+        eventPublisher.publishEvent(CatalogChangedEvent.reload(orgId));
+    }
+
+    /**
+     * Loads an organization's snapshot, or joins the load already in flight.
+     *
+     * @param seen  The snapshot the caller found missing or expired; a newer, fresh one is returned as is.
+     * @param fresh Whether a cached snapshot can still be served.
+     */
+    private <S> S load(Slots<S> slots, String orgId, S seen, Predicate<S> fresh, Supplier<S> loader) {
+        CompletableFuture<S> load = new CompletableFuture<>();
+        CompletableFuture<S> existing = slots.loads.putIfAbsent(orgId, load);
+        if (existing != null) {
+            try {
+                return existing.join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException cause ? cause : e;
+            }
+        }
+        try {
+            S latest = slots.get(orgId);
+            if (latest != null && latest != seen && fresh.test(latest)) {
+                load.complete(latest); // Loaded or replaced meanwhile
+                return latest;
+            }
+            long generation = slots.generation(orgId);
+            S loaded = loader.get();
+            S result = slots.byOrg.compute(orgId, (key, current) -> {
+                if (slots.generation(orgId) == generation) {
+                    return loaded;
+                }
+                log.debug("Catalog of org {} changed while loading; not caching the load", orgId);
+                return current;
+            });
+            if (result == null || !fresh.test(result)) {
+                result = loaded;
+            }
+            load.complete(result);
+            return result;
+        } catch (RuntimeException e) {
+            load.completeExceptionally(e);
+            throw e;
+        } finally {
+            slots.loads.remove(orgId, load);
+        }
+    }
+}
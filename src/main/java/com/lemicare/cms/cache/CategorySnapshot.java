@@ -0,0 +1,55 @@
+package com.lemicare.cms.cache;
+
+import com.cosmicdoc.common.model.StorefrontCategory;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable, point-in-time view of an organization's storefront categories.
+ * Works exactly like {@link CatalogSnapshot}: every change produces a new instance.
+ */
+public final class CategorySnapshot {
+
+    private final Map<String, StorefrontCategory> categoriesById;
+    private final List<StorefrontCategory> categories;
+    private final Instant loadedAt;
+
+    private CategorySnapshot(Map<String, StorefrontCategory> categoriesById, Instant loadedAt) {
+        this.categoriesById = Collections.unmodifiableMap(categoriesById);
+        this.categories = List.copyOf(categoriesById.values());
+        this.loadedAt = loadedAt;
+    }
+
+    public static CategorySnapshot of(Collection<StorefrontCategory> categories) {
+        Map<String, StorefrontCategory> byId = new LinkedHashMap<>();
+        for (StorefrontCategory category : categories) {
+            if (category != null && category.getCategoryId() != null) {
+                byId.put(category.getCategoryId(), category);
+            }
+        }
+        return new CategorySnapshot(byId, Instant.now());
+    }
+
+    public List<StorefrontCategory> getCategories() {
+        return categories;
+    }
+
+    public CategorySnapshot withChanges(Collection<StorefrontCategory> upserts, Collection<String> removedIds) {
+        Map<String, StorefrontCategory> copy = new LinkedHashMap<>(categoriesById);
+        removedIds.forEach(copy::remove);
+        for (StorefrontCategory category : upserts) {
+            copy.put(category.getCategoryId(), category);
+        }
+        return new CategorySnapshot(copy, loadedAt);
+    }
+
+    public boolean isOlderThan(Duration maxAge) {
+        return loadedAt.plus(maxAge).isBefore(Instant.now());
+    }
+}
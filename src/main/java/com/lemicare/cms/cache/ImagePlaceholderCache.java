@@ -0,0 +1,127 @@
+package com.lemicare.cms.cache;
+
+import com.lemicare.cms.firestore.ImageAssetRecordStore;
+import com.lemicare.cms.image.ImagePlaceholder;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Holds the image placeholders of each organization in memory, so product responses can
+ * include them without a Firestore read per image.
+ * <p>
+ * An organization's placeholders are loaded with one projection query and patched by the
+ * image jobs of this instance. Placeholders computed by other instances are picked up when
+ * a response asks for an asset that is missing here, at most once per
+ * {@code miss-reload-interval}, and in any case after the catalog cache TTL. Assets still
+ * missing after a reload (e.g. images uploaded before placeholders existed) are remembered
+ * as misses until the TTL, so they do not trigger a reload on every request.
+ * <p>
+ * Loads run on the calling thread outside of any map lock; concurrent callers for the same
+ * organization wait for the one load in flight.
+ */
+@Component
+@RequiredArgsConstructor
+public class ImagePlaceholderCache {
+
+    private final ImageAssetRecordStore imageAssetRecordStore;
+    private final ConcurrentMap<String, Placeholders> placeholders = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, CompletableFuture<Placeholders>> inFlight = new ConcurrentHashMap<>();
+
+    @Value("${app.storefront.catalog-cache.ttl:10m}")
+    private Duration ttl;
+
+    @Value("${app.images.placeholders.miss-reload-interval:10s}")
+    private Duration missReloadInterval;
+
+    private record Placeholders(Map<String, ImagePlaceholder> byAssetId, Set<String> misses, Instant loadedAt) {
+        boolean isOlderThan(Duration age) {
+            return loadedAt.plus(age).isBefore(Instant.now());
+        }
+
+        boolean knows(Collection<String> assetIds) {
+            for (String assetId : assetIds) {
+                if (!byAssetId.containsKey(assetId) && !misses.contains(assetId)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Returns the organization's placeholders by asset ID, reloading them when expired or
+     * when one of {@code assetIds} is neither loaded nor a known miss.
+     */
+    public Map<String, ImagePlaceholder> get(String orgId, Collection<String> assetIds) {
+        Placeholders current = placeholders.get(orgId);
+        if (current != null && !current.isOlderThan(ttl)
+                && (current.knows(assetIds) || !current.isOlderThan(missReloadInterval))) {
+            return current.byAssetId();
+        }
+        Placeholders loaded = load(orgId, current);
+        for (String assetId : assetIds) {
+            if (!loaded.byAssetId().containsKey(assetId)) {
+                loaded.misses().add(assetId);
+            }
+        }
+        return loaded.byAssetId();
+    }
+
+    /**
+     * Records the placeholder of an asset processed by this instance, if the organization
+     * is loaded.
+     */
+    public void put(String orgId, String assetId, ImagePlaceholder placeholder) {
+        if (placeholder == null) {
+            return;
+        }
+        Placeholders current = placeholders.get(orgId);
+        if (current != null) {
+            current.byAssetId().put(assetId, placeholder);
+            current.misses().remove(assetId);
+        }
+    }
+
+    /**
+     * Loads the organization's placeholders, or joins the load already in flight.
+     *
+     * @param seen The entry the caller found stale; a newer entry is returned as is.
+     */
+    private Placeholders load(String orgId, Placeholders seen) {
+        CompletableFuture<Placeholders> load = new CompletableFuture<>();
+        CompletableFuture<Placeholders> existing = inFlight.putIfAbsent(orgId, load);
+        if (existing != null) {
+            try {
+                return existing.join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException cause ? cause : e;
+            }
+        }
+        try {
+            Placeholders latest = placeholders.get(orgId);
+            if (latest == null || latest == seen) {
+                latest = new Placeholders(new ConcurrentHashMap<>(imageAssetRecordStore.findPlaceholders(orgId)),
+                        ConcurrentHashMap.newKeySet(), Instant.now());
+                placeholders.put(orgId, latest);
+            }
+            load.complete(latest);
+            return latest;
+        } catch (RuntimeException e) {
+            load.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(orgId, load);
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package com.lemicare.cms.cache;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.RequiredArgsConstructor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Caches the serialized JSON bytes of the public storefront GET endpoints, keyed by
+ * organization and resource, together with a strong ETag derived from the content hash.
+ * <p>
+ * Once an entry exists, repeated requests are answered without touching Firestore or
+ * Jackson, and conditional requests whose {@code If-None-Match} matches are answered
+ * with 304. Entries are evicted on {@link CatalogChangedEvent}s, by a TTL, and least
+ * recently used first once an organization holds {@code max-entries-per-org}.
+ */
+@Component
+@RequiredArgsConstructor
+public class PublicResponseCache {
+    private static final Logger log = LoggerFactory.getLogger(PublicResponseCache.class);
+
+    public static final String PRODUCTS = "products";
+    public static final String CATEGORIES = "categories";
+    private static final String PRODUCT_PREFIX = "product:";
+
+    private final ObjectMapper objectMapper;
+
+    private final ConcurrentMap<String, OrgEntries> entries = new ConcurrentHashMap<>();
+
+    @Value("${app.storefront.response-cache.ttl:10m}")
+    private Duration ttl;
+
+    @Value("${app.storefront.response-cache.max-entries-per-org:2000}")
+    private int maxEntriesPerOrg;
+
+    public static String productKey(String productId) {
+        return PRODUCT_PREFIX + productId;
+    }
+
+    /**
+     * Returns the cached response for the given key, or serializes the body produced by
+     * the supplier and caches it. Exceptions from the supplier are propagated and nothing
+     * is cached.
+     */
+    public CachedResponse get(String orgId, String key, Supplier<?> bodySupplier) {
+        return get(orgId, key, bodySupplier, body -> true);
+    }
+
+    /**
+     * Same as {@link #get(String, String, Supplier)}, but only caches bodies accepted by
+     * the given predicate. Rejected bodies are serialized and returned without caching.
+     */
+    public <T> CachedResponse get(String orgId, String key, Supplier<T> bodySupplier, Predicate<? super T> cacheable) {
+        OrgEntries orgEntries = entries.computeIfAbsent(orgId, id -> new OrgEntries(maxEntriesPerOrg));
+        CachedResponse cached = orgEntries.get(key);
+        if (cached != null && !cached.isOlderThan(ttl)) {
+            return cached;
+        }
+
+        // A catalog change while the body is produced may make it stale; it is then not cached.
+        long generation = orgEntries.generation();
+        T body = bodySupplier.get();
+        CachedResponse fresh = serialize(body);
+        if (cacheable.test(body)) {
+            orgEntries.putIfGeneration(key, fresh, generation);
+        }
+        return fresh;
+    }
+
+    /**
+     * Serializes a body and computes its ETag without caching it, for responses that
+     * must not be shared (e.g. degraded ones).
+     */
+    public CachedResponse serialize(Object body) {
+        try {
+            byte[] bytes = objectMapper.writeValueAsBytes(body);
+            return new CachedResponse(bytes, strongEtag(bytes), Instant.now());
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Failed to serialize storefront response.", e);
+        }
+    }
+
+    public void evict(String orgId, String key) {
+        OrgEntries orgEntries = entries.get(orgId);
+        if (orgEntries != null) {
+            orgEntries.remove(List.of(key));
+        }
+    }
+
+    @EventListener
+    public void onCatalogChanged(CatalogChangedEvent event) {
+        OrgEntries orgEntries = entries.get(event.organizationId());
+        if (orgEntries == null) {
+            return;
+        }
+        if (event.fullReload()) {
+            orgEntries.clear();
+            return;
+        }
+        List<String> keys = new ArrayList<>();
+        if (!event.productIds().isEmpty()) {
+            keys.add(PRODUCTS);
+            event.productIds().forEach(productId -> keys.add(productKey(productId)));
+        }
+        if (event.categoriesChanged()) {
+            keys.add(CATEGORIES);
+        }
+        orgEntries.remove(keys);
+        log.debug("Evicted cached responses for org {} (products: {}, categories: {})",
+                event.organizationId(), event.productIds().size(), event.categoriesChanged());
+    }
+
+    private static String strongEtag(byte[] body) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(body);
+            byte[] truncated = Arrays.copyOf(digest, 16);
+            return "\"" + Base64.getUrlEncoder().withoutPadding().encodeToString(truncated) + "\"";
+        } catch (NoSuchAlgorithmException e) {
+            // SHA-256 is mandatory on every Java platform
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * The cached responses of one organization, least recently used first.
+     * <p>
+     * Every invalidation bumps the generation, and a response is only stored if the
+     * generation is unchanged since its body was produced, so a body read before a catalog
+     * change can never be stored after the eviction that the change triggered.
+     */
+    static final class OrgEntries {
+        private final int maxEntries;
+        private final LinkedHashMap<String, CachedResponse> responses = new LinkedHashMap<>(64, 0.75f, true);
+        private long generation;
+
+        OrgEntries(int maxEntries) {
+            this.maxEntries = maxEntries;
+        }
+
+        synchronized CachedResponse get(String key) {
+            return responses.get(key);
+        }
+
+        synchronized long generation() {
+            return generation;
+        }
+
+        synchronized void putIfGeneration(String key, CachedResponse response, long expectedGeneration) {
+            if (generation != expectedGeneration) {
+                return;
+            }
+            responses.put(key, response);
+            Iterator<String> eldest = responses.keySet().iterator();
+            while (responses.size() > maxEntries && eldest.hasNext()) {
+                eldest.next();
+                eldest.remove();
+            }
+        }
+
+        synchronized void remove(Collection<String> keys) {
+            generation++;
+            keys.forEach(responses::remove);
+        }
+
+        synchronized void clear() {
+            generation++;
+            responses.clear();
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.lemicare.cms.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * Central definition of the bounded executors used by the service.
+ * <p>
+ * Every pool is sized from configuration and backed by a bounded queue, so a slow
+ * downstream dependency can never make the service create unbounded threads or tasks.
+ */
+@Configuration
+public class ConcurrencyConfig {
+
+    /**
+     * Executor for the independent lookups (Firestore reads, inventory calls) that are
+     * fanned out in parallel while assembling a storefront response.
+     * When saturated, new lookups are rejected instead of running on the request thread,
+     * where they would escape the response deadline; callers treat a rejected lookup like
+     * a failed one and degrade the response.
+     */
+    @Bean(name = "storefrontLookupExecutor")
+    public ThreadPoolTaskExecutor storefrontLookupExecutor(
+            @Value("${app.storefront.lookup-executor.pool-size:16}") int poolSize,
+            @Value("${app.storefront.lookup-executor.queue-capacity:500}") int queueCapacity) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(poolSize);
+        executor.setMaxPoolSize(poolSize);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setThreadNamePrefix("storefront-lookup-");
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.AbortPolicy());
+        executor.setWaitForTasksToCompleteOnShutdown(false);
+        executor.initialize();
+        return executor;
+    }
+
+    /**
+     * Executor that encodes and uploads image variants in parallel. Resizing is CPU-bound,
+     * so the pool defaults to one thread per core; a saturated pool makes the uploading
+     * request do the work itself.
+     */
+    @Bean(name = "imageProcessingExecutor")
+    public ThreadPoolTaskExecutor imageProcessingExecutor(
+            @Value("${app.images.executor.pool-size:0}") int poolSize,
+            @Value("${app.images.executor.queue-capacity:100}") int queueCapacity) {
+        int threads = poolSize > 0 ? poolSize : Runtime.getRuntime().availableProcessors();
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(threads);
+        executor.setMaxPoolSize(threads);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setThreadNamePrefix("image-processing-");
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        executor.initialize();
+        return executor;
+    }
+
+    /**
+     * Executor that streams the originals of a multi-file upload to Cloud Storage in
+     * parallel. The work is I/O-bound, so the pool is sized independently of the CPU count;
+     * when saturated, the uploading request stores the file itself.
+     */
+    @Bean(name = "imageUploadExecutor")
+    public ThreadPoolTaskExecutor imageUploadExecutor(
+            @Value("${app.images.upload-executor.pool-size:8}") int poolSize,
+            @Value("${app.images.upload-executor.queue-capacity:50}") int queueCapacity) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(poolSize);
+        executor.setMaxPoolSize(poolSize);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setThreadNamePrefix("image-upload-");
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        executor.initialize();
+        return executor;
+    }
+}
@@ -36,6 +36,10 @@ public class FirebaseConfig {
    @Value("${gcp.project-id}")
     private String projectId;
 
+    // Overrides the Cloud Storage endpoint, e.g. to use a local fake GCS server
+    @Value("${gcp.storage.host:}")
+    private String storageHost;
+
     /**
      * Initializes the Firebase Admin SDK as a Spring Bean.
      * <p>
@@ -122,11 +126,13 @@ public class FirebaseConfig {
         InputStream serviceAccount = new ClassPathResource(serviceAccountPath).getInputStream();
 
         // Build StorageOptions with the project ID and credentials
-        return StorageOptions.newBuilder()
+        StorageOptions.Builder options = StorageOptions.newBuilder()
                 .setProjectId(projectId)
-                .setCredentials(GoogleCredentials.fromStream(serviceAccount))
-                .build()
-                .getService();
+                .setCredentials(GoogleCredentials.fromStream(serviceAccount));
+        if (!storageHost.isBlank()) {
+            options.setHost(storageHost);
+        }
+        return options.build().getService();
     }
 
 }
@@ -4,7 +4,11 @@ import com.cosmicdoc.common.model.StorefrontCategory;
 import com.cosmicdoc.common.model.StorefrontProduct;
 import com.cosmicdoc.common.repository.StorefrontCategoryRepository;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.lemicare.cms.dto.request.ImageUploadFinalizeRequest;
+import com.lemicare.cms.dto.request.ImageUploadUrlRequest;
 import com.lemicare.cms.dto.request.ProductEnrichmentRequestDto;
+import com.lemicare.cms.dto.response.ImageAssetStatusResponse;
+import com.lemicare.cms.dto.response.ImageUploadUrlResponse;
 import com.lemicare.cms.security.SecurityUtils;
 import com.lemicare.cms.service.StorefrontService;
 import jakarta.validation.Valid;
@@ -118,6 +122,43 @@ public class AdminContentController {
         return ResponseEntity.status(HttpStatus.CREATED).body(updatedProduct);
     }
 
+    /**
+     * Starts a direct upload: returns a signed URL the browser PUTs the image to, bypassing
+     * this service. Complete it with the finalize endpoint.
+     */
+    @PostMapping("/products/{productId}/images/upload-url")
+    public ResponseEntity<ImageUploadUrlResponse> createImageUploadUrl(
+            @PathVariable String productId,
+            @Valid @RequestBody ImageUploadUrlRequest request) {
+        String orgId = SecurityUtils.getOrganizationId();
+        return ResponseEntity.ok(storefrontService.createImageUploadUrl(orgId, productId, request));
+    }
+
+    /**
+     * Completes a direct upload once the browser has stored the image.
+     */
+    @PostMapping("/products/{productId}/images/{assetId}/finalize")
+    public ResponseEntity<StorefrontProduct> finalizeImageUpload(
+            @PathVariable String productId,
+            @PathVariable String assetId,
+            @RequestBody(required = false) ImageUploadFinalizeRequest request) throws IOException {
+        String orgId = SecurityUtils.getOrganizationId();
+        StorefrontProduct updatedProduct = storefrontService.finalizeImageUpload(orgId, productId, assetId,
+                request != null ? request : new ImageUploadFinalizeRequest());
+        return ResponseEntity.status(HttpStatus.CREATED).body(updatedProduct);
+    }
+
+    /**
+     * Reports whether the resized variants of an uploaded image are ready.
+     */
+    @GetMapping("/products/{productId}/images/{assetId}/status")
+    public ResponseEntity<ImageAssetStatusResponse> getImageStatus(
+            @PathVariable String productId,
+            @PathVariable String assetId) {
+        String orgId = SecurityUtils.getOrganizationId();
+        return ResponseEntity.ok(storefrontService.getImageAssetStatus(orgId, productId, assetId));
+    }
+
     @DeleteMapping("/products/{productId}/images/{assetId}")
     public ResponseEntity<StorefrontProduct> deleteProductImage(
             @PathVariable String productId,
@@ -1,14 +1,25 @@
 package com.lemicare.cms.controller;
 
-import com.cosmicdoc.common.model.StockLevelChangedEvent;
 import com.cosmicdoc.common.model.StorefrontProduct;
+import com.lemicare.cms.cache.BranchCache;
 import com.lemicare.cms.dto.request.OrderDetailsDto;
+import com.lemicare.cms.dto.request.VersionedStockLevelChangedEvent;
+import com.lemicare.cms.dto.response.StockUpdateBatchResponse;
+import com.lemicare.cms.firestore.BatchReadResult;
+import com.lemicare.cms.image.ImageGcRun;
+import com.lemicare.cms.service.ImageGarbageCollector;
 import com.lemicare.cms.service.StorefrontService;
+import com.lemicare.cms.stock.StockEventJournal;
+import com.lemicare.cms.stock.StockEventQueue;
 import io.swagger.v3.oas.annotations.Hidden;
 import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import java.time.Duration;
 import java.util.List;
 
 @RestController
@@ -16,15 +27,78 @@ import java.util.List;
 @RequiredArgsConstructor
 @Hidden
 public class InternalCmsController {
+    static final String MISSING_PRODUCT_IDS_HEADER = "X-Missing-Product-Ids";
+
     private final StorefrontService storefrontService;
+    private final BranchCache branchCache;
+    private final StockEventQueue stockEventQueue;
+    private final StockEventJournal stockEventJournal;
+    private final ImageGarbageCollector imageGarbageCollector;
+
+    @Value("${app.stock-updates.queue.retry-after:1s}")
+    private Duration stockQueueRetryAfter;
+
+    @Value("${app.stock-updates.max-batch-size:1000}")
+    private int maxStockBatchSize;
 
+    /**
+     * Journals and queues a stock change event, and acknowledges it with 202 before any
+     * Firestore work is done. Responds 429 with {@code Retry-After} when the queue is full.
+     */
     @PostMapping("/stock-updates")
    // @PreAuthorize("hasAnyAuthority('ROLE_ADMIN', 'ROLE_SUPER_ADMIN')") // Example: Specific role for Inventory Service
-    public ResponseEntity<Void> handleStockChangeNotification(@RequestBody StockLevelChangedEvent event) {
-        // Validate event, log, then delegate to service
-        storefrontService.updateProductStockLevel(event.getOrganizationId(),event.getBranchId(), event.getMedicineId(), event.getNewTotalStock(),event.getMedicineName(),event.getMrp(),event.getTaxprofileId(),event.getGstType(),event.getCategory());
+    public ResponseEntity<Void> handleStockChangeNotification(@RequestBody VersionedStockLevelChangedEvent event) {
+        long journalSequence = stockEventJournal.append(event);
+        if (!stockEventQueue.offer(event, journalSequence)) {
+            // Rejected events are retried by the sender, so they must not be replayed.
+            stockEventJournal.ack(journalSequence);
+            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                    .header(HttpHeaders.RETRY_AFTER, String.valueOf(Math.max(1, stockQueueRetryAfter.toSeconds())))
+                    .build();
+        }
+        return ResponseEntity.accepted().build();
+    }
+
+    /**
+     * Batched variant of {@link #handleStockChangeNotification}: applies an array of events
+     * through a Firestore BulkWriter and reports a result per event, so bursts such as a
+     * goods receipt cost a handful of requests instead of one per medicine.
+     */
+    @PostMapping("/stock-updates/batch")
+    public ResponseEntity<StockUpdateBatchResponse> handleStockChangeBatch(@RequestBody List<VersionedStockLevelChangedEvent> events) {
+        if (events.size() > maxStockBatchSize) {
+            return ResponseEntity.status(HttpStatus.PAYLOAD_TOO_LARGE).build();
+        }
+        return ResponseEntity.ok(storefrontService.applyStockUpdates(events));
+    }
+
+    /**
+     * Drops the cached branches of an organization, e.g. after a branch was added or removed.
+     */
+    @PostMapping("/{orgId}/branches/invalidate")
+    public ResponseEntity<Void> invalidateBranches(@PathVariable("orgId") String orgId) {
+        branchCache.invalidate(orgId);
+        return ResponseEntity.noContent().build();
+    }
+
+    /**
+     * Starts an image garbage collection run in the background; poll {@code GET} for the
+     * report. Responds 409 while a run is in progress.
+     */
+    @PostMapping("/images/gc")
+    public ResponseEntity<Void> startImageGarbageCollection(@RequestParam(value = "dryRun", defaultValue = "true") boolean dryRun) {
+        if (!imageGarbageCollector.start(dryRun)) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).build();
+        }
+        return ResponseEntity.accepted().build();
+    }
 
-        return ResponseEntity.ok().build();
+    /**
+     * The progress of the current image garbage collection run, or the report of the last one.
+     */
+    @GetMapping("/images/gc")
+    public ResponseEntity<ImageGcRun> getImageGarbageCollectionReport() {
+        return ResponseEntity.of(imageGarbageCollector.lastRun());
     }
 
     @GetMapping("/storefront/{orgId}/product/{productId}/details")
@@ -41,12 +115,14 @@ public class InternalCmsController {
     public ResponseEntity<List<StorefrontProduct>> getProductsByIds(
             @PathVariable String organizationId,
             @RequestParam List<String> productIds) {
-        // You might need a specific method in your repository for batch fetch,
-        // or iterate if your Firestore setup allows efficient batch reads by ID.
-        // For Firestore, this would typically involve a loop of `findById` or
-        // a `whereIn` query if productIds is <= 10.
-        List<StorefrontProduct> products = storefrontService.productByIds(organizationId,productIds);
+        // Batched Firestore getAll; the body keeps the request order and any IDs without a
+        // document are reported in a header so the response shape stays unchanged for callers.
+        BatchReadResult<StorefrontProduct> products = storefrontService.findProductsByIds(organizationId, productIds);
 
-        return ResponseEntity.ok(products);
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+        if (!products.missingIds().isEmpty()) {
+            response.header(MISSING_PRODUCT_IDS_HEADER, String.join(",", products.missingIds()));
+        }
+        return response.body(products.found());
     }
 }
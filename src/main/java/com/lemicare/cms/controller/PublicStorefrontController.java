@@ -4,28 +4,41 @@ import com.cosmicdoc.common.model.StorefrontCategory;
 import com.cosmicdoc.common.model.StorefrontOrder;
 import com.cosmicdoc.common.model.StorefrontProduct;
 import com.cosmicdoc.common.util.CursorPage;
+import com.lemicare.cms.cache.CachedResponse;
+import com.lemicare.cms.cache.PublicResponseCache;
 import com.lemicare.cms.dto.response.ProductWithStockResponse;
 import com.lemicare.cms.exception.ResourceNotFoundException;
 import com.lemicare.cms.dto.request.CreateOrderRequest;
 import com.lemicare.cms.dto.request.InitiateCheckoutRequest;
 import com.lemicare.cms.dto.response.CreateOrderResponse;
 import com.lemicare.cms.dto.response.PublicProductDetailResponse;
+import com.lemicare.cms.image.ImageRenditions;
+import com.lemicare.cms.image.ImageVariant;
 import com.lemicare.cms.service.StorefrontService;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.Parameter;
 import io.swagger.v3.oas.annotations.tags.Tag;
+import jakarta.servlet.http.HttpServletResponse;
 import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
 import org.apache.http.HttpHeaders;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.http.CacheControl;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import java.io.IOException;
+import java.net.URI;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Controller for handling all PUBLIC-FACING API requests for the e-commerce storefront.
@@ -39,13 +52,18 @@ import java.util.concurrent.ExecutionException;
 public class PublicStorefrontController {
     private static final Logger log = LoggerFactory.getLogger(PublicStorefrontController.class);
     private final StorefrontService storefrontService;
+    private final PublicResponseCache publicResponseCache;
+    private final ImageRenditions imageRenditions;
+
+    private static final CacheControl IMMUTABLE = CacheControl.maxAge(365, TimeUnit.DAYS).cachePublic().immutable();
 
     /**
      * Fetches a paginated and filterable list of all visible products for a store.
      */
     @GetMapping("/{orgId}/products")
-    public ResponseEntity<List<StorefrontProduct>> listPublicProducts(
-            @PathVariable String orgId
+    public ResponseEntity<byte[]> listPublicProducts(
+            @PathVariable String orgId,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch
             // @RequestParam(required = false) String categoryId,
             // @RequestParam(defaultValue = "0") int page,
             //@RequestParam(defaultValue = "20") int size,
@@ -53,8 +71,9 @@ public class PublicStorefrontController {
     ) {
         /*PaginatedResponse<PublicProductListResponse> products = storefrontService.listPublicProducts(orgId, categoryId, page, size, startAfter);
         return ResponseEntity.ok(products);*/
-        List<StorefrontProduct> products = storefrontService.getAvailableProducts(orgId);
-        return ResponseEntity.ok(products);
+        CachedResponse products = publicResponseCache.get(orgId, PublicResponseCache.PRODUCTS,
+                () -> storefrontService.getAvailableProducts(orgId));
+        return toConditionalResponse(products, ifNoneMatch);
 
     }
 
@@ -75,12 +94,15 @@ public class PublicStorefrontController {
     @GetMapping("/{orgId}/products/{productId}")
     public ResponseEntity<?> getPublicProductDetails(
             @Parameter(description = "The unique ID of the organization's store") @PathVariable String orgId,
-            @Parameter(description = "The unique ID of the product") @PathVariable String productId) {
+            @Parameter(description = "The unique ID of the product") @PathVariable String productId,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
 
         try {
             // Delegate the orchestration logic to the service layer.
-            PublicProductDetailResponse productDetails = storefrontService.getPublicProductDetails(orgId, productId);
-            return ResponseEntity.ok(productDetails);
+            CachedResponse productDetails = publicResponseCache.get(orgId, PublicResponseCache.productKey(productId),
+                    () -> storefrontService.getPublicProductDetails(orgId, productId),
+                    details -> !details.isStockUnknown()); // Never share a degraded response
+            return toConditionalResponse(productDetails, ifNoneMatch);
         } catch (ResourceNotFoundException e) {
             // If the service throws this, it means the product is not found or not visible.
             // Return a standard 404 Not Found.
@@ -92,13 +114,94 @@ public class PublicStorefrontController {
         }
     }
 
+    /**
+     * Serves a product image resized to the requested width, for layouts the fixed
+     * thumbnail/medium/large variants do not fit. Renditions never change, so they are
+     * cacheable forever while the image exists; a deleted image is 404 even for a matching
+     * {@code If-None-Match}. Without a {@code format}, WebP is served to clients that
+     * accept it and JPEG otherwise.
+     */
+    @GetMapping("/{orgId}/products/{productId}/images/{assetId}")
+    public void getProductImage(
+            @PathVariable String orgId,
+            @PathVariable String productId,
+            @PathVariable String assetId,
+            @RequestParam(name = "w", defaultValue = "600") int width,
+            @RequestParam(required = false) String format,
+            @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch,
+            HttpServletResponse response) throws IOException {
+        if (format == null) {
+            format = imageRenditions.negotiateFormat(accept);
+            response.setHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT);
+        }
+        String etag;
+        try {
+            etag = imageRenditions.etag(assetId, width, format);
+        } catch (IllegalArgumentException e) {
+            response.sendError(HttpStatus.BAD_REQUEST.value(), e.getMessage());
+            return;
+        }
+        ImageRenditions.ImageSource source = imageRenditions.locate(orgId, productId, assetId);
+
+        response.setHeader(HttpHeaders.ETAG, etag);
+        response.setHeader(HttpHeaders.CACHE_CONTROL, IMMUTABLE.getHeaderValue());
+        if (CachedResponse.matches(ifNoneMatch, etag)) {
+            response.setStatus(HttpStatus.NOT_MODIFIED.value());
+            return;
+        }
+
+        // The channel was opened while the rendition was cached, so eviction cannot remove it mid-send.
+        try (ImageRenditions.Rendition rendition = imageRenditions.render(source, width, format)) {
+            FileChannel file = rendition.file();
+            long size = file.size();
+            response.setContentType(rendition.contentType());
+            response.setContentLengthLong(size);
+            WritableByteChannel out = Channels.newChannel(response.getOutputStream());
+            long position = 0;
+            while (position < size) {
+                position += file.transferTo(position, size - position, out);
+            }
+        }
+    }
+
+    /**
+     * Redirects to the smallest stored encoding (WebP, JPEG or the original's format) of a
+     * fixed image variant that the client's {@code Accept} header allows.
+     */
+    @GetMapping("/{orgId}/products/{productId}/images/{assetId}/{variant}")
+    public ResponseEntity<Void> getProductImageVariant(
+            @PathVariable String orgId,
+            @PathVariable String productId,
+            @PathVariable String assetId,
+            @PathVariable String variant,
+            @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept) {
+        ImageVariant imageVariant = Arrays.stream(ImageVariant.values())
+                .filter(candidate -> candidate.getPrefix().equalsIgnoreCase(variant))
+                .findFirst()
+                .orElse(null);
+        if (imageVariant == null) {
+            return ResponseEntity.notFound().build();
+        }
+        return imageRenditions.selectVariant(orgId, productId, assetId, imageVariant, accept)
+                .map(file -> ResponseEntity.status(HttpStatus.FOUND)
+                        .location(URI.create(file.getUrl()))
+                        .header(HttpHeaders.VARY, HttpHeaders.ACCEPT)
+                        .cacheControl(CacheControl.maxAge(1, TimeUnit.DAYS).cachePublic())
+                        .<Void>build())
+                .orElseGet(() -> ResponseEntity.notFound().build());
+    }
+
     /**
      * Fetches the list of all categories for a store's navigation.
      */
     @GetMapping("/{orgId}/categories")
-    public ResponseEntity<List<StorefrontCategory>> getPublicCategories(@PathVariable String orgId) {
-        List<StorefrontCategory> categories =(storefrontService.getCategories(orgId));
-        return ResponseEntity.ok(categories);
+    public ResponseEntity<byte[]> getPublicCategories(
+            @PathVariable String orgId,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        CachedResponse categories = publicResponseCache.get(orgId, PublicResponseCache.CATEGORIES,
+                () -> storefrontService.getCategories(orgId));
+        return toConditionalResponse(categories, ifNoneMatch);
     }
 
     @PostMapping("/{orgId}/checkout/initiate")
@@ -133,7 +236,23 @@ public class PublicStorefrontController {
     ) {
         return storefrontService.getAvailableProductsPaged(orgId, categoryId, pageSize, nextPageToken);
     }
-}
-
-
 
+    /**
+     * Answers with 304 when the client already holds the current representation,
+     * otherwise with the pre-serialized JSON body. Either way the ETag is sent so that
+     * browsers and CDNs can revalidate cheaply.
+     */
+    private ResponseEntity<byte[]> toConditionalResponse(CachedResponse response, String ifNoneMatch) {
+        if (response.matches(ifNoneMatch)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+                    .eTag(response.etag())
+                    .cacheControl(CacheControl.noCache().cachePublic())
+                    .build();
+        }
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_JSON)
+                .eTag(response.etag())
+                .cacheControl(CacheControl.noCache().cachePublic())
+                .body(response.body());
+    }
+}
@@ -0,0 +1,9 @@
+package com.lemicare.cms.dto.request;
+
+import lombok.Data;
+
+@Data
+public class ImageUploadFinalizeRequest {
+    private String altText;
+    private int displayOrder;
+}
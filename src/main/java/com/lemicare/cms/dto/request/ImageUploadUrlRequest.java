@@ -0,0 +1,18 @@
+package com.lemicare.cms.dto.request;
+
+import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.PositiveOrZero;
+import lombok.Data;
+
+/**
+ * Announces an image the browser is about to upload directly to storage.
+ */
+@Data
+public class ImageUploadUrlRequest {
+    @NotBlank(message = "File name is required.")
+    private String fileName;        // Informational; the stored extension follows the content type
+    @NotBlank(message = "Content type is required.")
+    private String contentType;
+    @PositiveOrZero
+    private long sizeBytes;
+}
@@ -0,0 +1,34 @@
+package com.lemicare.cms.dto.request;
+
+import com.cosmicdoc.common.model.StockLevelChangedEvent;
+import com.fasterxml.jackson.annotation.JsonAlias;
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.NoArgsConstructor;
+import lombok.ToString;
+
+/**
+ * A {@link StockLevelChangedEvent} as received on the internal stock-update endpoints,
+ * optionally carrying a version assigned by the inventory service.
+ * <p>
+ * Versions must increase monotonically per medicine (e.g. a per-medicine sequence or
+ * the change timestamp in millis). Versioned events that are older than what the CMS
+ * has already applied are dropped. Events without a version are applied unconditionally,
+ * as before.
+ */
+@Data
+@NoArgsConstructor
+@EqualsAndHashCode(callSuper = true)
+@ToString(callSuper = true)
+public class VersionedStockLevelChangedEvent extends StockLevelChangedEvent {
+
+    @JsonAlias({"sequence", "eventVersion"})
+    private Long version;
+
+    /**
+     * Returns the version carried by an event, or {@code null} for unversioned events.
+     */
+    public static Long versionOf(StockLevelChangedEvent event) {
+        return event instanceof VersionedStockLevelChangedEvent versioned ? versioned.getVersion() : null;
+    }
+}
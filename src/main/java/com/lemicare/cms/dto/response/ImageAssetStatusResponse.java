@@ -0,0 +1,32 @@
+package com.lemicare.cms.dto.response;
+
+import com.lemicare.cms.image.ImageAssetRecord;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+
+/**
+ * Status of the background job that generates the resized variants of an image asset.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ImageAssetStatusResponse {
+
+    private String assetId;       // Also the job ID
+    private String productId;
+    private ImageAssetRecord.Status status;
+    private int attempts;
+    private String lastError;     // Reason of the last failed attempt, if any
+
+    // Set once the status is READY
+    private String thumbnailUrl;
+    private String mediumUrl;
+    private String largeUrl;
+
+    private Instant updatedAt;
+}
@@ -0,0 +1,25 @@
+package com.lemicare.cms.dto.response;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+import java.util.Map;
+
+/**
+ * Where and how the browser uploads an image before calling the finalize endpoint.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ImageUploadUrlResponse {
+
+    private String assetId;                     // Pass to the finalize endpoint
+    private String uploadUrl;
+    private String httpMethod;
+    private Map<String, String> requiredHeaders; // Must be sent with the upload unchanged
+    private Instant expiresAt;
+}
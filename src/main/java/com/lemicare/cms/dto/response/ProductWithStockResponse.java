@@ -1,6 +1,5 @@
 package com.lemicare.cms.dto.response;
 
-import com.cosmicdoc.common.model.ImageAsset;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
@@ -20,7 +19,7 @@ public class ProductWithStockResponse {
     private String categoryName;
     private Double mrp;
     private String slug;
-    private List<ImageAsset> images;
+    private List<StorefrontImageDto> images;
 
     // Inventory fields
     private int stockLevel;
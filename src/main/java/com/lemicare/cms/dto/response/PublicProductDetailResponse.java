@@ -1,6 +1,5 @@
 package com.lemicare.cms.dto.response;
 
-import com.cosmicdoc.common.model.ImageAsset;
 import com.cosmicdoc.common.model.StorefrontProduct;
 import lombok.Builder;
 import lombok.Data;
@@ -28,10 +27,11 @@ public class PublicProductDetailResponse {
     // --- Live Stock Information (from Inventory Service) ---
     private int availableStock;
     private String stockStatus; // e.g., "In Stock", "Low Stock", "Out of Stock"
+    private boolean stockUnknown; // True when inventory did not answer in time and stock is the last known CMS value
 
     // --- Enriched Content (from Storefront Service / CMS) ---
     private String richDescription;
-     private List<ImageAsset> images;
+     private List<StorefrontImageDto> images;
 
     private String categoryName;
     private List<String> tags;
@@ -0,0 +1,19 @@
+package com.lemicare.cms.dto.response;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class StockUpdateBatchResponse {
+    private int received;
+    private int applied;
+    private int failed;
+    private List<StockUpdateResult> results; // One entry per event, in request order
+}
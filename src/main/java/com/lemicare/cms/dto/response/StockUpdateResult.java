@@ -0,0 +1,31 @@
+package com.lemicare.cms.dto.response;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * The outcome of a single event in a batched stock update request.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class StockUpdateResult {
+
+    private int index;            // Position of the event in the request array
+    private String organizationId;
+    private String medicineId;
+    private Status status;
+    private String message;       // Failure reason, if any
+
+    public enum Status {
+        APPLIED,    // Existing product updated
+        CREATED,    // Product did not exist and was created
+        SUPERSEDED, // A later or newer event in the same batch targets the same product
+        STALE,      // The stored stock already reflects a newer version; nothing was written
+        INVALID,    // Event is missing required fields
+        FAILED      // Write failed; the sender should retry this event
+    }
+}
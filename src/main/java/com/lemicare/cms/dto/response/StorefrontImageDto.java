@@ -0,0 +1,45 @@
+package com.lemicare.cms.dto.response;
+
+import com.cosmicdoc.common.model.ImageAsset;
+import com.lemicare.cms.image.ImagePlaceholder;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * A product image as sent to the storefront: the {@link ImageAsset} fields plus a
+ * placeholder to paint until the image has loaded.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class StorefrontImageDto {
+
+    private String assetId;
+    private String originalUrl;
+    private String thumbnailUrl;
+    private String mediumUrl;
+    private String largeUrl;
+    private String altText;
+    private int displayOrder;
+
+    // Null until the image has been processed
+    private String blurHash;
+    private String dominantColor; // "#rrggbb"
+
+    public static StorefrontImageDto of(ImageAsset asset, ImagePlaceholder placeholder) {
+        return StorefrontImageDto.builder()
+                .assetId(asset.getAssetId())
+                .originalUrl(asset.getOriginalUrl())
+                .thumbnailUrl(asset.getThumbnailUrl())
+                .mediumUrl(asset.getMediumUrl())
+                .largeUrl(asset.getLargeUrl())
+                .altText(asset.getAltText())
+                .displayOrder(asset.getDisplayOrder())
+                .blurHash(placeholder != null ? placeholder.blurHash() : null)
+                .dominantColor(placeholder != null ? placeholder.dominantColor() : null)
+                .build();
+    }
+}
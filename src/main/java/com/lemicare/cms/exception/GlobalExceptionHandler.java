@@ -59,6 +59,21 @@ public class GlobalExceptionHandler {
         );
     }
 
+    @ExceptionHandler(ImageTooLargeException.class)
+    public ResponseEntity<ApiErrorResponse> handleImageTooLarge(
+            ImageTooLargeException ex,
+            HttpServletRequest request) {
+
+        log.warn("Image rejected: {}", ex.getMessage());
+
+        return buildError(
+                HttpStatus.PAYLOAD_TOO_LARGE,
+                "Image Too Large",
+                ex.getMessage(),
+                request
+        );
+    }
+
     /**
      * Catch-all (VERY important in prod)
      */
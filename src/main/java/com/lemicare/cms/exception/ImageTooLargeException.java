@@ -0,0 +1,10 @@
+package com.lemicare.cms.exception;
+
+/**
+ * Thrown when an uploaded image has more pixels than the service is willing to decode.
+ */
+public class ImageTooLargeException extends RuntimeException {
+    public ImageTooLargeException(String message) {
+        super(message);
+    }
+}
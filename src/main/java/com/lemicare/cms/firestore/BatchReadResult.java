@@ -0,0 +1,12 @@
+package com.lemicare.cms.firestore;
+
+import java.util.List;
+
+/**
+ * Outcome of a batched multi-document read.
+ *
+ * @param found      The documents that exist, in the order their IDs were requested.
+ * @param missingIds The requested IDs that have no document, in request order.
+ */
+public record BatchReadResult<T>(List<T> found, List<String> missingIds) {
+}
@@ -0,0 +1,423 @@
+package com.lemicare.cms.firestore;
+
+import com.cosmicdoc.common.model.StorefrontCategory;
+import com.cosmicdoc.common.model.StorefrontProduct;
+import com.google.cloud.firestore.DocumentChange;
+import com.google.cloud.firestore.FirestoreException;
+import com.google.cloud.firestore.ListenerRegistration;
+import com.google.cloud.firestore.QueryDocumentSnapshot;
+import com.google.cloud.firestore.QuerySnapshot;
+import com.lemicare.cms.cache.CatalogSnapshotCache;
+import com.lemicare.cms.stock.StockProjection;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Keeps the in-memory catalog caches coherent across service instances.
+ * <p>
+ * For every organization whose catalog is served from memory, this component keeps a
+ * Firestore snapshot listener open on the storefront product and category collections
+ * and pushes each add/modify/remove delta into {@link CatalogSnapshotCache}, and the stock
+ * level of each changed product into {@link StockProjection}. Writes handled by other
+ * Cloud Run instances therefore reach this instance without polling.
+ * <p>
+ * The first event of a listener carries the complete collection, so it also serves as the
+ * initial load of the cached catalog: a read that starts the listener waits briefly for
+ * that event instead of scanning the collection a second time. An empty first event is not
+ * trusted, because that is also what a listener on a misconfigured path sees: it never
+ * replaces a cached catalog, loads read the repository instead, and if the repository does
+ * return documents the listeners are switched off (see {@link #checkRepositoryProducts}).
+ * Listeners of organizations
+ * whose catalog has not been read for {@code idle-timeout} are removed together with the
+ * cached catalog they kept current, so an instance does not hold a listener for every
+ * organization it ever served.
+ * <p>
+ * The Firestore client honours {@code FIRESTORE_EMULATOR_HOST}, so the listeners can be
+ * exercised locally against the Firestore emulator without any code changes.
+ */
+@Component
+public class CatalogChangeListener {
+    private static final Logger log = LoggerFactory.getLogger(CatalogChangeListener.class);
+
+    private final StorefrontFirestorePaths paths;
+    private final CatalogSnapshotCache catalogSnapshotCache;
+    private final StockProjection stockProjection;
+    private final ScheduledThreadPoolExecutor sweeper;
+
+    private final ConcurrentMap<String, OrganizationListeners> listeners = new ConcurrentHashMap<>();
+    private final AtomicBoolean pathMismatch = new AtomicBoolean(false);
+
+    @Value("${app.storefront.catalog-sync.enabled:true}")
+    private boolean enabled;
+
+    @Value("${app.storefront.catalog-sync.seed-timeout:5s}")
+    private Duration seedTimeout;
+
+    @Value("${app.storefront.catalog-sync.idle-timeout:30m}")
+    private Duration idleTimeout;
+
+    public CatalogChangeListener(StorefrontFirestorePaths paths, CatalogSnapshotCache catalogSnapshotCache, StockProjection stockProjection) {
+        this.paths = paths;
+        this.catalogSnapshotCache = catalogSnapshotCache;
+        this.stockProjection = stockProjection;
+        this.sweeper = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "catalog-listener-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.sweeper.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+    }
+
+    @PostConstruct
+    void start() {
+        if (!enabled) {
+            return;
+        }
+        long periodMillis = Math.max(1000, idleTimeout.toMillis() / 4);
+        sweeper.scheduleWithFixedDelay(this::removeIdleListeners, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Starts listening to the organization's catalog if this instance is not already doing
+     * so, and marks the organization as in use. Cheap to call on every read.
+     */
+    public void watch(String orgId) {
+        if (!enabled || pathMismatch.get() || orgId == null) {
+            return;
+        }
+        OrganizationListeners current = listeners.get(orgId);
+        if (current == null) {
+            current = listeners.computeIfAbsent(orgId, this::register);
+        }
+        current.lastAccessNanos = System.nanoTime();
+    }
+
+    public boolean isWatching(String orgId) {
+        return listeners.containsKey(orgId);
+    }
+
+    /**
+     * Returns the product set of the listener's first event, waiting up to
+     * {@code seed-timeout} for it. Only a load that was already waiting for the event gets
+     * it; an event that arrived earlier has seeded the cache itself. Later loads (e.g. after
+     * the TTL), loads of unwatched organizations and loads whose first event was empty get
+     * an empty result and read the collection themselves.
+     */
+    public Optional<List<StorefrontProduct>> awaitInitialProducts(String orgId) {
+        OrganizationListeners current = listeners.get(orgId);
+        return current == null ? Optional.empty() : awaitSeed(orgId, current.productsSeed);
+    }
+
+    /**
+     * Like {@link #awaitInitialProducts}, for the category listener.
+     */
+    public Optional<List<StorefrontCategory>> awaitInitialCategories(String orgId) {
+        OrganizationListeners current = listeners.get(orgId);
+        return current == null ? Optional.empty() : awaitSeed(orgId, current.categoriesSeed);
+    }
+
+    /**
+     * Passes through the products a load read from the repository, after checking them
+     * against the listener: if the repository has products where the listener's first event
+     * had none, the listener is watching the wrong collection.
+     */
+    public List<StorefrontProduct> checkRepositoryProducts(String orgId, List<StorefrontProduct> products) {
+        OrganizationListeners current = listeners.get(orgId);
+        if (current != null) {
+            checkRepositoryLoad(orgId, "products", current.productsSeed, products.size());
+        }
+        return products;
+    }
+
+    /**
+     * Like {@link #checkRepositoryProducts}, for the category listener.
+     */
+    public List<StorefrontCategory> checkRepositoryCategories(String orgId, List<StorefrontCategory> categories) {
+        OrganizationListeners current = listeners.get(orgId);
+        if (current != null) {
+            checkRepositoryLoad(orgId, "categories", current.categoriesSeed, categories.size());
+        }
+        return categories;
+    }
+
+    private <T> Optional<List<T>> awaitSeed(String orgId, Seed<T> seed) {
+        if (!seed.taken.compareAndSet(false, true) || seed.initial.isDone()) {
+            return Optional.empty();
+        }
+        try {
+            List<T> initial = seed.initial.get(seedTimeout.toMillis(), TimeUnit.MILLISECONDS);
+            return initial.isEmpty() ? Optional.empty() : Optional.of(initial);
+        } catch (TimeoutException | ExecutionException e) {
+            log.warn("No initial catalog listener event for org {} within {}; reading the collection instead", orgId, seedTimeout);
+            return Optional.empty();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return Optional.empty();
+        }
+    }
+
+    private OrganizationListeners register(String orgId) {
+        log.info("Registering catalog change listeners for org {}", orgId);
+        Seed<StorefrontProduct> productsSeed = new Seed<>();
+        Seed<StorefrontCategory> categoriesSeed = new Seed<>();
+        AtomicBoolean productsSeeded = new AtomicBoolean(false);
+        AtomicBoolean categoriesSeeded = new AtomicBoolean(false);
+
+        ListenerRegistration products = paths.products(orgId).addSnapshotListener((snapshot, error) -> {
+            if (error != null) {
+                productsSeed.initial.completeExceptionally(error);
+                handleListenerError(orgId, "products", error);
+                return;
+            }
+            applyProductChanges(orgId, snapshot, productsSeeded.compareAndSet(false, true), productsSeed);
+        });
+        ListenerRegistration categories = paths.categories(orgId).addSnapshotListener((snapshot, error) -> {
+            if (error != null) {
+                categoriesSeed.initial.completeExceptionally(error);
+                handleListenerError(orgId, "categories", error);
+                return;
+            }
+            applyCategoryChanges(orgId, snapshot, categoriesSeeded.compareAndSet(false, true), categoriesSeed);
+        });
+        return new OrganizationListeners(products, categories, productsSeed, categoriesSeed);
+    }
+
+    private void applyProductChanges(String orgId, QuerySnapshot snapshot, boolean initial, Seed<StorefrontProduct> seed) {
+        if (snapshot == null) {
+            return;
+        }
+        if (initial) {
+            // The first event contains the complete result set, so use it to (re)seed the snapshot.
+            List<StorefrontProduct> products = new ArrayList<>();
+            for (QueryDocumentSnapshot document : snapshot.getDocuments()) {
+                products.add(toProduct(orgId, document));
+                projectStock(orgId, document);
+            }
+            if (products.isEmpty()) {
+                checkEmptySeed(orgId, "products", seed);
+            } else {
+                seed.sawDocuments = true;
+                catalogSnapshotCache.replaceProducts(orgId, products);
+                log.debug("Seeded catalog snapshot for org {} from listener with {} products", orgId, products.size());
+            }
+            seed.initial.complete(List.copyOf(products));
+            return;
+        }
+
+        List<StorefrontProduct> upserts = new ArrayList<>();
+        List<String> removedIds = new ArrayList<>();
+        for (DocumentChange change : snapshot.getDocumentChanges()) {
+            if (change.getType() == DocumentChange.Type.REMOVED) {
+                removedIds.add(change.getDocument().getId());
+                stockProjection.forget(orgId, change.getDocument().getId());
+            } else {
+                upserts.add(toProduct(orgId, change.getDocument()));
+                projectStock(orgId, change.getDocument());
+            }
+        }
+        if (!upserts.isEmpty()) {
+            seed.sawDocuments = true;
+        }
+        if (!upserts.isEmpty() || !removedIds.isEmpty()) {
+            catalogSnapshotCache.applyProductChanges(orgId, upserts, removedIds);
+            log.debug("Applied {} product upserts and {} removals for org {} from listener", upserts.size(), removedIds.size(), orgId);
+        }
+    }
+
+    private void applyCategoryChanges(String orgId, QuerySnapshot snapshot, boolean initial, Seed<StorefrontCategory> seed) {
+        if (snapshot == null) {
+            return;
+        }
+        if (initial) {
+            List<StorefrontCategory> categories = new ArrayList<>();
+            for (QueryDocumentSnapshot document : snapshot.getDocuments()) {
+                categories.add(toCategory(orgId, document));
+            }
+            if (categories.isEmpty()) {
+                checkEmptySeed(orgId, "categories", seed);
+            } else {
+                seed.sawDocuments = true;
+                catalogSnapshotCache.replaceCategories(orgId, categories);
+            }
+            seed.initial.complete(List.copyOf(categories));
+            return;
+        }
+
+        List<StorefrontCategory> upserts = new ArrayList<>();
+        List<String> removedIds = new ArrayList<>();
+        for (DocumentChange change : snapshot.getDocumentChanges()) {
+            if (change.getType() == DocumentChange.Type.REMOVED) {
+                removedIds.add(change.getDocument().getId());
+            } else {
+                upserts.add(toCategory(orgId, change.getDocument()));
+            }
+        }
+        if (!upserts.isEmpty()) {
+            seed.sawDocuments = true;
+        }
+        if (!upserts.isEmpty() || !removedIds.isEmpty()) {
+            catalogSnapshotCache.applyCategoryChanges(orgId, upserts, removedIds);
+        }
+    }
+
+    /**
+     * Compares a repository load with the listener's first event, which may still be on its
+     * way; in that case the event does the comparison (see {@link #checkEmptySeed}).
+     */
+    private <T> void checkRepositoryLoad(String orgId, String collection, Seed<T> seed, int count) {
+        if (count == 0) {
+            return;
+        }
+        seed.repositoryCount = count;
+        if (seed.initial.isDone() && !seed.initial.isCompletedExceptionally() && !seed.sawDocuments) {
+            disableOnPathMismatch(orgId, collection, count);
+        }
+    }
+
+    private void checkEmptySeed(String orgId, String collection, Seed<?> seed) {
+        if (seed.repositoryCount > 0) {
+            disableOnPathMismatch(orgId, collection, seed.repositoryCount);
+        }
+    }
+
+    /**
+     * An empty listener next to a non-empty repository load means the configured path does
+     * not match the repository layout. The path template is shared by all organizations, so
+     * every listener is removed and the caches fall back to loading from the repository.
+     */
+    private void disableOnPathMismatch(String orgId, String collection, int repositoryCount) {
+        if (!pathMismatch.compareAndSet(false, true)) {
+            return;
+        }
+        log.error("Catalog {} listener for org {} saw no documents, but the repository returned {}. "
+                        + "app.firestore.paths does not match the lemicare-common layout; disabling catalog listeners.",
+                collection, orgId, repositoryCount);
+        listeners.forEach((id, current) -> {
+            if (listeners.remove(id, current)) {
+                current.close();
+                catalogSnapshotCache.invalidate(id);
+            }
+        });
+    }
+
+    /**
+     * Records the stored stock level; values older than a version this instance already
+     * applied are ignored by the projection.
+     */
+    private void projectStock(String orgId, QueryDocumentSnapshot document) {
+        Long stockLevel = document.getLong("stockLevel");
+        if (stockLevel != null) {
+            stockProjection.record(orgId, document.getId(), stockLevel.intValue(),
+                    document.getLong("stockVersion"), document.getUpdateTime());
+        }
+    }
+
+    /**
+     * Maps a document like the repository does: the IDs it derives from the document path
+     * are filled in when the stored fields lack them.
+     */
+    private StorefrontProduct toProduct(String orgId, QueryDocumentSnapshot document) {
+        StorefrontProduct product = document.toObject(StorefrontProduct.class);
+        if (product.getProductId() == null || product.getProductId().isEmpty()) {
+            product.setProductId(document.getId());
+        }
+        if (product.getOrganizationId() == null || product.getOrganizationId().isEmpty()) {
+            product.setOrganizationId(orgId);
+        }
+        return product;
+    }
+
+    private StorefrontCategory toCategory(String orgId, QueryDocumentSnapshot document) {
+        StorefrontCategory category = document.toObject(StorefrontCategory.class);
+        if (category.getCategoryId() == null || category.getCategoryId().isEmpty()) {
+            category.setCategoryId(document.getId());
+        }
+        if (category.getOrganizationId() == null || category.getOrganizationId().isEmpty()) {
+            category.setOrganizationId(orgId);
+        }
+        return category;
+    }
+
+    /**
+     * A failed listener is terminated by the Firestore client. Drop it together with the
+     * cached data it was protecting, so the next read reloads and re-registers.
+     */
+    private void handleListenerError(String orgId, String collection, FirestoreException error) {
+        log.error("Catalog {} listener for org {} failed; invalidating cached catalog", collection, orgId, error);
+        OrganizationListeners removed = listeners.remove(orgId);
+        if (removed != null) {
+            removed.close();
+        }
+        catalogSnapshotCache.invalidate(orgId);
+    }
+
+    /**
+     * Removes the listeners of organizations not read for {@code idle-timeout} and drops
+     * their cached catalog, which would otherwise go stale silently.
+     */
+    void removeIdleListeners() {
+        long now = System.nanoTime();
+        listeners.forEach((orgId, current) -> {
+            if (now - current.lastAccessNanos > idleTimeout.toNanos() && listeners.remove(orgId, current)) {
+                log.info("Removing catalog change listeners of idle org {}", orgId);
+                current.close();
+                catalogSnapshotCache.invalidate(orgId);
+            }
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        sweeper.shutdownNow();
+        listeners.values().forEach(OrganizationListeners::close);
+        listeners.clear();
+    }
+
+    /**
+     * The complete result set of a listener's first event, handed to the first load.
+     */
+    private static final class Seed<T> {
+        private final CompletableFuture<List<T>> initial = new CompletableFuture<>();
+        private final AtomicBoolean taken = new AtomicBoolean(false);
+        private volatile int repositoryCount; // Size of the last non-empty repository load
+        private volatile boolean sawDocuments; // Whether any event of the listener had a document
+    }
+
+    private static final class OrganizationListeners {
+        private final ListenerRegistration products;
+        private final ListenerRegistration categories;
+        private final Seed<StorefrontProduct> productsSeed;
+        private final Seed<StorefrontCategory> categoriesSeed;
+        private volatile long lastAccessNanos = System.nanoTime();
+
+        private OrganizationListeners(ListenerRegistration products, ListenerRegistration categories,
+                                      Seed<StorefrontProduct> productsSeed, Seed<StorefrontCategory> categoriesSeed) {
+            this.products = products;
+            this.categories = categories;
+            this.productsSeed = productsSeed;
+            this.categoriesSeed = categoriesSeed;
+        }
+
+        void close() {
+            products.remove();
+            categories.remove();
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package com.lemicare.cms.firestore;
+
+import com.google.api.core.ApiFuture;
+import com.google.cloud.Timestamp;
+import com.google.cloud.firestore.DocumentReference;
+import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.QuerySnapshot;
+import com.lemicare.cms.exception.ServiceCommunicationException;
+import com.lemicare.cms.image.ImageAssetRecord;
+import com.lemicare.cms.image.ImagePlaceholder;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Reads and writes {@link ImageAssetRecord}s, one document per image asset.
+ */
+@Component
+@RequiredArgsConstructor
+public class ImageAssetRecordStore {
+
+    private final Firestore firestore;
+    private final StorefrontFirestorePaths paths;
+
+    public void save(ImageAssetRecord record) {
+        record.setUpdatedAt(Timestamp.now());
+        await(paths.imageAssets(record.getOrganizationId()).document(record.getAssetId()).set(record),
+                "save image asset " + record.getAssetId());
+    }
+
+    /**
+     * Saves the record only if it still exists, so a background job cannot bring back the
+     * record of an asset that was released while it ran.
+     *
+     * @return {@code false} if the record no longer exists.
+     */
+    public boolean saveIfExists(ImageAssetRecord record) {
+        record.setUpdatedAt(Timestamp.now());
+        DocumentReference ref = paths.imageAssets(record.getOrganizationId()).document(record.getAssetId());
+        return await(firestore.runTransaction(transaction -> {
+            if (!transaction.get(ref).get().exists()) {
+                return false;
+            }
+            transaction.set(ref, record);
+            return true;
+        }), "save image asset " + record.getAssetId());
+    }
+
+    public Optional<ImageAssetRecord> findById(String orgId, String assetId) {
+        DocumentSnapshot snapshot = await(paths.imageAssets(orgId).document(assetId).get(), "read image asset " + assetId);
+        return snapshot.exists() ? Optional.ofNullable(snapshot.toObject(ImageAssetRecord.class)) : Optional.empty();
+    }
+
+    /**
+     * Reads all records of an organization.
+     */
+    public List<ImageAssetRecord> findAll(String orgId) {
+        return await(paths.imageAssets(orgId).get(), "list image assets").getDocuments().stream()
+                .map(document -> document.toObject(ImageAssetRecord.class))
+                .toList();
+    }
+
+    /**
+     * Finds the records of all organizations that are in the given status, using a
+     * collection-group query.
+     */
+    public List<ImageAssetRecord> findAllByStatus(ImageAssetRecord.Status status) {
+        ApiFuture<QuerySnapshot> query = firestore.collectionGroup(paths.imageAssetsCollectionId())
+                .whereEqualTo("status", status.name())
+                .get();
+        return await(query, "query image assets by status").getDocuments().stream()
+                .map(document -> document.toObject(ImageAssetRecord.class))
+                .toList();
+    }
+
+    /**
+     * Reads the placeholders of an organization's processed images, fetching only the
+     * placeholder fields.
+     */
+    public Map<String, ImagePlaceholder> findPlaceholders(String orgId) {
+        ApiFuture<QuerySnapshot> query = paths.imageAssets(orgId).select("blurHash", "dominantColor").get();
+        Map<String, ImagePlaceholder> placeholders = new HashMap<>();
+        for (DocumentSnapshot document : await(query, "query image placeholders").getDocuments()) {
+            String blurHash = document.getString("blurHash");
+            if (blurHash != null) {
+                placeholders.put(document.getId(), new ImagePlaceholder(blurHash, document.getString("dominantColor")));
+            }
+        }
+        return placeholders;
+    }
+
+    public void delete(String orgId, String assetId) {
+        await(paths.imageAssets(orgId).document(assetId).delete(), "delete image asset " + assetId);
+    }
+
+    private static <T> T await(ApiFuture<T> future, String operation) {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            throw new ServiceCommunicationException("Failed to " + operation + ".", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ServiceCommunicationException("Interrupted while trying to " + operation + ".", e);
+        }
+    }
+}
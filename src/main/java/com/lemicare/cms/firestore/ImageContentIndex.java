@@ -0,0 +1,167 @@
+package com.lemicare.cms.firestore;
+
+import com.google.api.core.ApiFuture;
+import com.google.cloud.Timestamp;
+import com.google.cloud.firestore.DocumentReference;
+import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.cloud.firestore.Firestore;
+import com.lemicare.cms.exception.ServiceCommunicationException;
+import com.lemicare.cms.image.ImageContentEntry;
+import com.lemicare.cms.image.ImageVariantUrls;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Per-tenant index from image content hash to the blobs holding that content, with the
+ * list of assets referencing it. All changes run in Firestore transactions, so concurrent
+ * uploads of the same image agree on one set of blobs and the last release is detected
+ * exactly once.
+ */
+@Component
+@RequiredArgsConstructor
+public class ImageContentIndex {
+
+    private final Firestore firestore;
+    private final StorefrontFirestorePaths paths;
+
+    /**
+     * The outcome of {@link #claim}.
+     *
+     * @param entry     The entry the asset now references.
+     * @param duplicate {@code true} if the content already existed, i.e. the candidate's
+     *                  blobs are not needed.
+     */
+    public record Claim(ImageContentEntry entry, boolean duplicate) {
+    }
+
+    /**
+     * Adds a reference to the content, creating the entry from {@code candidate} if the
+     * content is new.
+     */
+    public Claim claim(String orgId, ImageContentEntry candidate, String productId, String assetId) {
+        DocumentReference ref = paths.imageContent(orgId).document(candidate.getSha256());
+        String reference = ImageContentEntry.reference(productId, assetId);
+        return await(firestore.runTransaction(transaction -> {
+            DocumentSnapshot snapshot = transaction.get(ref).get();
+            ImageContentEntry entry = snapshot.exists() ? snapshot.toObject(ImageContentEntry.class) : null;
+            boolean duplicate = entry != null;
+            if (entry == null) {
+                entry = candidate;
+                entry.setReferences(new ArrayList<>());
+                entry.setCreatedAt(Timestamp.now());
+            }
+            if (!entry.getReferences().contains(reference)) {
+                entry.getReferences().add(reference);
+            }
+            entry.setUpdatedAt(Timestamp.now());
+            transaction.set(ref, entry);
+            return new Claim(entry, duplicate);
+        }), "claim image content " + candidate.getSha256());
+    }
+
+    /**
+     * The outcome of {@link #release}.
+     *
+     * @param indexed       {@code false} if the content has no index entry (assets stored
+     *                      before the index existed), so its blobs belong to the asset alone.
+     * @param lastReference The deleted entry if this was the last reference, so its blobs may
+     *                      go; {@code null} while other assets still use the content.
+     */
+    public record Release(boolean indexed, ImageContentEntry lastReference) {
+    }
+
+    /**
+     * Removes a reference to the content, deleting the entry with the last reference.
+     */
+    public Release release(String orgId, String sha256, String productId, String assetId) {
+        DocumentReference ref = paths.imageContent(orgId).document(sha256);
+        String reference = ImageContentEntry.reference(productId, assetId);
+        return await(firestore.runTransaction(transaction -> {
+            DocumentSnapshot snapshot = transaction.get(ref).get();
+            if (!snapshot.exists()) {
+                return new Release(false, null);
+            }
+            ImageContentEntry entry = snapshot.toObject(ImageContentEntry.class);
+            entry.getReferences().remove(reference);
+            if (entry.getReferences().isEmpty()) {
+                transaction.delete(ref);
+                return new Release(true, entry);
+            }
+            entry.setUpdatedAt(Timestamp.now());
+            transaction.set(ref, entry);
+            return new Release(true, null);
+        }), "release image content " + sha256);
+    }
+
+    /**
+     * Records the generated variants of the content.
+     *
+     * @return The references at the time of the update; empty if the entry no longer exists.
+     */
+    public List<String> markReady(String orgId, String sha256, ImageVariantUrls urls) {
+        DocumentReference ref = paths.imageContent(orgId).document(sha256);
+        return await(firestore.runTransaction(transaction -> {
+            DocumentSnapshot snapshot = transaction.get(ref).get();
+            if (!snapshot.exists()) {
+                return List.<String>of();
+            }
+            ImageContentEntry entry = snapshot.toObject(ImageContentEntry.class);
+            entry.setReady(true);
+            entry.setThumbnailUrl(urls.thumbnailUrl());
+            entry.setMediumUrl(urls.mediumUrl());
+            entry.setLargeUrl(urls.largeUrl());
+            entry.setVariantFiles(urls.files());
+            entry.setBlurHash(urls.placeholder() != null ? urls.placeholder().blurHash() : null);
+            entry.setDominantColor(urls.placeholder() != null ? urls.placeholder().dominantColor() : null);
+            entry.setUpdatedAt(Timestamp.now());
+            transaction.set(ref, entry);
+            return List.copyOf(entry.getReferences());
+        }), "mark image content " + sha256 + " ready");
+    }
+
+    /**
+     * Reads all content entries of an organization.
+     */
+    public List<ImageContentEntry> findAll(String orgId) {
+        return await(paths.imageContent(orgId).get(), "list image content").getDocuments().stream()
+                .map(document -> document.toObject(ImageContentEntry.class))
+                .toList();
+    }
+
+    /**
+     * Deletes an entry that nobody has claimed or released since {@code cutoff}, so its blobs
+     * can be removed without racing a concurrent upload of the same content.
+     *
+     * @return {@code true} if the entry is gone.
+     */
+    public boolean deleteIfUnchangedSince(String orgId, String sha256, Timestamp cutoff) {
+        DocumentReference ref = paths.imageContent(orgId).document(sha256);
+        return await(firestore.runTransaction(transaction -> {
+            DocumentSnapshot snapshot = transaction.get(ref).get();
+            if (!snapshot.exists()) {
+                return true;
+            }
+            Timestamp updatedAt = snapshot.getTimestamp("updatedAt");
+            if (updatedAt != null && updatedAt.compareTo(cutoff) >= 0) {
+                return false;
+            }
+            transaction.delete(ref);
+            return true;
+        }), "delete image content " + sha256);
+    }
+
+    private static <T> T await(ApiFuture<T> future, String operation) {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            throw new ServiceCommunicationException("Failed to " + operation + ".", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ServiceCommunicationException("Interrupted while trying to " + operation + ".", e);
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.lemicare.cms.firestore;
+
+import com.google.cloud.firestore.CollectionReference;
+import com.google.cloud.firestore.DocumentReference;
+import com.google.cloud.firestore.Firestore;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Resolves the Firestore locations of the storefront collections for components that
+ * talk to Firestore directly (listeners, batch reads, bulk writes) instead of going
+ * through the lemicare-common repositories.
+ * <p>
+ * The templates are configurable because they MUST match the layout used by the
+ * common repository implementations; {@code {orgId}} is replaced with the tenant ID.
+ */
+@Component
+@RequiredArgsConstructor
+public class StorefrontFirestorePaths {
+
+    private static final String ORG_PLACEHOLDER = "{orgId}";
+
+    private final Firestore firestore;
+
+    @Value("${app.firestore.paths.storefront-products}")
+    private String productsTemplate;
+
+    @Value("${app.firestore.paths.storefront-categories}")
+    private String categoriesTemplate;
+
+    @Value("${app.firestore.paths.storefront-image-assets}")
+    private String imageAssetsTemplate;
+
+    @Value("${app.firestore.paths.storefront-image-content}")
+    private String imageContentTemplate;
+
+    @Value("${app.firestore.paths.image-gc-state}")
+    private String imageGcStatePath;
+
+    public CollectionReference products(String orgId) {
+        return firestore.collection(productsTemplate.replace(ORG_PLACEHOLDER, orgId));
+    }
+
+    public DocumentReference product(String orgId, String productId) {
+        return products(orgId).document(productId);
+    }
+
+    public CollectionReference categories(String orgId) {
+        return firestore.collection(categoriesTemplate.replace(ORG_PLACEHOLDER, orgId));
+    }
+
+    public CollectionReference imageAssets(String orgId) {
+        return firestore.collection(imageAssetsTemplate.replace(ORG_PLACEHOLDER, orgId));
+    }
+
+    public CollectionReference imageContent(String orgId) {
+        return firestore.collection(imageContentTemplate.replace(ORG_PLACEHOLDER, orgId));
+    }
+
+    /** The progress of the image garbage collector, shared by all instances and tenants. */
+    public DocumentReference imageGcState() {
+        return firestore.document(imageGcStatePath);
+    }
+
+    /** The collection ID of the image asset collections, for collection-group queries. */
+    public String imageAssetsCollectionId() {
+        return imageAssetsTemplate.substring(imageAssetsTemplate.lastIndexOf('/') + 1);
+    }
+}
@@ -0,0 +1,87 @@
+package com.lemicare.cms.firestore;
+
+import com.cosmicdoc.common.model.StorefrontProduct;
+import com.google.api.core.ApiFuture;
+import com.google.api.core.ApiFutures;
+import com.google.cloud.firestore.DocumentReference;
+import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.cloud.firestore.Firestore;
+import com.lemicare.cms.exception.ServiceCommunicationException;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Reads many storefront products by ID with Firestore {@code getAll} instead of one
+ * {@code findById} round trip per product.
+ * <p>
+ * IDs are de-duplicated and split into chunks; all chunks are issued at once and run
+ * concurrently inside the Firestore client, so a 200-ID request costs roughly one
+ * round trip.
+ */
+@Component
+@RequiredArgsConstructor
+public class StorefrontProductBatchReader {
+
+    private final Firestore firestore;
+    private final StorefrontFirestorePaths paths;
+
+    @Value("${app.firestore.batch-read.chunk-size:100}")
+    private int chunkSize;
+
+    public BatchReadResult<StorefrontProduct> findAllByIds(String orgId, List<String> productIds) {
+        List<String> distinctIds = new ArrayList<>(new LinkedHashSet<>(productIds));
+        if (distinctIds.isEmpty()) {
+            return new BatchReadResult<>(List.of(), List.of());
+        }
+
+        List<ApiFuture<List<DocumentSnapshot>>> chunks = new ArrayList<>();
+        for (int from = 0; from < distinctIds.size(); from += chunkSize) {
+            List<String> chunk = distinctIds.subList(from, Math.min(from + chunkSize, distinctIds.size()));
+            DocumentReference[] refs = chunk.stream()
+                    .map(id -> paths.product(orgId, id))
+                    .toArray(DocumentReference[]::new);
+            chunks.add(firestore.getAll(refs));
+        }
+
+        Map<String, StorefrontProduct> byId = new HashMap<>();
+        try {
+            for (List<DocumentSnapshot> snapshots : ApiFutures.allAsList(chunks).get()) {
+                for (DocumentSnapshot snapshot : snapshots) {
+                    if (snapshot.exists()) {
+                        StorefrontProduct product = snapshot.toObject(StorefrontProduct.class);
+                        if (product.getProductId() == null || product.getProductId().isEmpty()) {
+                            product.setProductId(snapshot.getId());
+                        }
+                        byId.put(snapshot.getId(), product);
+                    }
+                }
+            }
+        } catch (ExecutionException e) {
+            throw new ServiceCommunicationException("Failed to batch-read storefront products for org " + orgId + ".", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ServiceCommunicationException("Interrupted while batch-reading storefront products.", e);
+        }
+
+        // Rebuild request order and report what was not found
+        List<StorefrontProduct> found = new ArrayList<>(byId.size());
+        List<String> missingIds = new ArrayList<>();
+        for (String id : distinctIds) {
+            StorefrontProduct product = byId.get(id);
+            if (product != null) {
+                found.add(product);
+            } else {
+                missingIds.add(id);
+            }
+        }
+        return new BatchReadResult<>(found, missingIds);
+    }
+}
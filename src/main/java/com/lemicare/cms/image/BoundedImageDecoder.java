@@ -0,0 +1,220 @@
+package com.lemicare.cms.image;
+
+import com.lemicare.cms.exception.ImageTooLargeException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import net.coobird.thumbnailator.Thumbnails;
+import net.coobird.thumbnailator.util.exif.ExifFilterUtils;
+import net.coobird.thumbnailator.util.exif.ExifUtils;
+import net.coobird.thumbnailator.util.exif.Orientation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decodes uploaded images within a fixed pixel budget, so a few concurrent uploads of
+ * large photos cannot exhaust the heap.
+ * <p>
+ * The dimensions are read from the image header before anything is decoded. Images with
+ * more pixels than {@code max-source-pixels} are rejected. Larger images are decoded with
+ * ImageIO source subsampling, directly at the smallest resolution that still covers the
+ * requested size. Each decode reserves its raster size from a shared budget of
+ * {@code pixel-budget} pixels and waits while the budget is exhausted.
+ */
+@Component
+public class BoundedImageDecoder {
+    private static final Logger log = LoggerFactory.getLogger(BoundedImageDecoder.class);
+
+    /** Budget permits are counted in units of this many pixels, to stay within an int. */
+    private static final int PIXELS_PER_PERMIT = 1024;
+
+    private final Semaphore budget;
+    private final int totalPermits;
+    private final long maxSourcePixels;
+    private final Counter rejectedImages;
+    private final Timer admissionWait;
+
+    public BoundedImageDecoder(@Value("${app.images.decode.pixel-budget:48000000}") long pixelBudget,
+                               @Value("${app.images.decode.max-source-pixels:100000000}") long maxSourcePixels,
+                               MeterRegistry meterRegistry) {
+        this.totalPermits = (int) Math.max(1, pixelBudget / PIXELS_PER_PERMIT);
+        this.budget = new Semaphore(totalPermits, true);
+        this.maxSourcePixels = maxSourcePixels;
+        this.rejectedImages = Counter.builder("cms.images.decode.rejected")
+                .description("Uploads rejected because the image has too many pixels")
+                .register(meterRegistry);
+        this.admissionWait = Timer.builder("cms.images.decode.admission_wait")
+                .description("Time spent waiting for decode budget")
+                .register(meterRegistry);
+        Gauge.builder("cms.images.decode.budget_available", budget, available -> (double) available.availablePermits() * PIXELS_PER_PERMIT)
+                .description("Pixels that can currently be decoded without waiting")
+                .register(meterRegistry);
+    }
+
+    public record ImageDimensions(int width, int height, String formatName) {
+        public long pixels() {
+            return (long) width * height;
+        }
+    }
+
+    /**
+     * Reads the image dimensions from the header without decoding the raster.
+     *
+     * @throws IllegalArgumentException If the data is not in a supported image format.
+     * @throws ImageTooLargeException   If the image has more pixels than allowed.
+     */
+    public ImageDimensions probe(InputStream input) throws IOException {
+        try (ImageInputStream in = ImageIO.createImageInputStream(input)) {
+            ImageReader reader = readerFor(in);
+            try {
+                reader.setInput(in, true, true);
+                ImageDimensions dimensions = new ImageDimensions(reader.getWidth(0), reader.getHeight(0), reader.getFormatName());
+                checkAdmissible(dimensions);
+                return dimensions;
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    public ImageDimensions probe(byte[] bytes) throws IOException {
+        return probe(new ByteArrayInputStream(bytes));
+    }
+
+    /**
+     * Decodes an image scaled to fit a {@code targetSize} x {@code targetSize} box, applying
+     * its EXIF orientation.
+     */
+    public BufferedImage decode(byte[] bytes, int targetSize) throws IOException {
+        return decode(new ByteArrayInputStream(bytes), targetSize, targetSize, true);
+    }
+
+    /**
+     * Decodes an image scaled down to fit a {@code maxWidth} x {@code maxHeight} box (after
+     * applying its EXIF orientation). Images that already fit are not enlarged.
+     */
+    public BufferedImage decodeWithin(byte[] bytes, int maxWidth, int maxHeight) throws IOException {
+        return decode(new ByteArrayInputStream(bytes), maxWidth, maxHeight, false);
+    }
+
+    /**
+     * Same as {@link #decodeWithin(byte[], int, int)}, reading the image from a stream, so
+     * the encoded image is never held in memory as a whole.
+     */
+    public BufferedImage decodeWithin(InputStream input, int maxWidth, int maxHeight) throws IOException {
+        return decode(input, maxWidth, maxHeight, false);
+    }
+
+    private BufferedImage decode(InputStream input, int maxWidth, int maxHeight, boolean enlarge) throws IOException {
+        try (ImageInputStream in = ImageIO.createImageInputStream(input)) {
+            ImageReader reader = readerFor(in);
+            try {
+                reader.setInput(in, true, false);
+                ImageDimensions dimensions = new ImageDimensions(reader.getWidth(0), reader.getHeight(0), reader.getFormatName());
+                checkAdmissible(dimensions);
+
+                Orientation orientation = orientation(reader);
+                if (isTransposed(orientation)) {
+                    // The box applies to the displayed image, whose width is the stored height.
+                    int swap = maxWidth;
+                    maxWidth = maxHeight;
+                    maxHeight = swap;
+                }
+                double scale = Math.max((double) dimensions.width() / maxWidth, (double) dimensions.height() / maxHeight);
+                if (!enlarge && scale <= 1) {
+                    maxWidth = dimensions.width();
+                    maxHeight = dimensions.height();
+                    scale = 1;
+                }
+                int subsampling = (int) Math.max(1, Math.floor(scale));
+                long decodedPixels = (long) ceilDiv(dimensions.width(), subsampling) * ceilDiv(dimensions.height(), subsampling);
+                long outputPixels = (long) Math.ceil(dimensions.width() / scale) * (long) Math.ceil(dimensions.height() / scale);
+                int permits = permitsFor(decodedPixels + outputPixels);
+
+                long waitStart = System.nanoTime();
+                budget.acquire(permits);
+                admissionWait.record(System.nanoTime() - waitStart, TimeUnit.NANOSECONDS);
+                try {
+                    ImageReadParam param = reader.getDefaultReadParam();
+                    param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                    BufferedImage decoded = reader.read(0, param);
+
+                    Thumbnails.Builder<BufferedImage> scaled = Thumbnails.of(decoded).size(maxWidth, maxHeight);
+                    if (orientation != null && orientation != Orientation.TOP_LEFT) {
+                        scaled.addFilter(ExifFilterUtils.getFilterForOrientation(orientation));
+                    }
+                    return scaled.asBufferedImage();
+                } finally {
+                    budget.release(permits);
+                }
+            } finally {
+                reader.dispose();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for image decode budget", e);
+        }
+    }
+
+    private void checkAdmissible(ImageDimensions dimensions) {
+        if (dimensions.pixels() > maxSourcePixels) {
+            rejectedImages.increment();
+            throw new ImageTooLargeException(String.format("Image of %dx%d pixels exceeds the limit of %d megapixels.",
+                    dimensions.width(), dimensions.height(), maxSourcePixels / 1_000_000));
+        }
+    }
+
+    private int permitsFor(long pixels) {
+        // A single image may use the whole budget but never more, so it can always be admitted.
+        return (int) Math.min(totalPermits, Math.max(1, ceilDiv(pixels, PIXELS_PER_PERMIT)));
+    }
+
+    private static ImageReader readerFor(ImageInputStream in) {
+        if (in == null) {
+            throw new IllegalArgumentException("Unsupported image format.");
+        }
+        Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+        if (!readers.hasNext()) {
+            throw new IllegalArgumentException("Unsupported image format.");
+        }
+        return readers.next();
+    }
+
+    private static Orientation orientation(ImageReader reader) {
+        try {
+            return ExifUtils.getExifOrientation(reader, 0);
+        } catch (Exception e) {
+            // Missing or malformed EXIF data: keep the image as stored.
+            log.debug("Could not read EXIF orientation: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    private static boolean isTransposed(Orientation orientation) {
+        return orientation == Orientation.LEFT_TOP || orientation == Orientation.RIGHT_TOP
+                || orientation == Orientation.RIGHT_BOTTOM || orientation == Orientation.LEFT_BOTTOM;
+    }
+
+    private static long ceilDiv(long value, long divisor) {
+        return (value + divisor - 1) / divisor;
+    }
+
+    private static int ceilDiv(int value, int divisor) {
+        return (value + divisor - 1) / divisor;
+    }
+}
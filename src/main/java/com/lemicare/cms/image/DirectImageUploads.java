@@ -0,0 +1,144 @@
+package com.lemicare.cms.image;
+
+import com.google.cloud.Timestamp;
+import com.google.cloud.storage.Blob;
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.BlobInfo;
+import com.google.cloud.storage.HttpMethod;
+import com.google.cloud.storage.Storage;
+import com.lemicare.cms.exception.ImageTooLargeException;
+import com.lemicare.cms.exception.ResourceNotFoundException;
+import com.lemicare.cms.firestore.ImageAssetRecordStore;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.net.URL;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Two-phase upload of product images straight from the browser to Cloud Storage, so the
+ * image bytes never pass through this service.
+ * <p>
+ * {@link #issue} hands out a V4 signed PUT URL for {@code original<ext>} under the asset's
+ * {@code images/{org}/{product}/{asset}/} prefix, with the extension derived from the
+ * (whitelisted) content type, and records the blob in an {@link ImageAssetRecord.Status#UPLOADING}
+ * record. Once the browser has uploaded the file, {@link #adopt} reads the recorded object
+ * back and validates it like a multipart upload. Records of uploads that are never
+ * finalized are released by the image garbage collector after its grace period.
+ * <p>
+ * When {@code gcp.storage.host} points at a local fake GCS server, the signed URLs use that
+ * host with path-style addressing. The fake server does not check signatures, but signing
+ * still needs a service account key.
+ */
+@Component
+@RequiredArgsConstructor
+public class DirectImageUploads {
+
+    /** Image types accepted for direct upload, with the extension their original is stored under. */
+    private static final Map<String, String> EXTENSIONS = Map.of(
+            "image/jpeg", ".jpg",
+            "image/png", ".png",
+            "image/webp", ".webp",
+            "image/gif", ".gif");
+
+    private final Storage storage;
+    private final OriginalImageUploader originalImageUploader;
+    private final ImageAssetRecordStore imageAssetRecordStore;
+
+    @Value("${gcp.storage.bucket-name}")
+    private String bucketName;
+
+    @Value("${gcp.storage.host:}")
+    private String storageHost;
+
+    @Value("${app.images.direct-upload.url-ttl:15m}")
+    private Duration urlTtl;
+
+    @Value("${app.images.direct-upload.max-size:50MB}")
+    private DataSize maxSize;
+
+    /**
+     * A signed URL for uploading one original. The client must send the
+     * {@code requiredHeaders} with exactly these values.
+     */
+    public record UploadTicket(String assetId, String blobName, URL uploadUrl, Map<String, String> requiredHeaders, Instant expiresAt) {
+    }
+
+    /**
+     * A finalized upload, with the location recorded when its URL was issued.
+     */
+    public record AdoptedUpload(String basePath, String fileExtension, StoredOriginal original) {
+    }
+
+    /**
+     * Issues an upload URL for a new image asset.
+     *
+     * @throws IllegalArgumentException If the content type is not a supported image type.
+     * @throws ImageTooLargeException   If the announced size exceeds the upload limit.
+     */
+    public UploadTicket issue(String orgId, String productId, String assetId, String contentType, long sizeBytes) {
+        String fileExtension = contentType != null ? EXTENSIONS.get(contentType.toLowerCase(Locale.ROOT)) : null;
+        if (fileExtension == null) {
+            throw new IllegalArgumentException("Only JPEG, PNG, WebP and GIF images are supported.");
+        }
+        if (sizeBytes > maxSize.toBytes()) {
+            throw new ImageTooLargeException(String.format("Image of %d bytes exceeds the upload limit of %d MB.",
+                    sizeBytes, maxSize.toMegabytes()));
+        }
+        String basePath = String.format("images/%s/%s/%s/", orgId, productId, assetId);
+        String blobName = basePath + "original" + fileExtension;
+
+        // Signed into the URL: GCS rejects uploads with another content type or a larger body.
+        Map<String, String> requiredHeaders = Map.of(
+                "Content-Type", contentType,
+                "x-goog-content-length-range", "0," + maxSize.toBytes());
+        List<Storage.SignUrlOption> options = new ArrayList<>(List.of(
+                Storage.SignUrlOption.httpMethod(HttpMethod.PUT),
+                Storage.SignUrlOption.withV4Signature(),
+                Storage.SignUrlOption.withExtHeaders(requiredHeaders)));
+        if (!storageHost.isBlank()) {
+            options.add(Storage.SignUrlOption.withHostName(storageHost));
+            options.add(Storage.SignUrlOption.withPathStyle());
+        }
+        URL url = storage.signUrl(BlobInfo.newBuilder(bucketName, blobName).setContentType(contentType).build(),
+                urlTtl.toSeconds(), TimeUnit.SECONDS, options.toArray(new Storage.SignUrlOption[0]));
+
+        imageAssetRecordStore.save(ImageAssetRecord.builder()
+                .assetId(assetId)
+                .organizationId(orgId)
+                .productId(productId)
+                .status(ImageAssetRecord.Status.UPLOADING)
+                .basePath(basePath)
+                .fileExtension(fileExtension)
+                .originalBlobName(blobName)
+                .createdAt(Timestamp.now())
+                .build());
+        return new UploadTicket(assetId, blobName, url, requiredHeaders, Instant.now().plus(urlTtl));
+    }
+
+    /**
+     * Reads back the original uploaded for an asset, from the blob recorded by {@link #issue}.
+     *
+     * @throws ResourceNotFoundException If no upload URL was issued for the asset, or nothing has been uploaded.
+     * @throws IllegalArgumentException  If the object is not a supported image (it is deleted).
+     */
+    public AdoptedUpload adopt(String orgId, String productId, String assetId) throws IOException {
+        ImageAssetRecord record = imageAssetRecordStore.findById(orgId, assetId)
+                .filter(found -> productId.equals(found.getProductId()) && found.getStatus() == ImageAssetRecord.Status.UPLOADING)
+                .orElseThrow(() -> new ResourceNotFoundException("No pending upload found for asset " + assetId + "."));
+        Blob uploaded = storage.get(BlobId.of(bucketName, record.getOriginalBlobName()));
+        if (uploaded == null) {
+            throw new ResourceNotFoundException("No uploaded image found for asset " + assetId + ".");
+        }
+        return new AdoptedUpload(record.getBasePath(), record.getFileExtension(), originalImageUploader.inspect(uploaded));
+    }
+}
@@ -0,0 +1,193 @@
+package com.lemicare.cms.image;
+
+import com.google.cloud.BatchResult;
+import com.google.cloud.storage.Blob;
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.Storage;
+import com.google.cloud.storage.StorageBatch;
+import com.google.cloud.storage.StorageException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Deletes Cloud Storage blobs in the background, so admin requests do not wait for them.
+ * <p>
+ * Each call becomes one task: its prefixes are listed, and all blobs found (plus any given
+ * by name) are removed through batch requests of up to {@value #MAX_BATCH_SIZE} deletions.
+ * Deletions that fail are retried with exponential backoff; blobs that are already gone
+ * count as deleted. Tasks still pending at shutdown are dropped, leaving orphaned blobs
+ * behind.
+ */
+@Component
+public class GcsBlobDeleter {
+    private static final Logger log = LoggerFactory.getLogger(GcsBlobDeleter.class);
+
+    /** The most operations a single GCS batch request may carry. */
+    private static final int MAX_BATCH_SIZE = 100;
+
+    private final Storage storage;
+    private final ScheduledThreadPoolExecutor worker;
+    private final AtomicInteger pending = new AtomicInteger();
+    private final Counter deletedBlobs;
+    private final Counter failedBlobs;
+
+    @Value("${gcp.storage.bucket-name}")
+    private String bucketName;
+
+    @Value("${app.images.deletion.max-attempts:5}")
+    private int maxAttempts;
+
+    @Value("${app.images.deletion.retry-backoff:2s}")
+    private Duration retryBackoff;
+
+    public GcsBlobDeleter(Storage storage, MeterRegistry meterRegistry) {
+        this.storage = storage;
+        this.worker = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "gcs-blob-deleter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.worker.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        this.deletedBlobs = Counter.builder("cms.images.gcs.deleted")
+                .description("Blobs deleted from Cloud Storage")
+                .register(meterRegistry);
+        this.failedBlobs = Counter.builder("cms.images.gcs.delete_failed")
+                .description("Blobs that could not be deleted after all attempts")
+                .register(meterRegistry);
+        Gauge.builder("cms.images.gcs.pending_deletions", pending, AtomicInteger::get)
+                .description("Prefixes and blobs waiting to be deleted")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Schedules the deletion of every blob under the given prefixes.
+     */
+    public void deletePrefixes(Collection<String> prefixes) {
+        schedule(new Task(new ArrayList<>(prefixes), new ArrayList<>()));
+    }
+
+    /**
+     * Schedules the deletion of the named blobs.
+     */
+    public void deleteBlobs(Collection<String> blobNames) {
+        List<BlobId> blobIds = new ArrayList<>(blobNames.size());
+        for (String blobName : blobNames) {
+            blobIds.add(BlobId.of(bucketName, blobName));
+        }
+        schedule(new Task(new ArrayList<>(), blobIds));
+    }
+
+    private void schedule(Task task) {
+        if (task.prefixes.isEmpty() && task.blobIds.isEmpty()) {
+            return;
+        }
+        pending.addAndGet(task.size());
+        worker.execute(() -> run(task));
+    }
+
+    private void run(Task task) {
+        task.attempts++;
+        try {
+            // Listed blobs are kept on the task, so a retry does not list the prefix again. A
+            // prefix is only replaced by its blobs once listed completely, so a listing that
+            // fails part-way is repeated without queueing the blobs it had already returned.
+            while (!task.prefixes.isEmpty()) {
+                String prefix = task.prefixes.get(0);
+                List<BlobId> listed = new ArrayList<>();
+                for (Blob blob : storage.list(bucketName, Storage.BlobListOption.prefix(prefix)).iterateAll()) {
+                    listed.add(blob.getBlobId());
+                }
+                task.blobIds.addAll(listed);
+                task.prefixes.remove(0);
+                pending.addAndGet(listed.size() - 1);
+            }
+
+            List<BlobId> failed = new ArrayList<>();
+            for (int from = 0; from < task.blobIds.size(); from += MAX_BATCH_SIZE) {
+                failed.addAll(deleteBatch(task.blobIds.subList(from, Math.min(from + MAX_BATCH_SIZE, task.blobIds.size()))));
+            }
+            pending.addAndGet(failed.size() - task.blobIds.size());
+            task.blobIds = failed;
+            if (!failed.isEmpty()) {
+                retryOrGiveUp(task, new StorageException(0, failed.size() + " blob deletions failed"));
+            }
+        } catch (RuntimeException e) {
+            retryOrGiveUp(task, e);
+        }
+    }
+
+    /**
+     * Deletes up to {@value #MAX_BATCH_SIZE} blobs in one request.
+     *
+     * @return The blobs whose deletion failed and should be retried.
+     */
+    private List<BlobId> deleteBatch(List<BlobId> blobIds) {
+        StorageBatch batch = storage.batch();
+        List<BlobId> failed = new ArrayList<>();
+        for (BlobId blobId : blobIds) {
+            batch.delete(blobId).notify(new BatchResult.Callback<>() {
+                @Override
+                public void success(Boolean deleted) {
+                    // false means the blob was already gone
+                    deletedBlobs.increment();
+                }
+
+                @Override
+                public void error(StorageException e) {
+                    failed.add(blobId);
+                }
+            });
+        }
+        batch.submit();
+        return failed;
+    }
+
+    private void retryOrGiveUp(Task task, RuntimeException e) {
+        if (task.attempts < maxAttempts && !worker.isShutdown()) {
+            long delayMillis = retryBackoff.toMillis() << (task.attempts - 1);
+            log.warn("Blob deletion failed (attempt {}/{}), retrying in {} ms: {}", task.attempts, maxAttempts, delayMillis, e.getMessage());
+            worker.schedule(() -> run(task), delayMillis, TimeUnit.MILLISECONDS);
+        } else {
+            log.error("Giving up deleting {} blobs and {} prefixes after {} attempts: {}",
+                    task.blobIds.size(), task.prefixes.size(), task.attempts, e.getMessage());
+            failedBlobs.increment(task.blobIds.size());
+            pending.addAndGet(-task.size());
+        }
+    }
+
+    @PreDestroy
+    void shutdown() throws InterruptedException {
+        worker.shutdown();
+        worker.awaitTermination(30, TimeUnit.SECONDS);
+    }
+
+    /** Only touched by the single worker thread once scheduled. */
+    private static final class Task {
+        private final List<String> prefixes;
+        private List<BlobId> blobIds;
+        private int attempts;
+
+        private Task(List<String> prefixes, List<BlobId> blobIds) {
+            this.prefixes = prefixes;
+            this.blobIds = blobIds;
+        }
+
+        private int size() {
+            return prefixes.size() + blobIds.size();
+        }
+    }
+}
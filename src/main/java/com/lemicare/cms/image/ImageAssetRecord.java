@@ -0,0 +1,66 @@
+package com.lemicare.cms.image;
+
+import com.google.cloud.Timestamp;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * CMS-side processing state of a product image, stored next to the storefront products.
+ * <p>
+ * The shared {@code ImageAsset} model only carries URLs, so the status of the background
+ * variant job, and what it needs to run again after a restart, lives here, keyed by the
+ * asset ID.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ImageAssetRecord {
+
+    private String assetId;
+    private String organizationId;
+    private String productId;
+    private Status status;
+
+    private String basePath;            // Blob prefix of all renditions, ending with '/'
+    private String fileExtension;       // Including the dot; also the output format of the variants
+    private String originalBlobName;
+    private String originalUrl;
+    private String contentSha256;       // Hex SHA-256 of the original
+    private long sizeBytes;
+
+    private String thumbnailUrl;
+    private String mediumUrl;
+    private String largeUrl;
+    private List<ImageVariantFile> variantFiles; // Every stored encoding of the variants, for format negotiation
+    private String blurHash;            // Placeholder shown while the image loads
+    private String dominantColor;       // "#rrggbb"
+
+    private int attempts;
+    private String lastError;
+    private Timestamp createdAt;
+    private Timestamp updatedAt;
+
+    /**
+     * Copies the variant URLs, files and placeholder of finished content onto the record.
+     */
+    public void applyVariants(ImageVariantUrls variants) {
+        thumbnailUrl = variants.thumbnailUrl();
+        mediumUrl = variants.mediumUrl();
+        largeUrl = variants.largeUrl();
+        variantFiles = variants.files();
+        blurHash = variants.placeholder() != null ? variants.placeholder().blurHash() : null;
+        dominantColor = variants.placeholder() != null ? variants.placeholder().dominantColor() : null;
+    }
+
+    public enum Status {
+        UPLOADING,  // Direct upload URL issued; the upload has not been finalized yet
+        PROCESSING, // Original stored; variants are being generated
+        READY,      // Variant URLs are set on the product's ImageAsset
+        FAILED      // Gave up after the configured attempts; the product keeps showing the original
+    }
+}
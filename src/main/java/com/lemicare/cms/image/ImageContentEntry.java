@@ -0,0 +1,53 @@
+package com.lemicare.cms.image;
+
+import com.google.cloud.Timestamp;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One distinct image content of a tenant, keyed by the SHA-256 of the original.
+ * <p>
+ * The blobs live under the {@code basePath} of the asset that first uploaded the content;
+ * every asset showing the same content reuses them and is listed in {@code references}.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ImageContentEntry {
+
+    private String sha256;
+    private String basePath;
+    private String fileExtension;
+    private String originalBlobName;
+    private String originalUrl;
+
+    // Set once the variants have been generated
+    private boolean ready;
+    private String thumbnailUrl;
+    private String mediumUrl;
+    private String largeUrl;
+    private List<ImageVariantFile> variantFiles;
+    private String blurHash;
+    private String dominantColor;
+
+    @Builder.Default
+    private List<String> references = new ArrayList<>(); // "productId/assetId" of every asset using this content
+    private Timestamp createdAt;
+    private Timestamp updatedAt;
+
+    public static String reference(String productId, String assetId) {
+        return productId + "/" + assetId;
+    }
+
+    public ImageVariantUrls variants() {
+        return ready ? new ImageVariantUrls(thumbnailUrl, mediumUrl, largeUrl,
+                variantFiles != null ? variantFiles : List.of(),
+                blurHash != null ? new ImagePlaceholder(blurHash, dominantColor) : null) : null;
+    }
+}
@@ -0,0 +1,185 @@
+package com.lemicare.cms.image;
+
+import net.coobird.thumbnailator.Thumbnails;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Encodes resized images for delivery: tuned progressive JPEG, lossy WebP where an ImageIO
+ * WebP writer is installed, and any other ImageIO format as is.
+ */
+@Component
+public class ImageEncoder {
+    private static final Logger log = LoggerFactory.getLogger(ImageEncoder.class);
+
+    private static final Map<String, String> CONTENT_TYPES = Map.of(
+            "jpg", "image/jpeg",
+            "jpeg", "image/jpeg",
+            "png", "image/png",
+            "gif", "image/gif",
+            "webp", "image/webp");
+
+    private final boolean webpSupported;
+
+    @Value("${app.images.encoding.jpeg-quality:0.82}")
+    private float jpegQuality;
+
+    @Value("${app.images.encoding.webp-quality:0.80}")
+    private float webpQuality;
+
+    public ImageEncoder() {
+        this.webpSupported = ImageIO.getImageWritersByFormatName("webp").hasNext();
+        if (!webpSupported) {
+            log.warn("No ImageIO WebP writer available; images are delivered without WebP variants");
+        }
+    }
+
+    public boolean isWebpSupported() {
+        return webpSupported;
+    }
+
+    public static String contentType(String format) {
+        String normalized = format.toLowerCase(Locale.ROOT);
+        return CONTENT_TYPES.getOrDefault(normalized, "image/" + normalized);
+    }
+
+    /**
+     * Returns the formats worth storing besides the original's: WebP, and progressive JPEG
+     * for originals in another format that have no transparency.
+     */
+    public List<String> alternativeFormats(String originalFormat, BufferedImage image) {
+        String format = originalFormat.toLowerCase(Locale.ROOT);
+        boolean jpeg = format.equals("jpg") || format.equals("jpeg");
+        boolean addJpeg = !jpeg && !image.getColorModel().hasAlpha();
+        boolean addWebp = webpSupported && !format.equals("webp");
+        if (addJpeg && addWebp) {
+            return List.of("webp", "jpg");
+        }
+        return addWebp ? List.of("webp") : addJpeg ? List.of("jpg") : List.of();
+    }
+
+    public byte[] encode(BufferedImage image, String format) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        encode(image, format, out);
+        return out.toByteArray();
+    }
+
+    public void encode(BufferedImage image, String format, OutputStream out) throws IOException {
+        switch (format.toLowerCase(Locale.ROOT)) {
+            case "jpg", "jpeg" -> write(withoutAlpha(image), "jpeg", out, param -> {
+                param.setProgressiveMode(ImageWriteParam.MODE_DEFAULT);
+                param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                param.setCompressionQuality(jpegQuality);
+            });
+            case "webp" -> write(image, "webp", out, param -> {
+                param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                param.setCompressionType(lossyType(param));
+                param.setCompressionQuality(webpQuality);
+            });
+            default -> Thumbnails.of(image).scale(1.0).outputFormat(format).toOutputStream(out);
+        }
+    }
+
+    /**
+     * Picks the format the client accepts that is expected to be smallest: WebP when the
+     * {@code Accept} header names it explicitly (wildcards do not imply WebP support),
+     * otherwise JPEG.
+     */
+    public String negotiate(String acceptHeader) {
+        return webpSupported && acceptsExplicitly(acceptHeader, "image/webp") ? "webp" : "jpg";
+    }
+
+    /**
+     * Whether the {@code Accept} header lists the content type itself with a non-zero
+     * quality, not just through a wildcard.
+     */
+    public static boolean acceptsExplicitly(String acceptHeader, String contentType) {
+        if (acceptHeader == null || acceptHeader.isBlank()) {
+            return false;
+        }
+        try {
+            MediaType wanted = MediaType.parseMediaType(contentType);
+            return MediaType.parseMediaTypes(acceptHeader).stream()
+                    .anyMatch(accepted -> !accepted.isWildcardType() && !accepted.isWildcardSubtype()
+                            && accepted.isCompatibleWith(wanted) && accepted.getQualityValue() > 0);
+        } catch (RuntimeException e) {
+            return false; // Malformed header
+        }
+    }
+
+    /**
+     * Whether the {@code Accept} header allows the content type, including via wildcards.
+     * A missing header accepts everything.
+     */
+    public static boolean accepts(String acceptHeader, String contentType) {
+        if (acceptHeader == null || acceptHeader.isBlank()) {
+            return true;
+        }
+        try {
+            MediaType wanted = MediaType.parseMediaType(contentType);
+            return MediaType.parseMediaTypes(acceptHeader).stream()
+                    .anyMatch(accepted -> accepted.includes(wanted) && accepted.getQualityValue() > 0);
+        } catch (RuntimeException e) {
+            return true;
+        }
+    }
+
+    private static void write(BufferedImage image, String formatName, OutputStream out, Consumer<ImageWriteParam> setup) throws IOException {
+        Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName(formatName);
+        if (!writers.hasNext()) {
+            throw new IOException("No ImageIO writer for " + formatName);
+        }
+        ImageWriter writer = writers.next();
+        try (ImageOutputStream ios = ImageIO.createImageOutputStream(out)) {
+            writer.setOutput(ios);
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            setup.accept(param);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+    }
+
+    private static String lossyType(ImageWriteParam param) {
+        for (String type : param.getCompressionTypes()) {
+            if (type.toLowerCase(Locale.ROOT).contains("lossy") && !type.toLowerCase(Locale.ROOT).contains("lossless")) {
+                return type;
+            }
+        }
+        return param.getCompressionTypes()[0];
+    }
+
+    private static BufferedImage withoutAlpha(BufferedImage image) {
+        if (!image.getColorModel().hasAlpha() && image.getType() != BufferedImage.TYPE_CUSTOM) {
+            return image;
+        }
+        BufferedImage rgb = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = rgb.createGraphics();
+        try {
+            graphics.drawImage(image, 0, 0, Color.WHITE, null);
+        } finally {
+            graphics.dispose();
+        }
+        return rgb;
+    }
+}
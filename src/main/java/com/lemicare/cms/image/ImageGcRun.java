@@ -0,0 +1,46 @@
+package com.lemicare.cms.image;
+
+import com.google.cloud.Timestamp;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Progress and report of an image garbage collection run, stored in a single document so
+ * that an interrupted run is resumed from its last listing page, by any instance.
+ * <p>
+ * In a dry run the counts describe what would have been removed; nothing is deleted.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ImageGcRun {
+
+    private String runId;
+    private boolean dryRun;
+
+    private String owner;               // Instance holding the lease
+    private Timestamp leaseExpiresAt;
+    private String pageToken;           // Next GCS listing page; null before the first and after the last page
+
+    private long organizationsScanned;
+    private long blobsScanned;
+    private long orphanedBlobs;         // Unreferenced blobs older than the grace period
+    private long orphanedBytes;
+    private long staleRecords;          // Processing records of assets no product shows anymore
+    private long staleTempProducts;     // Abandoned "temp-" products from the new-product upload flow
+    @Builder.Default
+    private List<String> sampleOrphans = new ArrayList<>();
+    @Builder.Default
+    private List<String> sampleTempProducts = new ArrayList<>(); // "{orgId}/{productId}"
+
+    private String lastError;
+    private Timestamp startedAt;
+    private Timestamp updatedAt;
+    private Timestamp finishedAt;
+}
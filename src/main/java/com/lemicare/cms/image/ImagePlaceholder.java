@@ -0,0 +1,60 @@
+package com.lemicare.cms.image;
+
+import net.coobird.thumbnailator.Thumbnails;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * What a storefront paints while an image downloads: a BlurHash preview and the image's
+ * dominant colour as {@code #rrggbb}.
+ */
+public record ImagePlaceholder(String blurHash, String dominantColor) {
+
+    /** Side of the downscaled copy both values are computed from. */
+    private static final int SAMPLE_SIZE = 32;
+
+    /**
+     * Computes the placeholder of an image, preferably an already small variant.
+     */
+    public static ImagePlaceholder of(BufferedImage image) throws IOException {
+        BufferedImage sample = Thumbnails.of(image).size(SAMPLE_SIZE, SAMPLE_SIZE).asBufferedImage();
+        int componentsX = sample.getWidth() >= sample.getHeight() ? 4 : 3;
+        int componentsY = sample.getWidth() >= sample.getHeight() ? 3 : 4;
+        return new ImagePlaceholder(BlurHash.encode(sample, componentsX, componentsY), dominantColor(sample));
+    }
+
+    /**
+     * The average colour of the most common colour bucket (4 bits per channel), ignoring
+     * transparent pixels; white for fully transparent images.
+     */
+    private static String dominantColor(BufferedImage sample) {
+        Map<Integer, long[]> buckets = new HashMap<>(); // bucket -> {count, r, g, b}
+        long[] dominant = null;
+        for (int y = 0; y < sample.getHeight(); y++) {
+            for (int x = 0; x < sample.getWidth(); x++) {
+                int argb = sample.getRGB(x, y);
+                if ((argb >>> 24) < 128) {
+                    continue;
+                }
+                int r = (argb >> 16) & 0xFF;
+                int g = (argb >> 8) & 0xFF;
+                int b = argb & 0xFF;
+                long[] bucket = buckets.computeIfAbsent(((r >> 4) << 8) | ((g >> 4) << 4) | (b >> 4), key -> new long[4]);
+                bucket[0]++;
+                bucket[1] += r;
+                bucket[2] += g;
+                bucket[3] += b;
+                if (dominant == null || bucket[0] > dominant[0]) {
+                    dominant = bucket;
+                }
+            }
+        }
+        if (dominant == null) {
+            return "#ffffff";
+        }
+        return String.format("#%02x%02x%02x", dominant[1] / dominant[0], dominant[2] / dominant[0], dominant[3] / dominant[0]);
+    }
+}
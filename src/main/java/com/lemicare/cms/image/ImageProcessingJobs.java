@@ -0,0 +1,448 @@
+package com.lemicare.cms.image;
+
+import com.cosmicdoc.common.model.ImageAsset;
+import com.cosmicdoc.common.model.StorefrontProduct;
+import com.google.cloud.Timestamp;
+import com.google.cloud.firestore.DocumentReference;
+import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.cloud.firestore.Firestore;
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.Storage;
+import com.lemicare.cms.cache.CatalogSnapshotCache;
+import com.lemicare.cms.cache.ImagePlaceholderCache;
+import com.lemicare.cms.exception.ServiceCommunicationException;
+import com.lemicare.cms.firestore.ImageAssetRecordStore;
+import com.lemicare.cms.firestore.ImageContentIndex;
+import com.lemicare.cms.firestore.StorefrontFirestorePaths;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Generates image variants in the background, after the upload request has stored the
+ * original and returned.
+ * <p>
+ * Each job is tracked by an {@link ImageAssetRecord} keyed by the asset ID (which doubles
+ * as the job ID). Until the job finishes, the product's {@code ImageAsset} points all of its
+ * variant URLs at the original. Uploads are content-addressed through the
+ * {@link ImageContentIndex}: an image the tenant already has reuses the stored blobs, and
+ * only the first upload of some content runs a job. A failed attempt is retried with exponential backoff,
+ * re-reading the original from Cloud Storage; jobs left in PROCESSING by an instance that
+ * went away are picked up again on startup.
+ */
+@Component
+public class ImageProcessingJobs {
+    private static final Logger log = LoggerFactory.getLogger(ImageProcessingJobs.class);
+
+    private final ImageVariantPipeline imageVariantPipeline;
+    private final ImageAssetRecordStore imageAssetRecordStore;
+    private final ImageContentIndex imageContentIndex;
+    private final StorefrontFirestorePaths paths;
+    private final Firestore firestore;
+    private final Storage storage;
+    private final CatalogSnapshotCache catalogSnapshotCache;
+    private final GcsBlobDeleter gcsBlobDeleter;
+    private final ImagePlaceholderCache imagePlaceholderCache;
+    private final ScheduledThreadPoolExecutor workers;
+
+    private final Counter completedJobs;
+    private final Counter retriedJobs;
+    private final Counter failedJobs;
+    private final Counter deduplicatedUploads;
+
+    @Value("${gcp.storage.bucket-name}")
+    private String bucketName;
+
+    @Value("${app.images.jobs.max-attempts:4}")
+    private int maxAttempts;
+
+    @Value("${app.images.jobs.retry-backoff:5s}")
+    private Duration retryBackoff;
+
+    @Value("${app.images.jobs.recover-after:10m}")
+    private Duration recoverAfter;
+
+    public ImageProcessingJobs(ImageVariantPipeline imageVariantPipeline, ImageAssetRecordStore imageAssetRecordStore,
+                               ImageContentIndex imageContentIndex, StorefrontFirestorePaths paths, Firestore firestore, Storage storage,
+                               CatalogSnapshotCache catalogSnapshotCache, GcsBlobDeleter gcsBlobDeleter,
+                               ImagePlaceholderCache imagePlaceholderCache, MeterRegistry meterRegistry,
+                               @Value("${app.images.jobs.workers:2}") int workerCount) {
+        this.imageVariantPipeline = imageVariantPipeline;
+        this.imageAssetRecordStore = imageAssetRecordStore;
+        this.imageContentIndex = imageContentIndex;
+        this.paths = paths;
+        this.firestore = firestore;
+        this.storage = storage;
+        this.catalogSnapshotCache = catalogSnapshotCache;
+        this.gcsBlobDeleter = gcsBlobDeleter;
+        this.imagePlaceholderCache = imagePlaceholderCache;
+        this.workers = new ScheduledThreadPoolExecutor(Math.max(1, workerCount), runnable -> {
+            Thread thread = new Thread(runnable, "image-jobs");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.workers.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        this.completedJobs = Counter.builder("cms.images.jobs.completed")
+                .description("Image jobs whose variants were generated and attached to the product")
+                .register(meterRegistry);
+        this.retriedJobs = Counter.builder("cms.images.jobs.retried")
+                .description("Image job attempts that failed and were scheduled again")
+                .register(meterRegistry);
+        this.failedJobs = Counter.builder("cms.images.jobs.failed")
+                .description("Image jobs that exhausted their attempts")
+                .register(meterRegistry);
+        this.deduplicatedUploads = Counter.builder("cms.images.deduplicated")
+                .description("Uploads whose content was already stored and reused")
+                .register(meterRegistry);
+    }
+
+    /**
+     * An uploaded image after its content has been matched against the content index.
+     *
+     * @param content     The shared content the asset uses.
+     * @param inlineBytes The original, if kept in memory for the first attempt; may be {@code null}.
+     * @param newContent  {@code true} if this upload introduced the content, so its variants
+     *                    still have to be generated.
+     */
+    public record Job(String organizationId, String productId, String assetId, ImageContentEntry content,
+                      long sizeBytes, byte[] inlineBytes, boolean newContent) {
+    }
+
+    /**
+     * Registers a stored original in the content index. If the tenant already has the same
+     * content, the freshly uploaded copy is deleted and the asset reuses the existing blobs.
+     */
+    public Job prepare(String orgId, String productId, String assetId, String basePath, String fileExtension, StoredOriginal original) {
+        ImageContentEntry candidate = ImageContentEntry.builder()
+                .sha256(original.sha256())
+                .basePath(basePath)
+                .fileExtension(fileExtension)
+                .originalBlobName(original.blobName())
+                .originalUrl(original.mediaLink())
+                .build();
+        ImageContentIndex.Claim claim = imageContentIndex.claim(orgId, candidate, productId, assetId);
+        if (claim.duplicate()) {
+            gcsBlobDeleter.deleteBlobs(List.of(original.blobName()));
+            deduplicatedUploads.increment();
+            log.info("Image asset {} reuses the stored content {} of {}", assetId, original.sha256(), claim.entry().getBasePath());
+        }
+        return new Job(orgId, productId, assetId, claim.entry(), original.sizeBytes(),
+                claim.duplicate() ? null : original.inlineBytes(), !claim.duplicate());
+    }
+
+    /**
+     * Returns the asset to store on the product. Until the content's variants exist, every
+     * variant URL points at the original.
+     */
+    public static ImageAsset placeholderAsset(Job job, String altText, int displayOrder) {
+        ImageContentEntry content = job.content();
+        ImageVariantUrls variants = content.variants();
+        return ImageAsset.builder()
+                .assetId(job.assetId())
+                .originalUrl(content.getOriginalUrl())
+                .thumbnailUrl(variants != null ? variants.thumbnailUrl() : content.getOriginalUrl())
+                .mediumUrl(variants != null ? variants.mediumUrl() : content.getOriginalUrl())
+                .largeUrl(variants != null ? variants.largeUrl() : content.getOriginalUrl())
+                .altText(altText)
+                .displayOrder(displayOrder)
+                .build();
+    }
+
+    /**
+     * Records the asset's state and, for new content, schedules the variant job. Must be
+     * called after the asset has been saved on the product. Assets reusing content that is
+     * still being processed are completed by the job of the asset that introduced it.
+     */
+    public void submit(Job job) {
+        ImageContentEntry content = job.content();
+        ImageVariantUrls variants = content.variants();
+        ImageAssetRecord record = ImageAssetRecord.builder()
+                .assetId(job.assetId())
+                .organizationId(job.organizationId())
+                .productId(job.productId())
+                .status(variants != null ? ImageAssetRecord.Status.READY : ImageAssetRecord.Status.PROCESSING)
+                .basePath(content.getBasePath())
+                .fileExtension(content.getFileExtension())
+                .originalBlobName(content.getOriginalBlobName())
+                .originalUrl(content.getOriginalUrl())
+                .contentSha256(content.getSha256())
+                .sizeBytes(job.sizeBytes())
+                .createdAt(Timestamp.now())
+                .build();
+        if (variants != null) {
+            record.applyVariants(variants);
+            imagePlaceholderCache.put(job.organizationId(), job.assetId(), variants.placeholder());
+        }
+        imageAssetRecordStore.save(record);
+        if (job.newContent()) {
+            // Only small originals are kept in memory; the job reads larger ones back from GCS.
+            workers.execute(() -> run(record, job.inlineBytes()));
+        }
+    }
+
+    /**
+     * Drops an asset's reference to its content.
+     *
+     * @return The blob prefix to delete if no other asset uses the content, or empty if the
+     * blobs are still referenced.
+     */
+    public Optional<String> release(String orgId, String productId, String assetId) {
+        String ownPath = String.format("images/%s/%s/%s/", orgId, productId, assetId);
+        Optional<ImageAssetRecord> record = imageAssetRecordStore.findById(orgId, assetId);
+        if (record.isEmpty() || record.get().getContentSha256() == null) {
+            return Optional.of(ownPath); // Uploaded before content tracking
+        }
+        imageAssetRecordStore.delete(orgId, assetId);
+        ImageContentIndex.Release release = imageContentIndex.release(orgId, record.get().getContentSha256(), productId, assetId);
+        if (!release.indexed()) {
+            return Optional.of(record.get().getBasePath());
+        }
+        return Optional.ofNullable(release.lastReference()).map(ImageContentEntry::getBasePath);
+    }
+
+    /**
+     * Saves a product that was edited from an earlier read, keeping the variant URLs a job
+     * attached in the meantime. Only {@link #attachToProduct} changes the URLs of a stored
+     * asset, so the stored document's URLs win for every asset it already has. The read and
+     * the write share a transaction with the attach, so the two cannot interleave.
+     */
+    public StorefrontProduct saveProduct(String orgId, String productId, StorefrontProduct product) {
+        if (product.getProductId() == null || product.getProductId().isEmpty()) {
+            product.setProductId(productId);
+        }
+        DocumentReference ref = paths.product(orgId, productId);
+        try {
+            firestore.runTransaction(transaction -> {
+                DocumentSnapshot snapshot = transaction.get(ref).get();
+                if (snapshot.exists()) {
+                    keepAttachedVariants(product, snapshot.toObject(StorefrontProduct.class));
+                }
+                transaction.set(ref, product);
+                return null;
+            }).get();
+        } catch (ExecutionException e) {
+            throw new ServiceCommunicationException("Failed to save storefront product " + productId + ".", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ServiceCommunicationException("Interrupted while saving storefront product " + productId + ".", e);
+        }
+        return product;
+    }
+
+    private static void keepAttachedVariants(StorefrontProduct product, StorefrontProduct stored) {
+        if (product.getImages() == null || stored.getImages() == null) {
+            return;
+        }
+        for (ImageAsset image : product.getImages()) {
+            stored.getImages().stream()
+                    .filter(storedImage -> storedImage.getAssetId() != null && storedImage.getAssetId().equals(image.getAssetId()))
+                    .findFirst()
+                    .ifPresent(storedImage -> {
+                        image.setThumbnailUrl(storedImage.getThumbnailUrl());
+                        image.setMediumUrl(storedImage.getMediumUrl());
+                        image.setLargeUrl(storedImage.getLargeUrl());
+                    });
+        }
+    }
+
+    public Optional<ImageAssetRecord> find(String orgId, String assetId) {
+        return imageAssetRecordStore.findById(orgId, assetId);
+    }
+
+    /**
+     * Resumes jobs that were left in PROCESSING by an instance that stopped before finishing
+     * them. Jobs updated recently are assumed to be running elsewhere and are left alone.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void recoverInterruptedJobs() {
+        try {
+            Instant cutoff = Instant.now().minus(recoverAfter);
+            List<ImageAssetRecord> stale = new ArrayList<>();
+            for (ImageAssetRecord record : imageAssetRecordStore.findAllByStatus(ImageAssetRecord.Status.PROCESSING)) {
+                if (record.getUpdatedAt() == null || record.getUpdatedAt().toDate().toInstant().isBefore(cutoff)) {
+                    stale.add(record);
+                }
+            }
+            stale.forEach(record -> workers.execute(() -> run(record, null)));
+            if (!stale.isEmpty()) {
+                log.info("Resuming {} interrupted image jobs", stale.size());
+            }
+        } catch (RuntimeException e) {
+            log.warn("Could not look up interrupted image jobs: {}", e.getMessage());
+        }
+    }
+
+    private void run(ImageAssetRecord record, byte[] originalBytes) {
+        record.setAttempts(record.getAttempts() + 1);
+        try {
+            if (imageAssetRecordStore.findById(record.getOrganizationId(), record.getAssetId()).isEmpty()) {
+                log.info("Image asset {} of product {} was released; dropping its job", record.getAssetId(), record.getProductId());
+                return;
+            }
+            byte[] bytes = originalBytes != null ? originalBytes
+                    : storage.readAllBytes(BlobId.of(bucketName, record.getOriginalBlobName()));
+            ImageVariantUrls urls = imageVariantPipeline.createVariants(record.getBasePath(), record.getFileExtension(), bytes);
+
+            record.applyVariants(urls);
+
+            String ownReference = ImageContentEntry.reference(record.getProductId(), record.getAssetId());
+            List<String> indexedReferences = record.getContentSha256() != null
+                    ? imageContentIndex.markReady(record.getOrganizationId(), record.getContentSha256(), urls)
+                    : List.of();
+            List<String> references = indexedReferences.isEmpty() ? List.of(ownReference) : indexedReferences;
+            // Before attaching, so responses rebuilt on the resulting catalog change include it
+            for (String reference : references) {
+                imagePlaceholderCache.put(record.getOrganizationId(), reference.substring(reference.indexOf('/') + 1), urls.placeholder());
+            }
+            boolean attached = false;
+            for (String reference : references) {
+                String[] productAndAsset = reference.split("/", 2);
+                if (reference.equals(ownReference)) {
+                    attached = attachToProduct(record.getOrganizationId(), productAndAsset[0], productAndAsset[1], urls);
+                } else {
+                    completeSharedAsset(record.getOrganizationId(), productAndAsset[0], productAndAsset[1], urls);
+                }
+            }
+
+            if (attached) {
+                record.setStatus(ImageAssetRecord.Status.READY);
+                record.setLastError(null);
+                completedJobs.increment();
+                log.info("Image variants ready for asset {} of product {} (org {})", record.getAssetId(), record.getProductId(), record.getOrganizationId());
+            } else {
+                // The product or the image was deleted while the job ran.
+                record.setStatus(ImageAssetRecord.Status.FAILED);
+                record.setLastError("Image asset no longer exists on the product.");
+                failedJobs.increment();
+            }
+            if (!imageAssetRecordStore.saveIfExists(record)) {
+                // Released while the job ran. Its release may have deleted the content before
+                // the variants were uploaded, so delete them unless other assets use them.
+                log.info("Image asset {} of product {} was released while its job ran", record.getAssetId(), record.getProductId());
+                if (indexedReferences.isEmpty()) {
+                    gcsBlobDeleter.deletePrefixes(List.of(record.getBasePath()));
+                }
+            }
+        } catch (Exception e) {
+            handleFailure(record, e);
+        }
+    }
+
+    private void handleFailure(ImageAssetRecord record, Exception e) {
+        if (e instanceof InterruptedException) {
+            Thread.currentThread().interrupt();
+        }
+        record.setLastError(e.getMessage());
+        if (record.getAttempts() < maxAttempts && !workers.isShutdown()) {
+            long delayMillis = retryBackoff.toMillis() << (record.getAttempts() - 1);
+            log.warn("Image job for asset {} failed (attempt {}/{}), retrying in {} ms: {}",
+                    record.getAssetId(), record.getAttempts(), maxAttempts, delayMillis, e.getMessage());
+            if (!saveQuietly(record)) {
+                log.info("Image asset {} was released; not retrying its job", record.getAssetId());
+                return;
+            }
+            retriedJobs.increment();
+            workers.schedule(() -> run(record, null), delayMillis, TimeUnit.MILLISECONDS);
+        } else {
+            log.error("Image job for asset {} failed after {} attempts", record.getAssetId(), record.getAttempts(), e);
+            record.setStatus(ImageAssetRecord.Status.FAILED);
+            failedJobs.increment();
+            saveQuietly(record);
+        }
+    }
+
+    /**
+     * Sets the variant URLs on the product's image asset in a transaction, so concurrent
+     * edits to the product are not overwritten.
+     *
+     * @return {@code false} if the product or the asset no longer exists.
+     */
+    private boolean attachToProduct(String orgId, String productId, String assetId, ImageVariantUrls urls) throws ExecutionException, InterruptedException {
+        DocumentReference ref = paths.product(orgId, productId);
+        StorefrontProduct updated = firestore.runTransaction(transaction -> {
+            DocumentSnapshot snapshot = transaction.get(ref).get();
+            if (!snapshot.exists()) {
+                return null;
+            }
+            StorefrontProduct product = snapshot.toObject(StorefrontProduct.class);
+            List<ImageAsset> images = product.getImages() != null ? product.getImages() : List.of();
+            Optional<ImageAsset> asset = images.stream()
+                    .filter(image -> assetId.equals(image.getAssetId()))
+                    .findFirst();
+            if (asset.isEmpty()) {
+                return null;
+            }
+            asset.get().setThumbnailUrl(urls.thumbnailUrl());
+            asset.get().setMediumUrl(urls.mediumUrl());
+            asset.get().setLargeUrl(urls.largeUrl());
+            transaction.update(ref, "images", images);
+            return product;
+        }).get();
+
+        if (updated == null) {
+            return false;
+        }
+        if (updated.getProductId() == null || updated.getProductId().isEmpty()) {
+            updated.setProductId(productId);
+        }
+        catalogSnapshotCache.upsert(orgId, updated);
+        return true;
+    }
+
+    /**
+     * Completes an asset that reused this job's content while it was being processed.
+     * Failures are only logged: the asset keeps showing the original and its record stays
+     * PROCESSING, so it is picked up again by {@link #recoverInterruptedJobs}.
+     */
+    private void completeSharedAsset(String orgId, String productId, String assetId, ImageVariantUrls urls) {
+        try {
+            if (!attachToProduct(orgId, productId, assetId, urls)) {
+                return;
+            }
+            imageAssetRecordStore.findById(orgId, assetId).ifPresent(shared -> {
+                shared.setStatus(ImageAssetRecord.Status.READY);
+                shared.applyVariants(urls);
+                imageAssetRecordStore.saveIfExists(shared);
+            });
+        } catch (Exception e) {
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+            log.warn("Could not attach shared variants to asset {} of product {}: {}", assetId, productId, e.getMessage());
+        }
+    }
+
+    /**
+     * @return {@code false} if the record no longer exists because the asset was released.
+     */
+    private boolean saveQuietly(ImageAssetRecord record) {
+        try {
+            return imageAssetRecordStore.saveIfExists(record);
+        } catch (RuntimeException e) {
+            log.warn("Could not save status of image asset {}: {}", record.getAssetId(), e.getMessage());
+            return true;
+        }
+    }
+
+    @PreDestroy
+    void shutdown() throws InterruptedException {
+        // Pending retries are dropped; their records stay PROCESSING and are resumed on startup.
+        workers.shutdown();
+        workers.awaitTermination(30, TimeUnit.SECONDS);
+    }
+}
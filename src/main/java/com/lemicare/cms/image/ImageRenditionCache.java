@@ -0,0 +1,236 @@
+package com.lemicare.cms.image;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.stream.Stream;
+
+/**
+ * Least-recently-used cache of rendered images on local disk, bounded by {@code cache-size}.
+ * <p>
+ * Concurrent requests for a rendition that is not cached yet share a single render. Each
+ * rendition is written to a temporary file and moved into place, so a file in the cache
+ * is always complete. Renditions are handed out as open channels, so eviction never
+ * removes a file that is being sent. The index is rebuilt from the directory on startup, ordered by
+ * modification time.
+ */
+@Component
+public class ImageRenditionCache {
+    private static final Logger log = LoggerFactory.getLogger(ImageRenditionCache.class);
+
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    /** Renders a rendition into the given stream. */
+    @FunctionalInterface
+    public interface Renderer {
+        void render(OutputStream out) throws IOException;
+    }
+
+    private final Path directory;
+    private final long maxBytes;
+
+    // File name -> size, in access order; guarded by this
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(256, 0.75f, true);
+    private long totalBytes;
+
+    private final ConcurrentMap<String, CompletableFuture<Path>> renders = new ConcurrentHashMap<>();
+    private final Counter hits;
+    private final Counter misses;
+    private final Counter coalesced;
+    private final Counter evictions;
+
+    public ImageRenditionCache(@Value("${app.images.renditions.cache-dir:data/image-cache}") String directory,
+                               @Value("${app.images.renditions.cache-size:2GB}") DataSize maxSize,
+                               MeterRegistry meterRegistry) throws IOException {
+        this.directory = Paths.get(directory);
+        this.maxBytes = maxSize.toBytes();
+        Files.createDirectories(this.directory);
+        loadIndex();
+
+        this.hits = Counter.builder("cms.images.renditions.hits").register(meterRegistry);
+        this.misses = Counter.builder("cms.images.renditions.misses").register(meterRegistry);
+        this.coalesced = Counter.builder("cms.images.renditions.coalesced")
+                .description("Requests that waited for a render already in progress")
+                .register(meterRegistry);
+        this.evictions = Counter.builder("cms.images.renditions.evicted").register(meterRegistry);
+        Gauge.builder("cms.images.renditions.bytes", this, ImageRenditionCache::cachedBytes)
+                .description("Bytes of renditions on local disk")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Opens the cached rendition for {@code key}, rendering it with {@code renderer} if it
+     * is not cached. The channel is opened while the entry is known to be in the cache, so
+     * a later eviction cannot remove the file from under the caller; it must be closed.
+     */
+    public FileChannel open(String key, Renderer renderer) throws IOException {
+        String fileName = fileName(key);
+        Path file = directory.resolve(fileName);
+        FileChannel channel = openIfCached(fileName, file);
+        if (channel != null) {
+            hits.increment();
+            return channel;
+        }
+        for (int attempt = 0; attempt < 3; attempt++) {
+            ensureRendered(fileName, file, renderer);
+            channel = openIfCached(fileName, file);
+            if (channel != null) {
+                return channel;
+            }
+            // Evicted by concurrent renders before it could be opened
+        }
+        throw new IOException("Rendition " + key + " was evicted before it could be served; the cache is too small.");
+    }
+
+    private void ensureRendered(String fileName, Path file, Renderer renderer) throws IOException {
+        CompletableFuture<Path> render = new CompletableFuture<>();
+        CompletableFuture<Path> inProgress = renders.putIfAbsent(fileName, render);
+        if (inProgress != null) {
+            coalesced.increment();
+            await(inProgress);
+            return;
+        }
+        try {
+            if (!touch(fileName)) { // Another render may have finished just before ours was registered
+                misses.increment();
+                store(fileName, file, renderer);
+            }
+            render.complete(file);
+        } catch (IOException | RuntimeException e) {
+            render.completeExceptionally(e);
+            throw e;
+        } finally {
+            renders.remove(fileName, render);
+        }
+    }
+
+    private void store(String fileName, Path file, Renderer renderer) throws IOException {
+        Path temp = Files.createTempFile(directory, fileName, TEMP_SUFFIX);
+        try {
+            try (OutputStream out = Files.newOutputStream(temp)) {
+                renderer.render(out);
+            }
+            Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+
+        long size = Files.size(file);
+        int evicted = 0;
+        synchronized (this) {
+            Long previous = entries.put(fileName, size);
+            totalBytes += size - (previous != null ? previous : 0);
+            Iterator<Map.Entry<String, Long>> eldest = entries.entrySet().iterator();
+            while (totalBytes > maxBytes && eldest.hasNext()) {
+                Map.Entry<String, Long> entry = eldest.next();
+                if (entry.getKey().equals(fileName)) {
+                    continue;
+                }
+                // Deleted under the lock, so a file is never removed after a reader found its
+                // entry; readers that already opened it keep their handle.
+                Files.deleteIfExists(directory.resolve(entry.getKey()));
+                totalBytes -= entry.getValue();
+                eldest.remove();
+                evicted++;
+            }
+        }
+        evictions.increment(evicted);
+    }
+
+    private synchronized boolean touch(String fileName) {
+        return entries.get(fileName) != null;
+    }
+
+    private synchronized FileChannel openIfCached(String fileName, Path file) throws IOException {
+        return entries.get(fileName) != null ? FileChannel.open(file, StandardOpenOption.READ) : null;
+    }
+
+    private synchronized long cachedBytes() {
+        return totalBytes;
+    }
+
+    private void loadIndex() throws IOException {
+        List<Path> files;
+        try (Stream<Path> listing = Files.list(directory)) {
+            files = listing.filter(Files::isRegularFile).toList();
+        }
+        List<Path> cached = new ArrayList<>();
+        for (Path file : files) {
+            if (file.getFileName().toString().endsWith(TEMP_SUFFIX)) {
+                Files.deleteIfExists(file); // Left behind by a render that was interrupted
+            } else {
+                cached.add(file);
+            }
+        }
+        cached.sort(Comparator.comparing(ImageRenditionCache::lastModified));
+        synchronized (this) {
+            for (Path file : cached) {
+                long size = Files.size(file);
+                entries.put(file.getFileName().toString(), size);
+                totalBytes += size;
+            }
+        }
+        log.info("Image rendition cache at {} holds {} files ({} bytes)", directory, cached.size(), totalBytes);
+    }
+
+    private static FileTime lastModified(Path file) {
+        try {
+            return Files.getLastModifiedTime(file);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static String fileName(String key) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(hash);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private static void await(CompletableFuture<Path> render) throws IOException {
+        try {
+            render.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof IOException io) {
+                throw io;
+            }
+            if (e.getCause() instanceof RuntimeException runtime) {
+                throw runtime;
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+}
@@ -0,0 +1,241 @@
+package com.lemicare.cms.image;
+
+import com.cosmicdoc.common.model.StorefrontProduct;
+import com.google.cloud.ReadChannel;
+import com.google.cloud.storage.Blob;
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.Storage;
+import com.lemicare.cms.cache.CatalogSnapshotCache;
+import com.lemicare.cms.exception.ResourceNotFoundException;
+import com.lemicare.cms.exception.ServiceCommunicationException;
+import com.lemicare.cms.firestore.ImageAssetRecordStore;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Renders product images at any width on demand, for layouts the fixed
+ * {@link ImageVariant}s do not fit.
+ * <p>
+ * Widths are rounded up to a multiple of {@code width-step} and capped at
+ * {@code max-width}, so the number of distinct renditions per image stays small. Images
+ * are never enlarged. Renditions are kept in the {@link ImageRenditionCache}. An asset's
+ * original never changes, so a rendition is valid for as long as the asset exists;
+ * callers {@link #locate} the asset before serving anything, cached or not.
+ * <p>
+ * Originals are streamed from Cloud Storage into the decoder, and at most
+ * {@code max-concurrent-renders} renders run at once; further cache misses wait up to
+ * {@code render-wait} and then fail with 503.
+ */
+@Component
+public class ImageRenditions {
+
+    private static final Set<String> FORMATS = Set.of("jpg", "png", "webp");
+    private static final int READ_CHUNK_SIZE = 256 * 1024;
+
+    private final ImageRenditionCache cache;
+    private final ImageAssetRecordStore imageAssetRecordStore;
+    private final CatalogSnapshotCache catalogSnapshotCache;
+    private final BoundedImageDecoder imageDecoder;
+    private final ImageEncoder imageEncoder;
+    private final Storage storage;
+    private final Semaphore renderPermits;
+
+    @Value("${gcp.storage.bucket-name}")
+    private String bucketName;
+
+    @Value("${app.images.renditions.width-step:40}")
+    private int widthStep;
+
+    @Value("${app.images.renditions.max-width:2400}")
+    private int maxWidth;
+
+    @Value("${app.images.renditions.render-wait:2s}")
+    private Duration renderWait;
+
+    public ImageRenditions(ImageRenditionCache cache, ImageAssetRecordStore imageAssetRecordStore,
+                           CatalogSnapshotCache catalogSnapshotCache, BoundedImageDecoder imageDecoder,
+                           ImageEncoder imageEncoder, Storage storage,
+                           @Value("${app.images.renditions.max-concurrent-renders:4}") int maxConcurrentRenders) {
+        this.cache = cache;
+        this.imageAssetRecordStore = imageAssetRecordStore;
+        this.catalogSnapshotCache = catalogSnapshotCache;
+        this.imageDecoder = imageDecoder;
+        this.imageEncoder = imageEncoder;
+        this.storage = storage;
+        this.renderPermits = new Semaphore(Math.max(1, maxConcurrentRenders));
+    }
+
+    /**
+     * An image asset that exists. The original's blob name is looked up when first needed.
+     */
+    public static final class ImageSource {
+        private final String orgId;
+        private final String productId;
+        private final String assetId;
+        private String originalBlobName;
+
+        private ImageSource(String orgId, String productId, String assetId, String originalBlobName) {
+            this.orgId = orgId;
+            this.productId = productId;
+            this.assetId = assetId;
+            this.originalBlobName = originalBlobName;
+        }
+    }
+
+    /**
+     * An open rendition file, to be closed once sent.
+     */
+    public record Rendition(FileChannel file, String contentType, String etag) implements Closeable {
+        @Override
+        public void close() throws IOException {
+            file.close();
+        }
+    }
+
+    /**
+     * Checks that an image asset still exists. Answered from the catalog snapshot when the
+     * product is loaded there, otherwise from the asset's record or its stored original.
+     *
+     * @throws ResourceNotFoundException If the product or the asset does not exist.
+     */
+    public ImageSource locate(String orgId, String productId, String assetId) {
+        Optional<StorefrontProduct> product = catalogSnapshotCache.findProduct(orgId, productId);
+        if (product.isPresent()) {
+            boolean shown = product.get().getImages() != null && product.get().getImages().stream()
+                    .anyMatch(image -> assetId.equals(image.getAssetId()));
+            if (!shown) {
+                throw new ResourceNotFoundException("Image " + assetId + " not found.");
+            }
+            return new ImageSource(orgId, productId, assetId, null);
+        }
+        return new ImageSource(orgId, productId, assetId, findOriginal(orgId, productId, assetId));
+    }
+
+    /**
+     * The entity tag of a rendition, known without rendering it.
+     */
+    public String etag(String assetId, int width, String format) {
+        return "\"" + assetId + "-w" + normalizeWidth(width) + "." + normalizeFormat(format) + "\"";
+    }
+
+    /**
+     * Returns the rendition of an image asset, rendering and caching it if needed.
+     *
+     * @throws ResourceNotFoundException     If the original does not exist.
+     * @throws IllegalArgumentException      If the format is not supported.
+     * @throws ServiceCommunicationException If too many renders are in progress.
+     */
+    public Rendition render(ImageSource source, int width, String format) throws IOException {
+        int targetWidth = normalizeWidth(width);
+        String targetFormat = normalizeFormat(format);
+        String key = source.orgId + "/" + source.productId + "/" + source.assetId + "/w" + targetWidth + "." + targetFormat;
+        FileChannel file = cache.open(key, out -> {
+            acquireRenderPermit();
+            try (InputStream original = openOriginal(source)) {
+                BufferedImage image = imageDecoder.decodeWithin(original, targetWidth, Integer.MAX_VALUE);
+                imageEncoder.encode(image, targetFormat, out);
+            } finally {
+                renderPermits.release();
+            }
+        });
+        return new Rendition(file, ImageEncoder.contentType(targetFormat), etag(source.assetId, width, format));
+    }
+
+    /**
+     * Chooses the smallest stored encoding of a fixed variant that the client accepts.
+     *
+     * @return Empty if the asset has no recorded variant files (e.g. still processing).
+     */
+    public Optional<ImageVariantFile> selectVariant(String orgId, String productId, String assetId, ImageVariant variant, String acceptHeader) {
+        List<ImageVariantFile> files = imageAssetRecordStore.findById(orgId, assetId)
+                .filter(record -> productId.equals(record.getProductId()))
+                .map(ImageAssetRecord::getVariantFiles)
+                .orElse(List.of());
+        return files.stream()
+                .filter(file -> variant.getPrefix().equals(file.getVariant()))
+                .filter(file -> "image/webp".equals(file.getContentType())
+                        ? ImageEncoder.acceptsExplicitly(acceptHeader, file.getContentType())
+                        : ImageEncoder.accepts(acceptHeader, file.getContentType()))
+                .min(Comparator.comparingLong(ImageVariantFile::getSizeBytes));
+    }
+
+    /**
+     * The format to render when the client did not ask for one, from its {@code Accept} header.
+     */
+    public String negotiateFormat(String acceptHeader) {
+        return imageEncoder.negotiate(acceptHeader);
+    }
+
+    private void acquireRenderPermit() throws IOException {
+        try {
+            if (!renderPermits.tryAcquire(renderWait.toMillis(), TimeUnit.MILLISECONDS)) {
+                throw new ServiceCommunicationException("Too many image renders in progress; try again shortly.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting to render an image", e);
+        }
+    }
+
+    private InputStream openOriginal(ImageSource source) {
+        if (source.originalBlobName == null) {
+            source.originalBlobName = findOriginal(source.orgId, source.productId, source.assetId);
+        }
+        BlobId blobId = BlobId.of(bucketName, source.originalBlobName);
+        if (storage.get(blobId, Storage.BlobGetOption.fields(Storage.BlobField.SIZE)) == null) {
+            throw new ResourceNotFoundException("Image " + source.assetId + " not found.");
+        }
+        ReadChannel reader = storage.reader(blobId);
+        reader.setChunkSize(READ_CHUNK_SIZE);
+        return new BufferedInputStream(Channels.newInputStream(reader), READ_CHUNK_SIZE);
+    }
+
+    private String findOriginal(String orgId, String productId, String assetId) {
+        return imageAssetRecordStore.findById(orgId, assetId)
+                .filter(record -> productId.equals(record.getProductId()))
+                .map(ImageAssetRecord::getOriginalBlobName)
+                .orElseGet(() -> findUntrackedOriginal(orgId, productId, assetId));
+    }
+
+    /** Images uploaded before processing state was recorded are located by their path. */
+    private String findUntrackedOriginal(String orgId, String productId, String assetId) {
+        String prefix = String.format("images/%s/%s/%s/original", orgId, productId, assetId);
+        for (Blob blob : storage.list(bucketName, Storage.BlobListOption.prefix(prefix)).iterateAll()) {
+            return blob.getName();
+        }
+        throw new ResourceNotFoundException("Image " + assetId + " not found.");
+    }
+
+    private int normalizeWidth(int width) {
+        int step = Math.max(1, widthStep);
+        int rounded = (int) Math.min((long) maxWidth, ((long) Math.max(width, 1) + step - 1) / step * step);
+        return Math.max(step, rounded);
+    }
+
+    private String normalizeFormat(String format) {
+        String normalized = format == null ? "jpg" : format.toLowerCase(Locale.ROOT);
+        if ("jpeg".equals(normalized)) {
+            normalized = "jpg";
+        }
+        if (!FORMATS.contains(normalized) || ("webp".equals(normalized) && !imageEncoder.isWebpSupported())) {
+            throw new IllegalArgumentException("Unsupported image format: " + format);
+        }
+        return normalized;
+    }
+}
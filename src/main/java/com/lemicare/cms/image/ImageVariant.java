@@ -0,0 +1,33 @@
+package com.lemicare.cms.image;
+
+/**
+ * The resized renditions generated for every product image, largest first.
+ * Each variant is derived from the previous one, so the order matters.
+ */
+public enum ImageVariant {
+    LARGE("large", 1200),
+    MEDIUM("medium", 600),
+    THUMB("thumb", 200);
+
+    private final String prefix;
+    private final int size;
+
+    ImageVariant(String prefix, int size) {
+        this.prefix = prefix;
+        this.size = size;
+    }
+
+    public String getPrefix() {
+        return prefix;
+    }
+
+    /** The bounding box (width and height) the variant is scaled to fit. */
+    public int getSize() {
+        return size;
+    }
+
+    /** Blob name of the variant under an asset's base path, e.g. {@code thumb_200x200.jpg}. */
+    public String blobName(String fileExtension) {
+        return prefix + "_" + size + "x" + size + fileExtension;
+    }
+}
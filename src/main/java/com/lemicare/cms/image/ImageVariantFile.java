@@ -0,0 +1,22 @@
+package com.lemicare.cms.image;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * One encoding of a resized variant, e.g. the WebP thumbnail.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ImageVariantFile {
+
+    private String variant;       // ImageVariant prefix: "thumb", "medium" or "large"
+    private String format;        // "webp", "jpg", "png", ...
+    private String contentType;
+    private String url;
+    private long sizeBytes;
+}
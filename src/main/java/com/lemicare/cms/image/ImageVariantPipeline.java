@@ -0,0 +1,139 @@
+package com.lemicare.cms.image;
+
+import com.google.cloud.storage.BlobInfo;
+import com.google.cloud.storage.Storage;
+import net.coobird.thumbnailator.Thumbnails;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Component;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Generates the resized variants of a stored product image.
+ * <p>
+ * The original is decoded once by the {@link BoundedImageDecoder}, straight into the
+ * largest variant and within the decode pixel budget. Every smaller variant is then scaled
+ * down from the previous one instead of from the full-resolution original, and the
+ * variants are encoded and uploaded in parallel on the image executor.
+ * <p>
+ * Each variant is stored in the original's format, whose URLs go on the {@code ImageAsset},
+ * and additionally as WebP and progressive JPEG where those are smaller alternatives (see
+ * {@link ImageEncoder#alternativeFormats}). A BlurHash and dominant-colour placeholder is
+ * computed from the thumbnail.
+ */
+@Component
+public class ImageVariantPipeline {
+
+    private final Storage storage;
+    private final ThreadPoolTaskExecutor imageExecutor;
+    private final BoundedImageDecoder imageDecoder;
+    private final ImageEncoder imageEncoder;
+
+    @Value("${gcp.storage.bucket-name}")
+    private String bucketName;
+
+    public ImageVariantPipeline(Storage storage, @Qualifier("imageProcessingExecutor") ThreadPoolTaskExecutor imageExecutor,
+                                BoundedImageDecoder imageDecoder, ImageEncoder imageEncoder) {
+        this.storage = storage;
+        this.imageExecutor = imageExecutor;
+        this.imageDecoder = imageDecoder;
+        this.imageEncoder = imageEncoder;
+    }
+
+    /**
+     * Generates and uploads all {@link ImageVariant}s of an image under {@code basePath}.
+     *
+     * @param basePath      Blob prefix of the asset, ending with a slash.
+     * @param fileExtension Extension of the original including the dot; also the main output format of the variants.
+     * @param originalBytes The original image.
+     * @throws IOException If the image cannot be decoded, encoded or uploaded.
+     */
+    public ImageVariantUrls createVariants(String basePath, String fileExtension, byte[] originalBytes) throws IOException {
+        String format = fileExtension.substring(1).toLowerCase(Locale.ROOT);
+
+        Map<ImageVariant, CompletableFuture<ImageVariantFile>> mainUploads = new EnumMap<>(ImageVariant.class);
+        List<CompletableFuture<ImageVariantFile>> uploads = new ArrayList<>();
+        BufferedImage source = null;
+        try {
+            for (ImageVariant variant : ImageVariant.values()) {
+                BufferedImage scaled = source == null
+                        ? imageDecoder.decode(originalBytes, variant.getSize())
+                        : Thumbnails.of(source).size(variant.getSize(), variant.getSize()).asBufferedImage();
+                CompletableFuture<ImageVariantFile> main = encodeAndUpload(variant, scaled, format, basePath + variant.blobName(fileExtension));
+                mainUploads.put(variant, main);
+                uploads.add(main);
+                for (String alternative : imageEncoder.alternativeFormats(format, scaled)) {
+                    uploads.add(encodeAndUpload(variant, scaled, alternative, basePath + variant.blobName("." + alternative)));
+                }
+                source = scaled;
+            }
+            // Computed from the smallest variant, which is the last one
+            ImagePlaceholder placeholder = ImagePlaceholder.of(source);
+
+            List<ImageVariantFile> files = new ArrayList<>(uploads.size());
+            for (CompletableFuture<ImageVariantFile> upload : uploads) {
+                files.add(await(upload));
+            }
+            return new ImageVariantUrls(
+                    await(mainUploads.get(ImageVariant.THUMB)).getUrl(),
+                    await(mainUploads.get(ImageVariant.MEDIUM)).getUrl(),
+                    await(mainUploads.get(ImageVariant.LARGE)).getUrl(),
+                    files,
+                    placeholder);
+        } catch (IOException | RuntimeException e) {
+            uploads.forEach(upload -> upload.cancel(false));
+            throw e;
+        }
+    }
+
+    private CompletableFuture<ImageVariantFile> encodeAndUpload(ImageVariant variant, BufferedImage image, String format, String blobName) {
+        return CompletableFuture.supplyAsync(() -> {
+            byte[] bytes;
+            try {
+                bytes = imageEncoder.encode(image, format);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            String contentType = ImageEncoder.contentType(format);
+            return ImageVariantFile.builder()
+                    .variant(variant.getPrefix())
+                    .format(format.equals("jpeg") ? "jpg" : format)
+                    .contentType(contentType)
+                    .url(upload(blobName, contentType, bytes))
+                    .sizeBytes(bytes.length)
+                    .build();
+        }, imageExecutor);
+    }
+
+    private String upload(String blobName, String contentType, byte[] bytes) {
+        BlobInfo blobInfo = storage.create(
+                BlobInfo.newBuilder(bucketName, blobName).setContentType(contentType).build(),
+                bytes);
+        return blobInfo.getMediaLink();
+    }
+
+    private static ImageVariantFile await(CompletableFuture<ImageVariantFile> upload) throws IOException {
+        try {
+            return upload.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof UncheckedIOException io) {
+                throw io.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException runtime) {
+                throw runtime;
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+}
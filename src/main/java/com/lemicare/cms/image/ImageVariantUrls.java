@@ -0,0 +1,16 @@
+package com.lemicare.cms.image;
+
+import java.util.List;
+
+/**
+ * Public URLs of the resized variants of an uploaded image.
+ *
+ * @param thumbnailUrl The thumbnail in the original's format, as set on the {@code ImageAsset}.
+ * @param mediumUrl    The medium variant in the original's format.
+ * @param largeUrl     The large variant in the original's format.
+ * @param files        Every encoding of every variant, including the ones above.
+ * @param placeholder  Preview to show while the image loads; may be {@code null}.
+ */
+public record ImageVariantUrls(String thumbnailUrl, String mediumUrl, String largeUrl, List<ImageVariantFile> files,
+                               ImagePlaceholder placeholder) {
+}
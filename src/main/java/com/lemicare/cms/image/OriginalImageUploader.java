@@ -0,0 +1,163 @@
+package com.lemicare.cms.image;
+
+import com.google.cloud.WriteChannel;
+import com.google.cloud.storage.Blob;
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.BlobInfo;
+import com.google.cloud.storage.Storage;
+import com.lemicare.cms.exception.ImageTooLargeException;
+import lombok.RequiredArgsConstructor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+/**
+ * Streams an uploaded original into Cloud Storage through a resumable upload, touching
+ * each byte once.
+ * <p>
+ * The first {@code probe-bytes} are buffered and handed to the {@link BoundedImageDecoder}
+ * header probe, so unsupported or oversized images are rejected before anything is stored.
+ * The rest is copied chunk by chunk into the upload channel while it is hashed, and kept
+ * for the variant job only if the whole file fits in {@code inline-bytes-limit}. Peak heap
+ * per upload is therefore bounded by the larger of the two limits plus the upload chunk.
+ */
+@Component
+@RequiredArgsConstructor
+public class OriginalImageUploader {
+    private static final Logger log = LoggerFactory.getLogger(OriginalImageUploader.class);
+
+    private static final int COPY_BUFFER_BYTES = 64 * 1024;
+
+    private final Storage storage;
+    private final BoundedImageDecoder imageDecoder;
+
+    @Value("${gcp.storage.bucket-name}")
+    private String bucketName;
+
+    @Value("${app.images.upload.chunk-size:8MB}")
+    private DataSize chunkSize;
+
+    @Value("${app.images.upload.probe-bytes:256KB}")
+    private DataSize probeBytes;
+
+    @Value("${app.images.jobs.inline-bytes-limit:4MB}")
+    private DataSize inlineBytesLimit;
+
+    /**
+     * Stores {@code input} as {@code original<ext>} under {@code basePath}. The stream is
+     * read to the end but not closed.
+     *
+     * @throws IllegalArgumentException If the content is not a supported image.
+     * @throws ImageTooLargeException   If the image has too many pixels.
+     */
+    public StoredOriginal upload(String basePath, String fileExtension, String contentType, InputStream input) throws IOException {
+        byte[] head = input.readNBytes((int) probeBytes.toBytes());
+        if (head.length == 0) {
+            throw new IllegalArgumentException("Image file cannot be empty.");
+        }
+        probe(head);
+
+        String blobName = basePath + "original" + fileExtension;
+        BlobInfo blobInfo = BlobInfo.newBuilder(bucketName, blobName).setContentType(contentType).build();
+        MessageDigest digest = sha256();
+        long limit = inlineBytesLimit.toBytes();
+        ByteArrayOutputStream inline = new ByteArrayOutputStream(head.length);
+        long size = 0;
+
+        WriteChannel channel = storage.writer(blobInfo);
+        channel.setChunkSize((int) chunkSize.toBytes());
+        // The channel is only closed on success: closing finalizes the resumable upload, so an
+        // aborted upload must be abandoned instead, leaving no partial object behind.
+        size += copy(head, head.length, channel, digest, inline, size, limit);
+        byte[] buffer = new byte[COPY_BUFFER_BYTES];
+        int read;
+        while ((read = input.read(buffer)) != -1) {
+            size += copy(buffer, read, channel, digest, inline, size, limit);
+        }
+        channel.close();
+
+        Blob blob = storage.get(BlobId.of(bucketName, blobName));
+        String mediaLink = blob != null ? blob.getMediaLink() : null;
+        log.debug("Stored original {} ({} bytes)", blobName, size);
+        return new StoredOriginal(blobName, mediaLink, HexFormat.of().formatHex(digest.digest()), size,
+                size <= limit ? inline.toByteArray() : null);
+    }
+
+    /**
+     * Reads back an original that a client uploaded directly to Cloud Storage, validating
+     * and hashing it the same way as {@link #upload}. An object that is not a supported
+     * image, or is too large, is deleted before the exception is thrown.
+     */
+    public StoredOriginal inspect(Blob blob) throws IOException {
+        MessageDigest digest = sha256();
+        long limit = inlineBytesLimit.toBytes();
+        ByteArrayOutputStream inline = new ByteArrayOutputStream();
+        long size = 0;
+        try (InputStream in = Channels.newInputStream(storage.reader(blob.getBlobId()))) {
+            byte[] head = in.readNBytes((int) probeBytes.toBytes());
+            if (head.length == 0) {
+                throw new IllegalArgumentException("Image file cannot be empty.");
+            }
+            probe(head);
+            size += copy(head, head.length, null, digest, inline, size, limit);
+            byte[] buffer = new byte[COPY_BUFFER_BYTES];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                size += copy(buffer, read, null, digest, inline, size, limit);
+            }
+        } catch (IllegalArgumentException | ImageTooLargeException e) {
+            storage.delete(blob.getBlobId());
+            throw e;
+        }
+        log.debug("Inspected directly uploaded original {} ({} bytes)", blob.getName(), size);
+        return new StoredOriginal(blob.getName(), blob.getMediaLink(), HexFormat.of().formatHex(digest.digest()), size,
+                size <= limit ? inline.toByteArray() : null);
+    }
+
+    private void probe(byte[] head) {
+        try {
+            imageDecoder.probe(new ByteArrayInputStream(head));
+        } catch (IOException e) {
+            // Header is longer than the probe window (e.g. a large EXIF block); the variant
+            // job checks the dimensions again when it decodes the image.
+            log.debug("Could not read image dimensions from the first {} bytes: {}", head.length, e.getMessage());
+        }
+    }
+
+    private static long copy(byte[] bytes, int length, WriteChannel channel, MessageDigest digest,
+                             ByteArrayOutputStream inline, long sizeSoFar, long inlineLimit) throws IOException {
+        digest.update(bytes, 0, length);
+        if (sizeSoFar + length <= inlineLimit) {
+            inline.write(bytes, 0, length);
+        } else if (inline.size() > 0) {
+            inline.reset(); // Too large to keep; release what was buffered so far
+        }
+        if (channel != null) {
+            ByteBuffer chunk = ByteBuffer.wrap(bytes, 0, length);
+            while (chunk.hasRemaining()) {
+                channel.write(chunk);
+            }
+        }
+        return length;
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package com.lemicare.cms.image;
+
+/**
+ * An original image as stored in Cloud Storage.
+ *
+ * @param blobName     Name of the object in the bucket.
+ * @param mediaLink    Public URL of the stored object.
+ * @param sha256       Hex-encoded SHA-256 of the content.
+ * @param sizeBytes    Content length.
+ * @param inlineBytes  The content, if it was small enough to keep in memory for the variant
+ *                     job; {@code null} otherwise.
+ */
+public record StoredOriginal(String blobName, String mediaLink, String sha256, long sizeBytes, byte[] inlineBytes) {
+}
@@ -0,0 +1,133 @@
+package com.lemicare.cms.integration.client;
+
+import com.lemicare.cms.dto.response.MedicineStockDetailResponse;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+
+/**
+ * Single-flight front for {@link InventoryService#getPublicMedicineDetails(String)}.
+ * <p>
+ * Concurrent lookups for the same (organization, medicine) share one in-flight Feign
+ * call, and completed results are reused for a short, configurable TTL. A product going
+ * viral therefore costs the inventory service one call per TTL window instead of one
+ * call per page view.
+ */
+@Component
+public class InventoryStockDetailLookup {
+    private static final Logger log = LoggerFactory.getLogger(InventoryStockDetailLookup.class);
+
+    private final InventoryService inventoryService;
+    private final ConcurrentMap<LookupKey, CompletableFuture<MedicineStockDetailResponse>> inFlight = new ConcurrentHashMap<>();
+    private final ConcurrentMap<LookupKey, RecentResult> recentResults = new ConcurrentHashMap<>();
+
+    private final Counter downstreamCalls;
+    private final Counter coalescedCalls;
+    private final Counter cacheHits;
+
+    @Value("${app.inventory.stock-detail.result-ttl:2s}")
+    private Duration resultTtl;
+
+    @Value("${app.inventory.stock-detail.max-cached-results:10000}")
+    private int maxCachedResults;
+
+    public InventoryStockDetailLookup(InventoryService inventoryService, MeterRegistry meterRegistry) {
+        this.inventoryService = inventoryService;
+        this.downstreamCalls = Counter.builder("cms.inventory.stock_detail.lookups")
+                .description("Stock detail lookups by how they were served")
+                .tag("outcome", "downstream")
+                .register(meterRegistry);
+        this.coalescedCalls = Counter.builder("cms.inventory.stock_detail.lookups")
+                .description("Stock detail lookups by how they were served")
+                .tag("outcome", "coalesced")
+                .register(meterRegistry);
+        this.cacheHits = Counter.builder("cms.inventory.stock_detail.lookups")
+                .description("Stock detail lookups by how they were served")
+                .tag("outcome", "cache_hit")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Returns the stock detail for a medicine, joining an identical in-flight call if one
+     * exists. Each caller receives its own future, so cancelling it (e.g. on a deadline)
+     * never affects the other callers sharing the call.
+     *
+     * @param orgId      The organization the lookup is made for.
+     * @param medicineId The medicine (storefront product) ID.
+     * @param executor   The executor that runs the downstream call if this caller leads it.
+     */
+    public CompletableFuture<MedicineStockDetailResponse> lookup(String orgId, String medicineId, Executor executor) {
+        LookupKey key = new LookupKey(orgId, medicineId);
+
+        RecentResult recent = recentResults.get(key);
+        if (recent != null && !recent.isExpired()) {
+            cacheHits.increment();
+            return CompletableFuture.completedFuture(recent.response());
+        }
+
+        CompletableFuture<MedicineStockDetailResponse> call = new CompletableFuture<>();
+        CompletableFuture<MedicineStockDetailResponse> existing = inFlight.putIfAbsent(key, call);
+        if (existing != null) {
+            coalescedCalls.increment();
+            return existing.copy();
+        }
+
+        downstreamCalls.increment();
+        try {
+            executor.execute(() -> {
+                try {
+                    MedicineStockDetailResponse response = inventoryService.getPublicMedicineDetails(medicineId);
+                    remember(key, response);
+                    call.complete(response);
+                } catch (Throwable t) {
+                    call.completeExceptionally(t);
+                } finally {
+                    inFlight.remove(key, call);
+                }
+            });
+        } catch (RuntimeException e) {
+            inFlight.remove(key, call);
+            call.completeExceptionally(e);
+        }
+        return call.copy();
+    }
+
+    /**
+     * Drops any cached result for the medicine, e.g. after a stock change notification.
+     */
+    public void evict(String orgId, String medicineId) {
+        recentResults.remove(new LookupKey(orgId, medicineId));
+    }
+
+    private void remember(LookupKey key, MedicineStockDetailResponse response) {
+        if (resultTtl.isZero() || resultTtl.isNegative()) {
+            return;
+        }
+        if (recentResults.size() >= maxCachedResults) {
+            recentResults.values().removeIf(RecentResult::isExpired);
+            if (recentResults.size() >= maxCachedResults) {
+                log.debug("Stock detail result cache full ({} entries); clearing", recentResults.size());
+                recentResults.clear();
+            }
+        }
+        recentResults.put(key, new RecentResult(response, System.nanoTime() + resultTtl.toNanos()));
+    }
+
+    private record LookupKey(String orgId, String medicineId) {
+    }
+
+    private record RecentResult(MedicineStockDetailResponse response, long expiresAtNanos) {
+        boolean isExpired() {
+            return System.nanoTime() - expiresAtNanos > 0;
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package com.lemicare.cms.service;
+
+import com.cosmicdoc.common.model.Branch;
+import com.lemicare.cms.cache.BranchCache;
+import com.lemicare.cms.exception.ResourceNotFoundException;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Fulfils every order from the organization's first branch, read from {@link BranchCache}.
+ */
+@Component
+@RequiredArgsConstructor
+public class DefaultFulfillingBranchResolver implements FulfillingBranchResolver {
+
+    private final BranchCache branchCache;
+
+    @Override
+    public Branch resolve(String orgId, Map<String, String> shippingAddress) {
+        List<Branch> branches = branchCache.getBranches(orgId);
+        if (branches.isEmpty()) {
+            throw new ResourceNotFoundException("No branch configured for organization " + orgId + ".");
+        }
+        return branches.get(0);
+    }
+}
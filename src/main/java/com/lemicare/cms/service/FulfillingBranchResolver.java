@@ -0,0 +1,23 @@
+package com.lemicare.cms.service;
+
+import com.cosmicdoc.common.model.Branch;
+
+import java.util.Map;
+
+/**
+ * Decides which branch fulfils (and supplies stock for) storefront orders.
+ * <p>
+ * The default implementation picks the organization's first branch. To route by
+ * shipping address or customer preference, register another implementation as a
+ * {@code @Primary} bean.
+ */
+public interface FulfillingBranchResolver {
+
+    /**
+     * @param orgId           The organization whose store is being served.
+     * @param shippingAddress The customer's shipping address, or {@code null} when no
+     *                        order is involved (e.g. when showing stock on listings).
+     * @return The branch that fulfils the order.
+     */
+    Branch resolve(String orgId, Map<String, String> shippingAddress);
+}
@@ -0,0 +1,504 @@
+package com.lemicare.cms.service;
+
+import com.cosmicdoc.common.model.ImageAsset;
+import com.cosmicdoc.common.model.StorefrontProduct;
+import com.google.api.core.ApiFuture;
+import com.google.api.gax.paging.Page;
+import com.google.cloud.Timestamp;
+import com.google.cloud.firestore.DocumentReference;
+import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.QueryDocumentSnapshot;
+import com.google.cloud.storage.Blob;
+import com.google.cloud.storage.Storage;
+import com.lemicare.cms.exception.ServiceCommunicationException;
+import com.lemicare.cms.firestore.ImageAssetRecordStore;
+import com.lemicare.cms.firestore.ImageContentIndex;
+import com.lemicare.cms.firestore.StorefrontFirestorePaths;
+import com.lemicare.cms.image.GcsBlobDeleter;
+import com.lemicare.cms.image.ImageAssetRecord;
+import com.lemicare.cms.image.ImageContentEntry;
+import com.lemicare.cms.image.ImageGcRun;
+import com.lemicare.cms.image.ImageProcessingJobs;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Mark-and-sweep collection of image blobs that no product references anymore, e.g. left
+ * behind when a product save failed after its originals were stored, by uploads that were
+ * never finalized, or by deletions dropped at shutdown.
+ * <p>
+ * The bucket's {@code images/} listing is streamed page by page. Blob names are ordered,
+ * so one organization is swept at a time: when the listing reaches an organization, its
+ * referenced blob prefixes are marked from the products and image records, abandoned
+ * {@code temp-} products and records of assets no product shows are released, and every
+ * unreferenced blob older than {@code grace-period} is handed to the {@link GcsBlobDeleter}
+ * at no more than {@code deletes-per-second}.
+ * <p>
+ * Progress is saved after each page in a shared document guarded by a lease, so only one
+ * instance collects at a time and an interrupted run resumes where it stopped. Dry runs
+ * only report what they would delete.
+ */
+@Service
+public class ImageGarbageCollector {
+    private static final Logger log = LoggerFactory.getLogger(ImageGarbageCollector.class);
+
+    private static final String IMAGES_PREFIX = "images/";
+    private static final String TEMP_PRODUCT_PREFIX = "temp-";
+
+    private final Storage storage;
+    private final Firestore firestore;
+    private final StorefrontFirestorePaths paths;
+    private final ImageAssetRecordStore imageAssetRecordStore;
+    private final ImageContentIndex imageContentIndex;
+    private final ImageProcessingJobs imageProcessingJobs;
+    private final GcsBlobDeleter gcsBlobDeleter;
+    private final StorefrontService storefrontService;
+    private final ScheduledThreadPoolExecutor worker;
+    private final AtomicBoolean running = new AtomicBoolean();
+    private final String instanceId = UUID.randomUUID().toString();
+    private final Counter orphanedBlobs;
+    private final Counter deletedTempProducts;
+
+    // Only touched by the worker thread
+    private long nextDeleteNanos;
+
+    @Value("${gcp.storage.bucket-name}")
+    private String bucketName;
+
+    @Value("${app.images.gc.enabled:true}")
+    private boolean enabled;
+
+    @Value("${app.images.gc.dry-run:true}")
+    private boolean defaultDryRun;
+
+    @Value("${app.images.gc.interval:24h}")
+    private Duration interval;
+
+    @Value("${app.images.gc.initial-delay:1h}")
+    private Duration initialDelay;
+
+    @Value("${app.images.gc.grace-period:24h}")
+    private Duration gracePeriod;
+
+    @Value("${app.images.gc.temp-product-max-age:7d}")
+    private Duration tempProductMaxAge;
+
+    @Value("${app.images.gc.page-size:1000}")
+    private int pageSize;
+
+    @Value("${app.images.gc.delete-batch-size:100}")
+    private int deleteBatchSize;
+
+    @Value("${app.images.gc.deletes-per-second:50}")
+    private int deletesPerSecond;
+
+    @Value("${app.images.gc.lease:10m}")
+    private Duration leaseDuration;
+
+    @Value("${app.images.gc.report-sample-size:100}")
+    private int reportSampleSize;
+
+    public ImageGarbageCollector(Storage storage, Firestore firestore, StorefrontFirestorePaths paths,
+                                 ImageAssetRecordStore imageAssetRecordStore, ImageContentIndex imageContentIndex,
+                                 ImageProcessingJobs imageProcessingJobs, GcsBlobDeleter gcsBlobDeleter,
+                                 StorefrontService storefrontService, MeterRegistry meterRegistry) {
+        this.storage = storage;
+        this.firestore = firestore;
+        this.paths = paths;
+        this.imageAssetRecordStore = imageAssetRecordStore;
+        this.imageContentIndex = imageContentIndex;
+        this.imageProcessingJobs = imageProcessingJobs;
+        this.gcsBlobDeleter = gcsBlobDeleter;
+        this.storefrontService = storefrontService;
+        this.worker = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "image-gc");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.worker.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        this.orphanedBlobs = Counter.builder("cms.images.gc.orphaned_blobs")
+                .description("Unreferenced image blobs found by the garbage collector (deleted unless dry-run)")
+                .register(meterRegistry);
+        this.deletedTempProducts = Counter.builder("cms.images.gc.temp_products_deleted")
+                .description("Abandoned temp- products deleted by the garbage collector")
+                .register(meterRegistry);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void scheduleRuns() {
+        if (!enabled) {
+            log.info("Image garbage collection is disabled");
+            return;
+        }
+        worker.scheduleWithFixedDelay(() -> collect(defaultDryRun, false),
+                initialDelay.toMillis(), interval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Starts a new run in the background, discarding the progress of an unfinished one.
+     *
+     * @return {@code false} if a run is in progress on this or another instance.
+     */
+    public boolean start(boolean dryRun) {
+        if (running.get() || lastRun().filter(this::leasedElsewhere).isPresent()) {
+            return false;
+        }
+        worker.execute(() -> collect(dryRun, true));
+        return true;
+    }
+
+    /**
+     * The report of the current or most recent run.
+     */
+    public Optional<ImageGcRun> lastRun() {
+        DocumentSnapshot snapshot = await(paths.imageGcState().get(), "read the image garbage collection state");
+        return snapshot.exists() ? Optional.ofNullable(snapshot.toObject(ImageGcRun.class)) : Optional.empty();
+    }
+
+    private void collect(boolean dryRun, boolean restart) {
+        if (!running.compareAndSet(false, true)) {
+            return;
+        }
+        ImageGcRun run = null;
+        try {
+            run = acquire(dryRun, restart);
+            if (run != null) {
+                sweep(run);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.info("Image garbage collection interrupted; it resumes from the last saved page");
+        } catch (RuntimeException e) {
+            // Scheduled runs must not throw, or no further run would be scheduled.
+            log.warn("Image garbage collection failed: {}", e.getMessage(), e);
+            if (run != null) {
+                run.setLastError(e.getMessage());
+                saveQuietly(run);
+            }
+        } finally {
+            running.set(false);
+        }
+    }
+
+    /**
+     * Takes the lease on the shared state, resuming an unfinished run or starting a new one.
+     *
+     * @return {@code null} if another instance holds the lease, or a scheduled run finished
+     * less than {@code interval} ago.
+     */
+    private ImageGcRun acquire(boolean dryRun, boolean restart) {
+        DocumentReference ref = paths.imageGcState();
+        return await(firestore.runTransaction(transaction -> {
+            DocumentSnapshot snapshot = transaction.get(ref).get();
+            ImageGcRun run = snapshot.exists() ? snapshot.toObject(ImageGcRun.class) : null;
+            Timestamp now = Timestamp.now();
+            if (run != null && leasedElsewhere(run)) {
+                return null;
+            }
+            if (!restart && run != null && run.getFinishedAt() != null
+                    && run.getFinishedAt().toDate().toInstant().plus(interval).isAfter(now.toDate().toInstant())) {
+                return null; // Another instance already collected in this interval
+            }
+            if (restart || run == null || run.getFinishedAt() != null) {
+                run = ImageGcRun.builder()
+                        .runId(UUID.randomUUID().toString())
+                        .dryRun(dryRun)
+                        .startedAt(now)
+                        .build();
+            }
+            run.setOwner(instanceId);
+            run.setLeaseExpiresAt(plus(now, leaseDuration));
+            run.setUpdatedAt(now);
+            transaction.set(ref, run);
+            return run;
+        }), "acquire the image garbage collection lease");
+    }
+
+    private boolean leasedElsewhere(ImageGcRun run) {
+        return run.getFinishedAt() == null
+                && !instanceId.equals(run.getOwner())
+                && run.getLeaseExpiresAt() != null
+                && run.getLeaseExpiresAt().compareTo(Timestamp.now()) > 0;
+    }
+
+    private void sweep(ImageGcRun run) throws InterruptedException {
+        log.info("{} image garbage collection run {}{}", run.getPageToken() == null ? "Starting" : "Resuming",
+                run.getRunId(), run.isDryRun() ? " (dry run)" : "");
+        List<Storage.BlobListOption> options = new ArrayList<>(List.of(
+                Storage.BlobListOption.prefix(IMAGES_PREFIX),
+                Storage.BlobListOption.pageSize(pageSize),
+                Storage.BlobListOption.fields(Storage.BlobField.NAME, Storage.BlobField.SIZE, Storage.BlobField.TIME_CREATED)));
+        if (run.getPageToken() != null) {
+            options.add(Storage.BlobListOption.pageToken(run.getPageToken()));
+        }
+        Page<Blob> page = storage.list(bucketName, options.toArray(new Storage.BlobListOption[0]));
+        OrganizationMark mark = null;
+        while (true) {
+            List<String> orphans = new ArrayList<>();
+            for (Blob blob : page.getValues()) {
+                // images/{orgId}/{productId}/{assetId}/{file}
+                String[] segments = blob.getName().split("/", 5);
+                if (segments.length < 5) {
+                    continue;
+                }
+                if (mark == null || !mark.orgId.equals(segments[1])) {
+                    mark = mark(run, segments[1]);
+                }
+                run.setBlobsScanned(run.getBlobsScanned() + 1);
+                String prefix = String.join("/", segments[0], segments[1], segments[2], segments[3]) + "/";
+                if (isOrphan(run, mark, prefix, blob)) {
+                    orphans.add(blob.getName());
+                    run.setOrphanedBlobs(run.getOrphanedBlobs() + 1);
+                    run.setOrphanedBytes(run.getOrphanedBytes() + (blob.getSize() != null ? blob.getSize() : 0));
+                    sample(run.getSampleOrphans(), blob.getName());
+                    orphanedBlobs.increment();
+                }
+            }
+            if (!run.isDryRun()) {
+                delete(orphans);
+            }
+            run.setPageToken(page.getNextPageToken());
+            if (!page.hasNextPage()) {
+                break;
+            }
+            save(run);
+            page = page.getNextPage();
+        }
+        run.setPageToken(null);
+        run.setFinishedAt(Timestamp.now());
+        save(run);
+        log.info("Image garbage collection run {} finished: {} of {} blobs unreferenced ({} bytes), {} stale records, {} stale temp products{}",
+                run.getRunId(), run.getOrphanedBlobs(), run.getBlobsScanned(), run.getOrphanedBytes(),
+                run.getStaleRecords(), run.getStaleTempProducts(), run.isDryRun() ? " (dry run, nothing deleted)" : "");
+    }
+
+    /**
+     * Marks the blob prefixes referenced by an organization's products, and releases what
+     * its abandoned temp products and stale image records hold.
+     */
+    private OrganizationMark mark(ImageGcRun run, String orgId) {
+        Instant markedAt = Instant.now();
+        OrganizationMark mark = new OrganizationMark(orgId, markedAt.minus(gracePeriod));
+        run.setOrganizationsScanned(run.getOrganizationsScanned() + 1);
+
+        Map<String, ImageAssetRecord> records = new HashMap<>();
+        for (ImageAssetRecord record : imageAssetRecordStore.findAll(orgId)) {
+            records.put(record.getAssetId(), record);
+        }
+        Set<String> liveReferences = new HashSet<>();
+        List<String> staleTempProducts = new ArrayList<>();
+        for (QueryDocumentSnapshot document : await(paths.products(orgId).get(), "list products of " + orgId).getDocuments()) {
+            StorefrontProduct product = document.toObject(StorefrontProduct.class);
+            String productId = document.getId();
+            boolean staleTempProduct = isStaleTempProduct(productId, product, markedAt);
+            if (staleTempProduct) {
+                staleTempProducts.add(productId);
+            }
+            for (ImageAsset image : product.getImages() != null ? product.getImages() : List.<ImageAsset>of()) {
+                String ownPath = ownPath(orgId, productId, image.getAssetId());
+                ImageAssetRecord record = records.get(image.getAssetId());
+                String basePath = record != null && productId.equals(record.getProductId()) ? record.getBasePath() : null;
+                if (staleTempProduct) {
+                    mark.released.add(ownPath);
+                    if (basePath != null) {
+                        mark.released.add(basePath);
+                    }
+                } else {
+                    liveReferences.add(ImageContentEntry.reference(productId, image.getAssetId()));
+                    mark.referenced.add(ownPath);
+                    if (basePath != null) {
+                        mark.referenced.add(basePath); // Shared content lives under the first uploader's path
+                    }
+                }
+            }
+        }
+
+        for (String productId : staleTempProducts) {
+            run.setStaleTempProducts(run.getStaleTempProducts() + 1);
+            sample(run.getSampleTempProducts(), orgId + "/" + productId);
+            if (!run.isDryRun()) {
+                try {
+                    storefrontService.deleteProduct(orgId, productId); // Also releases its images
+                    deletedTempProducts.increment();
+                } catch (RuntimeException e) {
+                    log.warn("Could not delete temp product {} of org {}: {}", productId, orgId, e.getMessage());
+                }
+            }
+        }
+
+        Set<String> tempProducts = new HashSet<>(staleTempProducts);
+        for (ImageAssetRecord record : records.values()) {
+            if (liveReferences.contains(ImageContentEntry.reference(record.getProductId(), record.getAssetId()))
+                    || tempProducts.contains(record.getProductId())
+                    || (record.getUpdatedAt() != null && !record.getUpdatedAt().toDate().toInstant().isBefore(mark.cutoff))) {
+                continue;
+            }
+            run.setStaleRecords(run.getStaleRecords() + 1);
+            if (run.isDryRun()) {
+                mark.released.add(ownPath(orgId, record.getProductId(), record.getAssetId()));
+                continue;
+            }
+            try {
+                imageProcessingJobs.release(orgId, record.getProductId(), record.getAssetId()).ifPresent(path -> {
+                    mark.released.add(path);
+                    gcsBlobDeleter.deletePrefixes(List.of(path));
+                });
+            } catch (RuntimeException e) {
+                log.warn("Could not release image {} of org {}: {}", record.getAssetId(), orgId, e.getMessage());
+            }
+        }
+
+        for (ImageContentEntry entry : imageContentIndex.findAll(orgId)) {
+            if (entry.getBasePath() != null && !mark.referenced.contains(entry.getBasePath())) {
+                mark.unreferencedContent.put(entry.getBasePath(), entry.getSha256());
+            }
+        }
+        return mark;
+    }
+
+    private boolean isOrphan(ImageGcRun run, OrganizationMark mark, String prefix, Blob blob) {
+        if (mark.referenced.contains(prefix) || mark.released.contains(prefix)) {
+            return false; // Released blobs are already being deleted
+        }
+        Long createdAt = blob.getCreateTime();
+        if (createdAt == null || createdAt >= mark.cutoff.toEpochMilli()) {
+            return false; // May belong to an upload whose product has not been saved yet
+        }
+        String sha256 = mark.unreferencedContent.get(prefix);
+        if (sha256 == null) {
+            return true;
+        }
+        // The index entry goes first, so a later upload of the same content stores new blobs.
+        return mark.contentDeleted.computeIfAbsent(prefix, p -> run.isDryRun()
+                || imageContentIndex.deleteIfUnchangedSince(mark.orgId, sha256, timestamp(mark.cutoff)));
+    }
+
+    private static boolean isStaleTempProduct(String productId, StorefrontProduct product, Instant now) {
+        if (!productId.startsWith(TEMP_PRODUCT_PREFIX) || product.isVisible()) {
+            return false;
+        }
+        try {
+            long createdAt = Long.parseLong(productId.substring(TEMP_PRODUCT_PREFIX.length()));
+            return Instant.ofEpochMilli(createdAt).isBefore(now.minus(tempProductMaxAge));
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Hands blobs to the deleter in batches, no faster than {@code deletes-per-second}.
+     */
+    private void delete(List<String> blobNames) throws InterruptedException {
+        for (int from = 0; from < blobNames.size(); from += deleteBatchSize) {
+            List<String> batch = blobNames.subList(from, Math.min(from + deleteBatchSize, blobNames.size()));
+            long now = System.nanoTime();
+            if (nextDeleteNanos > now) {
+                TimeUnit.NANOSECONDS.sleep(nextDeleteNanos - now);
+            }
+            nextDeleteNanos = Math.max(now, nextDeleteNanos) + TimeUnit.SECONDS.toNanos(batch.size()) / Math.max(1, deletesPerSecond);
+            gcsBlobDeleter.deleteBlobs(batch);
+        }
+    }
+
+    /**
+     * Saves the progress and renews the lease.
+     *
+     * @throws IllegalStateException If another instance took over the lease.
+     */
+    private void save(ImageGcRun run) {
+        DocumentReference ref = paths.imageGcState();
+        await(firestore.runTransaction(transaction -> {
+            DocumentSnapshot snapshot = transaction.get(ref).get();
+            if (snapshot.exists() && !instanceId.equals(snapshot.getString("owner"))) {
+                throw new IllegalStateException("Lost the image garbage collection lease");
+            }
+            Timestamp now = Timestamp.now();
+            run.setLeaseExpiresAt(plus(now, leaseDuration));
+            run.setUpdatedAt(now);
+            transaction.set(ref, run);
+            return null;
+        }), "save image garbage collection progress");
+    }
+
+    private void saveQuietly(ImageGcRun run) {
+        try {
+            save(run);
+        } catch (RuntimeException e) {
+            log.warn("Could not save image garbage collection state: {}", e.getMessage());
+        }
+    }
+
+    private void sample(List<String> samples, String value) {
+        if (samples.size() < reportSampleSize) {
+            samples.add(value);
+        }
+    }
+
+    private static String ownPath(String orgId, String productId, String assetId) {
+        return String.format("images/%s/%s/%s/", orgId, productId, assetId);
+    }
+
+    private static Timestamp plus(Timestamp timestamp, Duration duration) {
+        return timestamp(timestamp.toDate().toInstant().plus(duration));
+    }
+
+    private static Timestamp timestamp(Instant instant) {
+        return Timestamp.ofTimeSecondsAndNanos(instant.getEpochSecond(), instant.getNano());
+    }
+
+    private static <T> T await(ApiFuture<T> future, String operation) {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            throw new ServiceCommunicationException("Failed to " + operation + ".", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ServiceCommunicationException("Interrupted while trying to " + operation + ".", e);
+        }
+    }
+
+    @PreDestroy
+    void shutdown() throws InterruptedException {
+        // The lease expires on its own; another instance resumes from the last saved page.
+        worker.shutdownNow();
+        worker.awaitTermination(30, TimeUnit.SECONDS);
+    }
+
+    /** What is referenced in one organization, as of the time it was marked. */
+    private static final class OrganizationMark {
+        private final String orgId;
+        private final Instant cutoff;                    // Blobs created after this are never collected
+        private final Set<String> referenced = new HashSet<>();
+        private final Set<String> released = new HashSet<>();
+        private final Map<String, String> unreferencedContent = new HashMap<>(); // basePath -> sha256
+        private final Map<String, Boolean> contentDeleted = new HashMap<>();
+
+        private OrganizationMark(String orgId, Instant cutoff) {
+            this.orgId = orgId;
+            this.cutoff = cutoff;
+        }
+    }
+}
@@ -8,33 +8,58 @@ import com.cosmicdoc.common.util.IdGenerator;
 import com.google.api.client.util.Strings;
 import com.google.cloud.Timestamp;
 import com.google.cloud.storage.*;
+import com.lemicare.cms.cache.CatalogSnapshotCache;
+import com.lemicare.cms.cache.ImagePlaceholderCache;
+import com.lemicare.cms.firestore.BatchReadResult;
+import com.lemicare.cms.firestore.CatalogChangeListener;
+import com.lemicare.cms.firestore.StorefrontProductBatchReader;
 import com.lemicare.cms.exception.InventoryClientException;
 import com.lemicare.cms.exception.ResourceNotFoundException;
+import com.lemicare.cms.exception.ServiceCommunicationException;
 import com.lemicare.cms.dto.request.*;
 import com.lemicare.cms.dto.response.*;
+import com.lemicare.cms.image.ImageAssetRecord;
+import com.lemicare.cms.image.DirectImageUploads;
+import com.lemicare.cms.image.ImagePlaceholder;
+import com.lemicare.cms.image.GcsBlobDeleter;
+import com.lemicare.cms.image.ImageProcessingJobs;
+import com.lemicare.cms.image.OriginalImageUploader;
+import com.lemicare.cms.image.StoredOriginal;
 import com.lemicare.cms.integration.client.InventoryService;
 import com.lemicare.cms.integration.client.InventoryServiceClient;
+import com.lemicare.cms.integration.client.InventoryStockDetailLookup;
 import com.lemicare.cms.integration.client.PaymentServiceClient;
+import com.lemicare.cms.stock.StockProjection;
+import com.lemicare.cms.stock.StockUpdate;
+import com.lemicare.cms.stock.StockUpdateWriter;
 import feign.FeignException;
 import lombok.RequiredArgsConstructor;
-import net.coobird.thumbnailator.Thumbnails;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.math.BigDecimal;
 import java.math.RoundingMode;
+import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
-import com.google.cloud.storage.Blob;
 import com.google.cloud.storage.Storage;
 
 
@@ -52,19 +77,30 @@ public class StorefrontService {
     private final TaxProfileRepository taxProfileRepository;
     private final BranchRepository branchRepository;
     private final InventoryService inventoryService;
-    private static final Map<String, String> IMAGE_FORMAT_MAP = new HashMap<>();
-
-    static {
-        IMAGE_FORMAT_MAP.put(".jpg", "image/jpeg");
-        IMAGE_FORMAT_MAP.put(".jpeg", "image/jpeg");
-        IMAGE_FORMAT_MAP.put(".png", "image/png");
-        IMAGE_FORMAT_MAP.put(".gif", "image/gif");
-        IMAGE_FORMAT_MAP.put(".webp", "image/webp");
-    }
-
+    private final CatalogSnapshotCache catalogSnapshotCache;
+    private final CatalogChangeListener catalogChangeListener;
+    private final InventoryStockDetailLookup inventoryStockDetailLookup;
+    private final StorefrontProductBatchReader storefrontProductBatchReader;
+    private final StockProjection stockProjection;
+    private final FulfillingBranchResolver fulfillingBranchResolver;
+    private final StockUpdateWriter stockUpdateWriter;
+    private final OriginalImageUploader originalImageUploader;
+    private final ImageProcessingJobs imageProcessingJobs;
+    private final GcsBlobDeleter gcsBlobDeleter;
+    private final DirectImageUploads directImageUploads;
+    private final ImagePlaceholderCache imagePlaceholderCache;
+    @Qualifier("storefrontLookupExecutor")
+    private final ThreadPoolTaskExecutor storefrontLookupExecutor;
+    @Qualifier("imageUploadExecutor")
+    private final ThreadPoolTaskExecutor imageUploadExecutor;
     @Value("${gcp.storage.bucket-name}")
     private String bucketName;
 
+    @Value("${app.storefront.product-details.deadline:1500ms}")
+    private Duration productDetailsDeadline;
+
+    private final Set<String> categoryWarmUps = ConcurrentHashMap.newKeySet();
+
     // --- Category Management ---
 
     public StorefrontCategory createCategory(String orgId, CategoryRequestDto dto) {
@@ -82,7 +118,9 @@ public class StorefrontService {
                 .parentCategoryId(dto.getParentCategoryId())
                 .build();
 
-        return storefrontCategoryRepository.save(category);
+        StorefrontCategory savedCategory = storefrontCategoryRepository.save(category);
+        catalogSnapshotCache.upsertCategory(orgId, savedCategory);
+        return savedCategory;
     }
 
     public StorefrontCategory updateCategory(String orgId, String categoryId, CategoryRequestDto dto) {
@@ -96,16 +134,21 @@ public class StorefrontService {
         existingCategory.setImageUrl(dto.getImageUrl());
         existingCategory.setParentCategoryId(dto.getParentCategoryId());
 
-        return storefrontCategoryRepository.save(existingCategory);
+        StorefrontCategory savedCategory = storefrontCategoryRepository.save(existingCategory);
+        catalogSnapshotCache.upsertCategory(orgId, savedCategory);
+        return savedCategory;
     }
 
     public List<StorefrontCategory> getCategories(String orgId) {
-        return storefrontCategoryRepository.findAllByOrganization(orgId);
+        catalogChangeListener.watch(orgId);
+        return catalogSnapshotCache.getCategories(orgId, () -> catalogChangeListener.awaitInitialCategories(orgId)
+                .orElseGet(() -> catalogChangeListener.checkRepositoryCategories(orgId, storefrontCategoryRepository.findAllByOrganization(orgId))));
     }
 
     public void deleteCategory(String orgId, String categoryId) {
         // TODO: Add logic to check if any products are using this category before deleting.
         storefrontCategoryRepository.deleteById(orgId, categoryId);
+        catalogSnapshotCache.removeCategory(orgId, categoryId);
     }
 
     // --- Product Enrichment ---
@@ -134,13 +177,17 @@ public class StorefrontService {
         }
 
         // Save the updated product back to Firestore
-        return storefrontProductRepository.save(product);
+        StorefrontProduct savedProduct = imageProcessingJobs.saveProduct(orgId, productId, product);
+        catalogSnapshotCache.upsert(orgId, savedProduct);
+        return savedProduct;
     }
 
 
     /**
-     * Handles uploading a product image to Google Cloud Storage, generating multiple sizes,
-     * and updating the StorefrontProduct document with the image metadata.
+     * Handles uploading a product image to Google Cloud Storage and updating the
+     * StorefrontProduct document with the image metadata. The resized variants are generated
+     * by a background job; until it finishes, the asset's variant URLs point at the original
+     * (see {@link #getImageAssetStatus}).
      *
      * @param orgId        The organization ID.
      * @param productId    The ID of the product to associate the image with.
@@ -164,107 +211,181 @@ public class StorefrontService {
             throw new IllegalArgumentException("Image file cannot be empty.");
         }
 
-        String assetId = IdGenerator.newId("IMG"); // Unique ID for this image asset
-        String originalFileName = imageFile.getOriginalFilename();
-        String fileExtension = originalFileName != null && originalFileName.contains(".") ?
-                originalFileName.substring(originalFileName.lastIndexOf(".")) : ".jpg"; // Default to .jpg if no extension
-
-        // Base path for all versions of this image asset
-        String basePath = String.format("images/%s/%s/%s/", orgId, productId, assetId);
+        // --- 1. Upload the original; variants are generated in the background ---
+        ImageProcessingJobs.Job job = storeOriginal(orgId, productId, imageFile);
 
-        // --- 1. Upload Original Image ---
-        String originalBlobName = basePath + "original" + fileExtension;
-        BlobInfo originalBlobInfo = storage.create(
-                BlobInfo.newBuilder(bucketName, originalBlobName).setContentType(imageFile.getContentType()).build(),
-                imageFile.getInputStream()
-        );
-        String originalUrl = originalBlobInfo.getMediaLink(); // Public URL
-
-
-        // --- 2. Generate and Upload Resized Images ---
-        // This part would ideally be an asynchronous process (e.g., Cloud Function or a separate worker)
-        // to avoid blocking the API request, especially for large images.
-        // For demonstration, we'll do it synchronously here.
-
-        ByteArrayInputStream originalImageStream = new ByteArrayInputStream(imageFile.getBytes());
-
-        String thumbnailUrl = generateAndUploadResizedImage(originalImageStream, basePath, "thumb", fileExtension, 200, 200);
-        originalImageStream.reset(); // Reset stream for next read
-        String mediumUrl = generateAndUploadResizedImage(originalImageStream, basePath, "medium", fileExtension, 600, 600);
-        originalImageStream.reset();
-        String largeUrl = generateAndUploadResizedImage(originalImageStream, basePath, "large", fileExtension, 1200, 1200);
-
-        // --- 3. Update StorefrontProduct in Firestore ---
-        ImageAsset newImageAsset = ImageAsset.builder()
-                .assetId(assetId)
-                .originalUrl(originalUrl)
-                .thumbnailUrl(thumbnailUrl)
-                .mediumUrl(mediumUrl)
-                .largeUrl(largeUrl)
-                .altText(altText != null ? altText : product.getProductName() + " image") // Default alt text
-                .displayOrder(displayOrder)
-                .build();
+        // --- 2. Update StorefrontProduct in Firestore ---
+        ImageAsset newImageAsset = ImageProcessingJobs.placeholderAsset(job,
+                altText != null ? altText : product.getProductName() + " image", // Default alt text
+                displayOrder);
 
         // Add the new image asset and re-sort (if displayOrder is crucial)
         product.getImages().add(newImageAsset);
         product.getImages().sort(Comparator.comparingInt(ImageAsset::getDisplayOrder)); // Keep images sorted
 
-        return storefrontProductRepository.save(product);
+        StorefrontProduct savedProduct = imageProcessingJobs.saveProduct(orgId, productId, product);
+        catalogSnapshotCache.upsert(orgId, savedProduct);
+
+        // --- 3. Generate the variants once the asset is persisted ---
+        imageProcessingJobs.submit(job);
+        return savedProduct;
+    }
+
+    /**
+     * First phase of a direct upload: issues a signed URL the browser uploads the image to.
+     */
+    public ImageUploadUrlResponse createImageUploadUrl(String orgId, String productId, ImageUploadUrlRequest request) {
+        storefrontProductRepository.findById(orgId, productId)
+                .orElseThrow(() -> new ResourceNotFoundException("Storefront Product with ID " + productId + " not found for image upload."));
+
+        DirectImageUploads.UploadTicket ticket = directImageUploads.issue(orgId, productId, IdGenerator.newId("IMG"),
+                request.getContentType(), request.getSizeBytes());
+        return ImageUploadUrlResponse.builder()
+                .assetId(ticket.assetId())
+                .uploadUrl(ticket.uploadUrl().toString())
+                .httpMethod("PUT")
+                .requiredHeaders(ticket.requiredHeaders())
+                .expiresAt(ticket.expiresAt())
+                .build();
+    }
+
+    /**
+     * Second phase of a direct upload: attaches the uploaded image to the product and
+     * schedules its variants, like {@link #uploadProductImage}. Finalizing an asset that is
+     * already attached returns the product unchanged.
+     */
+    public StorefrontProduct finalizeImageUpload(String orgId, String productId, String assetId, ImageUploadFinalizeRequest request)
+            throws IOException {
+        StorefrontProduct product = storefrontProductRepository.findById(orgId, productId)
+                .orElseThrow(() -> new ResourceNotFoundException("Storefront Product with ID " + productId + " not found for image upload."));
+        if (product.getImages() == null) {
+            product.setImages(new ArrayList<>());
+        }
+        if (product.getImages().stream().anyMatch(image -> assetId.equals(image.getAssetId()))) {
+            return product;
+        }
+
+        DirectImageUploads.AdoptedUpload upload = directImageUploads.adopt(orgId, productId, assetId);
+        ImageProcessingJobs.Job job = imageProcessingJobs.prepare(orgId, productId, assetId, upload.basePath(),
+                upload.fileExtension(), upload.original());
+
+        ImageAsset newImageAsset = ImageProcessingJobs.placeholderAsset(job,
+                request.getAltText() != null ? request.getAltText() : product.getProductName() + " image",
+                request.getDisplayOrder());
+        product.getImages().add(newImageAsset);
+        product.getImages().sort(Comparator.comparingInt(ImageAsset::getDisplayOrder));
+
+        StorefrontProduct savedProduct = imageProcessingJobs.saveProduct(orgId, productId, product);
+        catalogSnapshotCache.upsert(orgId, savedProduct);
+        imageProcessingJobs.submit(job);
+        return savedProduct;
+    }
+
+    /**
+     * Returns the processing state of an image asset's background variant job.
+     */
+    public ImageAssetStatusResponse getImageAssetStatus(String orgId, String productId, String assetId) {
+        ImageAssetRecord record = imageProcessingJobs.find(orgId, assetId)
+                .filter(found -> productId.equals(found.getProductId()))
+                .orElseThrow(() -> new ResourceNotFoundException("Image asset " + assetId + " not found for product " + productId + "."));
+        return ImageAssetStatusResponse.builder()
+                .assetId(record.getAssetId())
+                .productId(record.getProductId())
+                .status(record.getStatus())
+                .attempts(record.getAttempts())
+                .lastError(record.getLastError())
+                .thumbnailUrl(record.getThumbnailUrl())
+                .mediumUrl(record.getMediumUrl())
+                .largeUrl(record.getLargeUrl())
+                .updatedAt(record.getUpdatedAt() != null ? record.getUpdatedAt().toDate().toInstant() : null)
+                .build();
     }
 
 
     /**
      * Fetches and combines product data from the CMS and Inventory services.
      * This is a public-facing method used by the e-commerce website.
+     * <p>
+     * The CMS document and the inventory stock detail are independent, so they are fetched
+     * concurrently on the bounded lookup executor under a single per-call deadline. If
+     * inventory misses the deadline (or fails), the response is still returned, flagged
+     * {@code stockUnknown} and using the last stock level the CMS received from inventory's
+     * stock events. The category name is only resolved from cached categories (see
+     * {@link #findCategoriesOrWarmUp}).
      *
      * @param orgId     The ID of the organization's store being viewed.
      * @param productId The ID of the product to fetch.
      * @return A rich, combined DTO for the product page.
      */
     public PublicProductDetailResponse getPublicProductDetails(String orgId, String productId) {
+        long deadlineNanos = System.nanoTime() + productDetailsDeadline.toNanos();
 
         // ===================================================================
-        // Step A: (Internal Read) Get the presentation data from our own database.
+        // Step A: Fan out the independent lookups.
         // ===================================================================
+        // A product in the in-memory snapshot needs no lookup thread.
+        CompletableFuture<StorefrontProduct> productFuture = catalogSnapshotCache.findProduct(orgId, productId)
+                .map(CompletableFuture::completedFuture)
+                .orElseGet(() -> submitLookup(() -> storefrontProductRepository.findById(orgId, productId)
+                        .orElseThrow(() -> new ResourceNotFoundException("Product not found."))));
+        // Identical concurrent lookups share one Feign call (which handles authentication itself).
+        CompletableFuture<MedicineStockDetailResponse> inventoryFuture =
+                inventoryStockDetailLookup.lookup(orgId, productId, storefrontLookupExecutor);
 
-        StorefrontProduct storefrontProduct = storefrontProductRepository.findById(orgId, productId)
-                .orElseThrow(() -> new ResourceNotFoundException("Product not found."));
-
-        // String sourceBranchId = storefrontProduct.getBranchId();
-        /*if (sourceBranchId == null) {
-            // Product has not been fully configured for sale
-            throw new ResourceNotFoundException("Product not available for online sale.");
+        // ===================================================================
+        // Step B: The CMS document is mandatory.
+        // ===================================================================
+        StorefrontProduct storefrontProduct;
+        try {
+            storefrontProduct = awaitUntil(productFuture, deadlineNanos);
+        } catch (TimeoutException e) {
+            inventoryFuture.cancel(true);
+            throw new ServiceCommunicationException("Timed out loading product " + productId + ".", e);
+        } catch (RuntimeException e) {
+            inventoryFuture.cancel(true);
+            throw e;
         }
 
-*/        // If the product is not marked as visible, treat it as not found.
+        // If the product is not marked as visible, treat it as not found.
         if (!storefrontProduct.isVisible()) {
+            inventoryFuture.cancel(true);
             throw new ResourceNotFoundException("Product not found.");
         }
 
         // ===================================================================
-        // Step B & C: (Internal API Call) Call the inventory-service via Feign.
+        // Step C: Inventory and category are best-effort within the deadline.
         // ===================================================================
-        // The Feign client will automatically handle authentication.
-        MedicineStockDetailResponse inventoryData = inventoryService.getPublicMedicineDetails(productId);
+        MedicineStockDetailResponse inventoryData = null;
+        try {
+            inventoryData = awaitUntil(inventoryFuture, deadlineNanos);
+        } catch (TimeoutException e) {
+            inventoryFuture.cancel(true);
+            log.warn("Inventory lookup for product {} (org {}) missed its deadline; returning degraded response.", productId, orgId);
+        } catch (RuntimeException e) {
+            log.warn("Inventory lookup for product {} (org {}) failed; returning degraded response: {}", productId, orgId, e.getMessage());
+        }
 
-        // Also fetch the category name for display
-        String categoryName = storefrontProduct.getCategoryName() != null ? storefrontProduct.getCategoryName() : "Uncategorized";
+        String categoryName = resolveCategoryName(orgId, storefrontProduct.getCategoryName());
 
         // ===================================================================
         // Step D: Combine and Respond
         // ===================================================================
+        boolean stockUnknown = inventoryData == null;
+        int availableStock = stockUnknown ? storefrontProduct.getStockLevel() : inventoryData.getTotalStock();
         return PublicProductDetailResponse.builder()
                 // Data from Inventory Service
                 .productId(storefrontProduct.getProductId())
                 .name(storefrontProduct.getProductName())
                 .genericName(storefrontProduct.getSlug())
-                 .manufacturer(inventoryData.getManufacturer())
+                .manufacturer(stockUnknown ? null : inventoryData.getManufacturer())
 
-                .availableStock(inventoryData.getTotalStock()) // Assuming this is on the detail response
+                .availableStock(availableStock)
+                .stockStatus(stockUnknown ? storefrontProduct.getCurrentStatus() : deriveStockStatus(availableStock))
+                .stockUnknown(stockUnknown)
                 .mrp(storefrontProduct.getMrp())
                 // Data from Storefront (CMS) Service
                 .richDescription(storefrontProduct.getRichDescription())
-                .images(storefrontProduct.getImages())
+                .images(toStorefrontImages(orgId, storefrontProduct.getImages()))
                 .categoryName(categoryName)
                 .build();
 
@@ -272,7 +393,98 @@ public class StorefrontService {
         //offer  --> next release ,promo code --> discount
     }
 
+    /**
+     * Products store either a category ID (set through enrichment) or a display name.
+     * Resolve IDs to names using the cached category list, falling back to the stored value.
+     */
+    private String resolveCategoryName(String orgId, String storedCategory) {
+        if (storedCategory == null) {
+            return "Uncategorized";
+        }
+        return findCategoriesOrWarmUp(orgId).orElse(List.of()).stream()
+                .filter(category -> storedCategory.equals(category.getCategoryId()))
+                .map(StorefrontCategory::getName)
+                .findFirst()
+                .orElse(storedCategory);
+    }
+
+    /**
+     * Returns the organization's categories if they are cached, without blocking. Otherwise
+     * loads them in the background for later requests: the first load may wait up to
+     * {@code seed-timeout} for the catalog listener, longer than a request deadline. At most
+     * one such load per organization holds a lookup thread.
+     */
+    private Optional<List<StorefrontCategory>> findCategoriesOrWarmUp(String orgId) {
+        Optional<List<StorefrontCategory>> cached = catalogSnapshotCache.findCategories(orgId);
+        if (cached.isEmpty() && categoryWarmUps.add(orgId)) {
+            submitLookup(() -> getCategories(orgId)).whenComplete((categories, error) -> categoryWarmUps.remove(orgId));
+        }
+        return cached;
+    }
+
+    /**
+     * Runs a lookup on the lookup executor. When the executor is saturated the returned
+     * future fails, so the lookup degrades like any other failure instead of running on
+     * the request thread without a deadline.
+     */
+    private <T> CompletableFuture<T> submitLookup(Supplier<T> lookup) {
+        try {
+            return CompletableFuture.supplyAsync(lookup, storefrontLookupExecutor);
+        } catch (RejectedExecutionException e) {
+            return CompletableFuture.failedFuture(
+                    new ServiceCommunicationException("Storefront lookups are saturated; try again shortly.", e));
+        }
+    }
+
+    /**
+     * Waits for a future until the given {@link System#nanoTime()} deadline, unwrapping
+     * the original runtime exception if the lookup itself failed.
+     */
+    private <T> T awaitUntil(CompletableFuture<T> future, long deadlineNanos) throws TimeoutException {
+        try {
+            return future.get(Math.max(0, deadlineNanos - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new ServiceCommunicationException("Storefront lookup failed.", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ServiceCommunicationException("Interrupted while waiting for storefront lookup.", e);
+        }
+    }
+
     public void updateProductStockLevel(String orgId, String branchId, String productId, int newStockLevel, String productName, Double mrp, String taxProfileId, String gstType, String category) {
+        updateProductStockLevel(orgId, branchId, productId, newStockLevel, productName, mrp, taxProfileId, gstType, category, null);
+    }
+
+    /**
+     * Applies a stock change event. Existing products get a field-level write through
+     * {@link StockUpdateWriter}, which drops events whose version is not newer than the
+     * stored one. Products that do not exist yet are created through the repository.
+     *
+     * @param eventVersion The version assigned by inventory, or {@code null} to apply unconditionally.
+     */
+    public void updateProductStockLevel(String orgId, String branchId, String productId, int newStockLevel, String productName, Double mrp, String taxProfileId, String gstType, String category, Long eventVersion) {
+        StockUpdate update = new StockUpdate(orgId, productId, newStockLevel, deriveStockStatus(newStockLevel), productName, mrp, eventVersion);
+        StockUpdateWriter.WriteOutcome outcome = stockUpdateWriter.writeOne(update);
+        switch (outcome.outcome()) {
+            case STALE -> log.info("Ignoring stale stock update for productId {} (Org: {}, version {}).", productId, orgId, eventVersion);
+            case APPLIED -> {
+                inventoryStockDetailLookup.evict(orgId, productId);
+                // Field-level writes bypass snapshot patching; unwatched organizations are reloaded.
+                if (!catalogChangeListener.isWatching(orgId)) {
+                    catalogSnapshotCache.invalidate(orgId);
+                }
+                log.info("Successfully updated stock for StorefrontProduct productId {}. New Stock: {}, Status: {}",
+                        productId, newStockLevel, update.currentStatus());
+            }
+            case NOT_FOUND -> saveStockLevel(orgId, branchId, productId, newStockLevel, productName, mrp, taxProfileId, gstType, category, eventVersion);
+            default -> throw new ServiceCommunicationException("Failed to update stock for product " + productId + ": " + outcome.message());
+        }
+    }
+
+    private void saveStockLevel(String orgId, String branchId, String productId, int newStockLevel, String productName, Double mrp, String taxProfileId, String gstType, String category, Long eventVersion) {
         // The branchId needs to be part of the key for StorefrontProduct
         // If the StockLevelChangedEvent doesn't carry branchId, you'll need a strategy
         // (e.g., assume a default branch, or publish an event per branch if stock is branch-specific)
@@ -280,7 +492,6 @@ public class StorefrontService {
         // If the inventory service is publishing stock changes, it *must* include branchId
         // if StorefrontProduct documents are partitioned by branchId.
         // Assuming branchId is now part of the StockLevelChangedEvent and passed here.
-
         Optional<StorefrontProduct> existingProductOpt = storefrontProductRepository.findById(orgId, productId);
 
         StorefrontProduct product;
@@ -319,6 +530,9 @@ public class StorefrontService {
         product.setCurrentStatus(deriveStockStatus(newStockLevel));
 
         StorefrontProduct savedProduct = storefrontProductRepository.save(product);
+        catalogSnapshotCache.upsert(orgId, savedProduct);
+        inventoryStockDetailLookup.evict(orgId, productId);
+        stockProjection.record(orgId, productId, newStockLevel, eventVersion, null);
 
         if (isNewProduct) {
             log.info("Successfully created new StorefrontProduct and updated stock for productId {}. New Stock: {}, Status: {}",
@@ -329,6 +543,128 @@ public class StorefrontService {
         }
     }
 
+    /**
+     * Applies a batch of stock change events in one pass.
+     * <p>
+     * Events for existing products become field-level writes through a Firestore
+     * BulkWriter, with no document read. Products that do not exist yet fall back to
+     * {@link #updateProductStockLevel}, which creates them. When a batch contains several
+     * events for the same product, only the one with the highest version (or the last one,
+     * if versions are equal or absent) is written; events older than the stored version
+     * are reported as {@code STALE}.
+     *
+     * @param events The events in the order inventory produced them.
+     * @return One result per event, in request order.
+     */
+    public StockUpdateBatchResponse applyStockUpdates(List<? extends StockLevelChangedEvent> events) {
+        StockUpdateResult[] results = new StockUpdateResult[events.size()];
+        Map<String, Integer> latestIndexByProduct = new LinkedHashMap<>();
+
+        for (int i = 0; i < events.size(); i++) {
+            StockLevelChangedEvent event = events.get(i);
+            if (event == null || Strings.isNullOrEmpty(event.getOrganizationId()) || Strings.isNullOrEmpty(event.getMedicineId())) {
+                results[i] = stockUpdateResult(i, event, StockUpdateResult.Status.INVALID, "organizationId and medicineId are required.");
+                continue;
+            }
+            String key = event.getOrganizationId() + "/" + event.getMedicineId();
+            Integer previous = latestIndexByProduct.get(key);
+            if (previous == null) {
+                latestIndexByProduct.put(key, i);
+            } else if (isOlderEvent(event, events.get(previous))) {
+                results[i] = stockUpdateResult(i, event, StockUpdateResult.Status.SUPERSEDED, null);
+            } else {
+                latestIndexByProduct.put(key, i);
+                results[previous] = stockUpdateResult(previous, events.get(previous), StockUpdateResult.Status.SUPERSEDED, null);
+            }
+        }
+
+        List<Integer> indexes = new ArrayList<>(latestIndexByProduct.values());
+        List<StockUpdate> updates = new ArrayList<>(indexes.size());
+        for (int index : indexes) {
+            updates.add(toStockUpdate(events.get(index)));
+        }
+
+        List<StockUpdateWriter.WriteOutcome> outcomes = stockUpdateWriter.writeAll(updates);
+        Set<String> touchedOrgs = new HashSet<>();
+        for (int n = 0; n < outcomes.size(); n++) {
+            int index = indexes.get(n);
+            StockLevelChangedEvent event = events.get(index);
+            StockUpdateWriter.WriteOutcome outcome = outcomes.get(n);
+            switch (outcome.outcome()) {
+                case APPLIED -> {
+                    StockUpdate update = outcome.update();
+                    inventoryStockDetailLookup.evict(update.organizationId(), update.productId());
+                    touchedOrgs.add(update.organizationId());
+                    results[index] = stockUpdateResult(index, event, StockUpdateResult.Status.APPLIED, null);
+                }
+                case NOT_FOUND -> {
+                    try {
+                        saveStockLevel(event.getOrganizationId(), event.getBranchId(), event.getMedicineId(), event.getNewTotalStock(),
+                                event.getMedicineName(), event.getMrp(), event.getTaxprofileId(), event.getGstType(), event.getCategory(),
+                                outcome.update().version());
+                        results[index] = stockUpdateResult(index, event, StockUpdateResult.Status.CREATED, null);
+                    } catch (RuntimeException e) {
+                        log.warn("Failed to create StorefrontProduct {} from batched stock update: {}", event.getMedicineId(), e.getMessage());
+                        results[index] = stockUpdateResult(index, event, StockUpdateResult.Status.FAILED, e.getMessage());
+                    }
+                }
+                case STALE -> results[index] = stockUpdateResult(index, event, StockUpdateResult.Status.STALE, null);
+                default -> results[index] = stockUpdateResult(index, event, StockUpdateResult.Status.FAILED, outcome.message());
+            }
+        }
+
+        // Field-level writes bypass the snapshot patching in updateProductStockLevel. Organizations
+        // with a live catalog listener receive the changes from Firestore; the rest are reloaded.
+        touchedOrgs.stream()
+                .filter(orgId -> !catalogChangeListener.isWatching(orgId))
+                .forEach(catalogSnapshotCache::invalidate);
+
+        List<StockUpdateResult> resultList = Arrays.asList(results);
+        long failed = resultList.stream().filter(r -> r.getStatus() == StockUpdateResult.Status.FAILED
+                || r.getStatus() == StockUpdateResult.Status.INVALID).count();
+        long applied = resultList.stream().filter(r -> r.getStatus() == StockUpdateResult.Status.APPLIED
+                || r.getStatus() == StockUpdateResult.Status.CREATED).count();
+        log.info("Applied batched stock updates | received={} | written={} | failed={}", events.size(), applied, failed);
+
+        return StockUpdateBatchResponse.builder()
+                .received(events.size())
+                .applied((int) applied)
+                .failed((int) failed)
+                .results(resultList)
+                .build();
+    }
+
+    /**
+     * Whether {@code event} is older than {@code other} for the same product. Unversioned
+     * events are ordered by position, so they never count as older.
+     */
+    private static boolean isOlderEvent(StockLevelChangedEvent event, StockLevelChangedEvent other) {
+        Long version = VersionedStockLevelChangedEvent.versionOf(event);
+        Long otherVersion = VersionedStockLevelChangedEvent.versionOf(other);
+        return version != null && otherVersion != null && version < otherVersion;
+    }
+
+    private StockUpdate toStockUpdate(StockLevelChangedEvent event) {
+        return new StockUpdate(
+                event.getOrganizationId(),
+                event.getMedicineId(),
+                event.getNewTotalStock(),
+                deriveStockStatus(event.getNewTotalStock()),
+                event.getMedicineName(),
+                event.getMrp(),
+                VersionedStockLevelChangedEvent.versionOf(event));
+    }
+
+    private StockUpdateResult stockUpdateResult(int index, StockLevelChangedEvent event, StockUpdateResult.Status status, String message) {
+        return StockUpdateResult.builder()
+                .index(index)
+                .organizationId(event != null ? event.getOrganizationId() : null)
+                .medicineId(event != null ? event.getMedicineId() : null)
+                .status(status)
+                .message(message)
+                .build();
+    }
+
     /**
      * Helper method to derive stock status based on quantity and threshold.
      */
@@ -358,19 +694,14 @@ public class StorefrontService {
         boolean removedFromList = product.getImages().removeIf(image -> image.getAssetId().equals(assetId));
 
         if (removedFromList) {
-            // Delete all associated blobs from GCS
-            String basePath = String.format("images/%s/%s/%s/", orgId, productId, assetId);
-            // List all blobs with this prefix and delete them
-            for (Blob blob : storage.list(bucketName, Storage.BlobListOption.prefix(basePath)).iterateAll()) {
-                blob.delete();
-                log.info("Deleted GCS blob: {}", blob.getName());
-            }
-            log.info("Image asset {} and associated GCS files deleted for product {}", assetId, productId);
+            deleteImageFilesFromGCS(orgId, productId, List.of(assetId));
         } else {
             log.warn("Image asset {} not found in product {} for deletion. No GCS files deleted.", assetId, productId);
         }
 
-        return storefrontProductRepository.save(product);
+        StorefrontProduct savedProduct = imageProcessingJobs.saveProduct(orgId, productId, product);
+        catalogSnapshotCache.upsert(orgId, savedProduct);
+        return savedProduct;
     }
 
     /**
@@ -429,13 +760,15 @@ public class StorefrontService {
         Map<String, ImageAsset> existingImageMap = currentImages.stream()
                 .collect(Collectors.toMap(ImageAsset::getAssetId, Function.identity()));
 
+        List<String> deletedAssetIds = new ArrayList<>();
+
         // Process image metadata from the request
         if (request.getImages() != null) {
             for (ProductEnrichmentRequestDto.ImageMetadataDto imageMetadata : request.getImages()) {
                 if (imageMetadata.isDelete()) {
                     // This image should be deleted
                     if (imageMetadata.getAssetId() != null && existingImageMap.containsKey(imageMetadata.getAssetId())) {
-                        deleteImageFilesFromGCS(orgId, productId, imageMetadata.getAssetId());
+                        deletedAssetIds.add(imageMetadata.getAssetId());
                         existingImageMap.remove(imageMetadata.getAssetId()); // Remove from our working map
                     }
                 } else {
@@ -469,34 +802,17 @@ public class StorefrontService {
         // For simplicity, let's assume `imageFiles` are new uploads and we assign metadata based on their order
         // or just use generic alt text and default order if not explicitly linked.
 
-        for (int i = 0; i < imageFiles.length; i++) {
-            MultipartFile imageFile = imageFiles[i];
-            if (!imageFile.isEmpty()) {
-                String assetId = IdGenerator.newId("IMG");;
-
-                String originalFileName = imageFile.getOriginalFilename();
-                String fileExtension = originalFileName != null && originalFileName.contains(".") ?
-                        originalFileName.substring(originalFileName.lastIndexOf(".")) : ".jpg";
-
-                String basePath = String.format("images/%s/%s/%s/", orgId, productId, assetId);
+        // 1. Upload the originals in parallel; variants are generated in the background.
+        // The results keep the position of their file, so the metadata matching below is unchanged.
+        List<ImageProcessingJobs.Job> uploadedJobs = storeOriginals(orgId, productId, imageFiles);
 
-                // 1. Upload Original
-                String originalBlobName = basePath + "original" + fileExtension;
-                BlobInfo originalBlobInfo = storage.create(
-                        BlobInfo.newBuilder(bucketName, originalBlobName).setContentType(imageFile.getContentType()).build(),
-                        imageFile.getInputStream()
-                );
-                String originalUrl = originalBlobInfo.getMediaLink();
-
-                // 2. Generate and Upload Resized Images
-                ByteArrayInputStream originalImageStream = new ByteArrayInputStream(imageFile.getBytes());
-                String thumbnailUrl = generateAndUploadResizedImage(originalImageStream, basePath, "thumb", fileExtension, 200, 200);
-                originalImageStream.reset();
-                String mediumUrl = generateAndUploadResizedImage(originalImageStream, basePath, "medium", fileExtension, 600, 600);
-                originalImageStream.reset();
-                String largeUrl = generateAndUploadResizedImage(originalImageStream, basePath, "large", fileExtension, 1200, 1200);
+        List<ImageProcessingJobs.Job> imageJobs = new ArrayList<>();
+        for (int i = 0; i < imageFiles.length; i++) {
+            ImageProcessingJobs.Job job = uploadedJobs.get(i);
+            if (job != null) {
+                imageJobs.add(job);
 
-                // 3. Create new ImageAsset
+                // 2. Create new ImageAsset
                 ProductEnrichmentRequestDto.ImageMetadataDto correspondingMetadata = null;
                 if (request.getImages() != null && i < request.getImages().size()) {
                     correspondingMetadata = request.getImages().get(i);
@@ -504,16 +820,10 @@ public class StorefrontService {
                     // If not, you need a more robust matching strategy (e.g., client-generated IDs).
                 }
 
-                ImageAsset newImageAsset = ImageAsset.builder()
-                        .assetId(assetId)
-                        .originalUrl(originalUrl)
-                        .thumbnailUrl(thumbnailUrl)
-                        .mediumUrl(mediumUrl)
-                        .largeUrl(largeUrl)
-                        .altText(correspondingMetadata != null && !Strings.isNullOrEmpty(correspondingMetadata.getAltText())
-                                ? correspondingMetadata.getAltText() : product.getProductName() + " image " + (updatedImages.size() + 1))
-                        .displayOrder(correspondingMetadata != null ? correspondingMetadata.getDisplayOrder() : updatedImages.size()) // Default order
-                        .build();
+                ImageAsset newImageAsset = ImageProcessingJobs.placeholderAsset(job,
+                        correspondingMetadata != null && !Strings.isNullOrEmpty(correspondingMetadata.getAltText())
+                                ? correspondingMetadata.getAltText() : product.getProductName() + " image " + (updatedImages.size() + 1),
+                        correspondingMetadata != null ? correspondingMetadata.getDisplayOrder() : updatedImages.size()); // Default order
                 updatedImages.add(newImageAsset);
             }
         }
@@ -523,72 +833,142 @@ public class StorefrontService {
         product.setImages(updatedImages);
 
         // --- 4. Save the final updated product ---
-        return storefrontProductRepository.save(product);
+        StorefrontProduct savedProduct = imageProcessingJobs.saveProduct(orgId, productId, product);
+        catalogSnapshotCache.upsert(orgId, savedProduct);
+
+        // --- 5. Generate variants for the new images and delete removed ones in the background ---
+        imageJobs.forEach(imageProcessingJobs::submit);
+        deleteImageFilesFromGCS(orgId, productId, deletedAssetIds);
+        return savedProduct;
     }
 
 
     /**
-     * Helper method to generate a resized image and upload it to GCS.
+     * Stores the original of a new image asset and registers its content. Variants are
+     * generated later by the submitted job.
      */
-    private String generateAndUploadResizedImage(
-            InputStream originalImageStream,
-            String basePath,
-            String sizePrefix,
-            String fileExtension,
-            int width, int height) throws IOException {
-
-        java.io.ByteArrayOutputStream os = new java.io.ByteArrayOutputStream();
-
-        Thumbnails.of(originalImageStream)
-                .size(width, height)
-                .outputFormat(fileExtension.substring(1))
-                .toOutputStream(os);
-
-        byte[] resizedImageBytes = os.toByteArray();
-
-        String resizedBlobName = basePath + sizePrefix + "_" + width + "x" + height + fileExtension;
-        BlobInfo resizedBlobInfo = storage.create(
-                BlobInfo.newBuilder(bucketName, resizedBlobName)
-                        .setContentType("image/" + fileExtension.substring(1))
-                        .build(),
-                resizedImageBytes
-        );
-        return resizedBlobInfo.getMediaLink();
+    private ImageProcessingJobs.Job storeOriginal(String orgId, String productId, MultipartFile imageFile) throws IOException {
+        String assetId = IdGenerator.newId("IMG"); // Unique ID for this image asset
+        String originalFileName = imageFile.getOriginalFilename();
+        String fileExtension = originalFileName != null && originalFileName.contains(".") ?
+                originalFileName.substring(originalFileName.lastIndexOf(".")) : ".jpg"; // Default to .jpg if no extension
+
+        // Base path for all versions of this image asset
+        String basePath = String.format("images/%s/%s/%s/", orgId, productId, assetId);
+
+        StoredOriginal original;
+        try (InputStream in = imageFile.getInputStream()) {
+            // Rejects undecodable or oversized images before storing them
+            original = originalImageUploader.upload(basePath, fileExtension, imageFile.getContentType(), in);
+        }
+        return imageProcessingJobs.prepare(orgId, productId, assetId, basePath, fileExtension, original);
+    }
+
+    /**
+     * Stores the originals of several files concurrently on the image upload executor.
+     *
+     * @return One job per file, in the order of {@code imageFiles}; {@code null} for empty files.
+     */
+    private List<ImageProcessingJobs.Job> storeOriginals(String orgId, String productId, MultipartFile[] imageFiles) throws IOException {
+        List<CompletableFuture<ImageProcessingJobs.Job>> uploads = new ArrayList<>(imageFiles.length);
+        for (MultipartFile imageFile : imageFiles) {
+            if (imageFile.isEmpty()) {
+                uploads.add(CompletableFuture.completedFuture(null));
+                continue;
+            }
+            uploads.add(CompletableFuture.supplyAsync(() -> {
+                try {
+                    return storeOriginal(orgId, productId, imageFile);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }, imageUploadExecutor));
+        }
+
+        List<ImageProcessingJobs.Job> jobs = new ArrayList<>(uploads.size());
+        try {
+            // Wait for every upload before failing, so no upload is still running when the request ends.
+            CompletableFuture.allOf(uploads.toArray(new CompletableFuture[0])).join();
+            uploads.forEach(upload -> jobs.add(upload.join()));
+        } catch (CompletionException e) {
+            // Surface the original exception, so it is mapped to the same response as a single upload
+            if (e.getCause() instanceof UncheckedIOException io) {
+                throw io.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException runtime) {
+                throw runtime;
+            }
+            throw e;
+        }
+        return jobs;
+    }
+
+    private List<StorefrontImageDto> toStorefrontImages(String orgId, List<ImageAsset> images) {
+        if (images == null || images.isEmpty()) {
+            return List.of();
+        }
+        return toStorefrontImages(images, imagePlaceholderCache.get(orgId, images.stream().map(ImageAsset::getAssetId).toList()));
     }
 
+    private static List<StorefrontImageDto> toStorefrontImages(List<ImageAsset> images, Map<String, ImagePlaceholder> placeholders) {
+        if (images == null) {
+            return List.of();
+        }
+        return images.stream()
+                .map(image -> StorefrontImageDto.of(image, placeholders.get(image.getAssetId())))
+                .toList();
+    }
 
     /**
-     * Helper method to delete all associated blobs for an image asset from GCS.
+     * Helper method to delete all associated blobs for image assets from GCS.
+     * Blobs shared with other assets (the same content uploaded again) are kept until the
+     * last asset using them is deleted. The blobs themselves are deleted in the background,
+     * in as few batch requests as possible.
      */
-    private void deleteImageFilesFromGCS(String orgId, String productId, String assetId) {
-        String basePath = String.format("images/%s/%s/%s/", orgId, productId, assetId);
-        for (Blob blob : storage.list(bucketName, Storage.BlobListOption.prefix(basePath)).iterateAll()) {
-            blob.delete();
-            log.info("Deleted GCS blob: {}", blob.getName());
+    private void deleteImageFilesFromGCS(String orgId, String productId, Collection<String> assetIds) {
+        List<String> unreferencedPaths = new ArrayList<>();
+        for (String assetId : assetIds) {
+            Optional<String> unreferencedPath = imageProcessingJobs.release(orgId, productId, assetId);
+            if (unreferencedPath.isPresent()) {
+                unreferencedPaths.add(unreferencedPath.get());
+            } else {
+                log.info("Image asset {} removed from product {}; its files are still used by other assets", assetId, productId);
+            }
+        }
+        gcsBlobDeleter.deletePrefixes(unreferencedPaths);
+        if (!unreferencedPaths.isEmpty()) {
+            log.info("Scheduled deletion of GCS files of {} image assets of product {}", unreferencedPaths.size(), productId);
         }
-        log.info("Image asset {} and associated GCS files deleted for product {}", assetId, productId);
     }
+    /**
+     * Returns the organization's catalog from the in-memory snapshot, falling back to a
+     * full Firestore read only when no snapshot is loaded yet (or it has expired).
+     * The snapshot is kept coherent with writes from other instances by a Firestore listener,
+     * whose first event also provides the initial load.
+     */
     public List<StorefrontProduct> getAvailableProducts(String orgId) {
-        return storefrontProductRepository.findAllByOrganizationId(orgId);
+        catalogChangeListener.watch(orgId);
+        return catalogSnapshotCache.getProducts(orgId, () -> catalogChangeListener.awaitInitialProducts(orgId)
+                .orElseGet(() -> catalogChangeListener.checkRepositoryProducts(orgId, storefrontProductRepository.findAllByOrganizationId(orgId))));
     }
 
 
     public StorefrontOrder createPendingOrder(String orgId, InitiateCheckoutRequest request)
              {
        try {
-           List<Branch> branches = branchRepository.findAllByOrganizationId(orgId);
+           Branch fulfillingBranch = fulfillingBranchResolver.resolve(orgId, request.getShippingAddress());
 
            Sale partialSale = Sale.builder()
                    .saleType("E-COMMERCE")
                    .organizationId(orgId)
-                   .branchId(branches.get(0).getBranchId())
+                   .branchId(fulfillingBranch.getBranchId())
                    .gstType(parseGstType(request.getGstType()))
                    .build();
 
 
            CreateSaleRequest createSaleRequest = CreateSaleRequest.builder()
                    .orgId(orgId)
-                   .branchId(branches.get(0).getBranchId())
+                   .branchId(fulfillingBranch.getBranchId())
                    .sale(partialSale)
                    .saleItemDtoList(request.getCartItems())
                    .build();
@@ -612,18 +992,13 @@ public class StorefrontService {
            grandTotal = sale.getGrandTotal() + request.getShippingCost();
 
            // --- Determine Branch ---
-           // How do you determine the branchId?
-           // 1. Based on customer's shipping address (find nearest branch)?
-           // 2. Pre-selected by customer on frontend?
-           // 3. Default branch for the organization?
-           // For now, we'll need to explicitly get it or assume it's passed or derived.
-           // Let's assume it can be derived or picked from a default.
-           //  String branchId = determineFulfillingBranch(orgId, request.getShippingAddress()); // Implement this logic
+           // The fulfilling branch is chosen by the pluggable FulfillingBranchResolver
+           // (default: the organization's first branch, served from the branch cache).
 
            StorefrontOrder order = StorefrontOrder.builder()
                    .orderId(orderId)
                    .organizationId(orgId)
-                   .branchId(branches.get(0).getBranchId()) // CRITICAL: This needs to be correctly determined
+                   .branchId(fulfillingBranch.getBranchId())
                    .patientId(request.getCustomerId())
                    .customerInfo(request.getCustomerInfo())
                    .shippingAddress(request.getShippingAddress())
@@ -695,10 +1070,11 @@ public class StorefrontService {
                 .distinct()
                 .toList();
 
-        // 3️ Fetch StorefrontProducts (CMS collection)
+        // 3️ Fetch StorefrontProducts (CMS collection) in one batched read
         Map<String, StorefrontProduct> productMap =
-                storefrontProductRepository
-                        .findAllByOrganizationIdAndProductIdIn(orgId, productIds)
+                storefrontProductBatchReader
+                        .findAllByIds(orgId, productIds)
+                        .found()
                         .stream()
                         .collect(Collectors.toMap(
                                 StorefrontProduct::getProductId,
@@ -940,15 +1316,30 @@ public class StorefrontService {
     }
 
     public List<StorefrontProduct> productByIds(String organizationId, List<String> productIds) {
-        return productIds.stream()
-                .map(id -> storefrontProductRepository.findById(organizationId, id))
-                .filter(Optional::isPresent)
-                .map(Optional::get)
-                .collect(Collectors.toList());
+        return findProductsByIds(organizationId, productIds).found();
+    }
+
+    /**
+     * Batch-reads products by ID, keeping the request order and reporting missing IDs.
+     */
+    public BatchReadResult<StorefrontProduct> findProductsByIds(String organizationId, List<String> productIds) {
+        BatchReadResult<StorefrontProduct> result = storefrontProductBatchReader.findAllByIds(organizationId, productIds);
+        if (!result.missingIds().isEmpty()) {
+            log.debug("{} of {} requested products not found for org {}: {}",
+                    result.missingIds().size(), productIds.size(), organizationId, result.missingIds());
+        }
+        return result;
     }
 
     public void deleteProduct(String orgId, String productId) {
+        Optional<StorefrontProduct> product = storefrontProductRepository.findById(orgId, productId);
         storefrontProductRepository.deleteByProductId(orgId, productId);
+        catalogSnapshotCache.remove(orgId, productId);
+        stockProjection.forget(orgId, productId);
+        product.map(StorefrontProduct::getImages)
+                .filter(images -> !images.isEmpty())
+                .ifPresent(images -> deleteImageFilesFromGCS(orgId, productId,
+                        images.stream().map(ImageAsset::getAssetId).toList()));
         log.info("delete StorefrontOrder with ID: {} for Org: {}", productId, orgId);
     }
 
@@ -959,6 +1350,9 @@ public class StorefrontService {
             String startAfter
     ) {
 
+        // Keeps the stock projection current with writes made by other instances.
+        catalogChangeListener.watch(orgId);
+
         // 1️⃣ Fetch CMS products using cursor pagination
         CursorPage<StorefrontProduct> productPage =
                 storefrontProductRepository.findAllVisible(
@@ -983,21 +1377,35 @@ public class StorefrontService {
                 .map(StorefrontProduct::getProductId)
                 .toList();
 
-        List<Branch> branches = branchRepository.findAllByOrganizationId(orgId);
+        // 3️⃣ Stock from the local projection (fed by stock-update events); only products
+        //     this instance has never seen need the batch inventory call.
+        Map<String, Integer> stockMap = new HashMap<>(stockProjection.getStockLevels(orgId, productIds));
+        List<String> unknownProductIds = stockProjection.unknownProducts(orgId, productIds);
 
-        StockCountDetails stockCountDetails = StockCountDetails.builder()
-                .orgId(orgId)
-                .branchId(branches.get(0).getBranchId())
-                .productIds(productIds)
-                .build();
+        if (!unknownProductIds.isEmpty()) {
+            Branch stockBranch = fulfillingBranchResolver.resolve(orgId, null);
+
+            StockCountDetails stockCountDetails = StockCountDetails.builder()
+                    .orgId(orgId)
+                    .branchId(stockBranch.getBranchId())
+                    .productIds(unknownProductIds)
+                    .build();
 
-        // 3️⃣ Batch inventory call
-        Map<String, Integer> stockMap =
-                inventoryService.getStockBatch(stockCountDetails);
+            Map<String, Integer> fetchedStock = inventoryService.getStockBatch(stockCountDetails);
+            if (fetchedStock != null) {
+                stockProjection.seed(orgId, fetchedStock);
+                stockMap.putAll(fetchedStock);
+            }
+        }
 
         // 4️⃣ Merge CMS + Inventory
+        Map<String, ImagePlaceholder> placeholders = imagePlaceholderCache.get(orgId, products.stream()
+                .filter(product -> product.getImages() != null)
+                .flatMap(product -> product.getImages().stream())
+                .map(ImageAsset::getAssetId)
+                .toList());
         List<ProductWithStockResponse> responseList = products.stream()
-                .map(product -> mapToProductWithStock(product, stockMap))
+                .map(product -> mapToProductWithStock(product, stockMap, placeholders))
                 .toList();
 
         // 5️⃣ Return correct CursorPage
@@ -1009,7 +1417,8 @@ public class StorefrontService {
     }
     private ProductWithStockResponse mapToProductWithStock(
             StorefrontProduct product,
-            Map<String, Integer> stockMap
+            Map<String, Integer> stockMap,
+            Map<String, ImagePlaceholder> placeholders
     ) {
 
         int stock = stockMap.getOrDefault(product.getProductId(), 0);
@@ -1020,7 +1429,7 @@ public class StorefrontService {
                 .categoryName(product.getCategoryName())
                 .mrp(product.getMrp())
                 .slug(product.getSlug())
-                .images(product.getImages())
+                .images(toStorefrontImages(product.getImages(), placeholders))
                 .stockLevel(stock)
                 .inStock(stock > 0)
                 .lowStock(stock > 0 && stock <= 5)
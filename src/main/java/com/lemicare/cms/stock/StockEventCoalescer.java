@@ -0,0 +1,273 @@
+package com.lemicare.cms.stock;
+
+import com.cosmicdoc.common.model.StockLevelChangedEvent;
+import com.lemicare.cms.dto.request.VersionedStockLevelChangedEvent;
+import com.lemicare.cms.dto.response.StockUpdateBatchResponse;
+import com.lemicare.cms.dto.response.StockUpdateResult;
+import com.lemicare.cms.service.StorefrontService;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Write-behind buffer for stock change events.
+ * <p>
+ * A sale, a return and an adjustment for the same medicine often arrive within seconds
+ * of each other. The coalescer keeps only the newest event per (organization, product)
+ * (by version when both carry one, otherwise by arrival)
+ * and writes the survivors in one batch (see {@link StorefrontService#applyStockUpdates})
+ * when the flush window elapses or the buffer reaches {@code flush-size}.
+ * <p>
+ * The last value for a product lands unless it keeps failing: an event whose write fails is
+ * put back into the buffer with the same rule {@link #submit} uses, so it only displaces an
+ * event that arrived meanwhile when that one carries an older version. After
+ * {@code max-attempts} failed writes the event is dropped and logged, so a permanently
+ * rejected event (for example one the create path refuses) does not circle forever. The
+ * buffer is flushed on shutdown.
+ * <p>
+ * Events that came through the {@link StockEventJournal} are acknowledged there once they
+ * are written, found stale, superseded by a newer buffered event, or dropped after their
+ * last attempt.
+ */
+@Component
+public class StockEventCoalescer {
+    private static final Logger log = LoggerFactory.getLogger(StockEventCoalescer.class);
+
+    private final StorefrontService storefrontService;
+    private final StockEventJournal stockEventJournal;
+    private final ConcurrentMap<ProductKey, PendingEvent> pending = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "stock-coalescer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AtomicBoolean flushRequested = new AtomicBoolean(false);
+
+    private final Counter supersededEvents;
+    private final Counter flushedEvents;
+    private final Counter requeuedEvents;
+    private final Counter droppedEvents;
+    private final Timer flushTimer;
+
+    @Value("${app.stock-updates.coalescing.window:2s}")
+    private Duration window;
+
+    @Value("${app.stock-updates.coalescing.flush-size:500}")
+    private int flushSize;
+
+    @Value("${app.stock-updates.coalescing.max-attempts:5}")
+    private int maxAttempts;
+
+    public StockEventCoalescer(StorefrontService storefrontService, StockEventJournal stockEventJournal, MeterRegistry meterRegistry) {
+        this.storefrontService = storefrontService;
+        this.stockEventJournal = stockEventJournal;
+        this.supersededEvents = Counter.builder("cms.stock.coalescer.superseded")
+                .description("Events dropped because a newer event for the same product arrived within the window")
+                .register(meterRegistry);
+        this.flushedEvents = Counter.builder("cms.stock.coalescer.flushed")
+                .description("Events handed to the batch writer")
+                .register(meterRegistry);
+        this.requeuedEvents = Counter.builder("cms.stock.coalescer.requeued")
+                .description("Events put back into the buffer after a failed write")
+                .register(meterRegistry);
+        this.droppedEvents = Counter.builder("cms.stock.coalescer.dropped")
+                .description("Events given up on after max-attempts failed writes")
+                .register(meterRegistry);
+        this.flushTimer = Timer.builder("cms.stock.coalescer.flush")
+                .description("Time spent writing one coalesced batch")
+                .register(meterRegistry);
+        Gauge.builder("cms.stock.coalescer.pending", pending, Map::size)
+                .description("Products with a buffered stock update")
+                .register(meterRegistry);
+        Gauge.builder("cms.stock.coalescer.lag", this, StockEventCoalescer::oldestPendingAgeMillis)
+                .description("Age in milliseconds of the oldest buffered stock update")
+                .baseUnit("milliseconds")
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    void start() {
+        long periodMillis = Math.max(50, window.toMillis());
+        scheduler.scheduleWithFixedDelay(this::flushSafely, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Buffers an event, replacing any older buffered event for the same product. An event
+     * whose version is lower than the buffered one is dropped instead.
+     */
+    public void submit(StockLevelChangedEvent event) {
+        submit(event, StockEventJournal.NOT_JOURNALED);
+    }
+
+    /**
+     * Buffers a journaled event; its journal entry is acknowledged once the event is written
+     * or superseded.
+     */
+    public void submit(StockLevelChangedEvent event, long journalSequence) {
+        ProductKey key = new ProductKey(event.getOrganizationId(), event.getMedicineId());
+        PendingEvent incoming = new PendingEvent(event, System.nanoTime(), journalSequence, 0);
+        PendingEvent[] replaced = new PendingEvent[1];
+        PendingEvent kept = pending.merge(key, incoming, (current, next) -> {
+            replaced[0] = current;
+            return newer(current, next);
+        });
+        if (replaced[0] != null) {
+            supersededEvents.increment();
+            // The dropped event no longer needs to reach Firestore; the kept one is still journaled.
+            stockEventJournal.ack(kept == incoming ? replaced[0].journalSequence() : journalSequence);
+        }
+        if (kept != incoming) {
+            return;
+        }
+        if (pending.size() >= flushSize && flushRequested.compareAndSet(false, true)) {
+            scheduler.execute(this::flushSafely);
+        }
+    }
+
+    private void flushSafely() {
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            // Never let an exception cancel the periodic flush
+            log.error("Stock update flush failed; buffered events will be retried", e);
+        }
+    }
+
+    /**
+     * Writes everything currently buffered. Runs on the coalescer thread (and once more
+     * during shutdown), so flushes never overlap.
+     */
+    void flush() {
+        flushRequested.set(false);
+        if (pending.isEmpty()) {
+            return;
+        }
+
+        List<ProductKey> keys = new ArrayList<>();
+        List<PendingEvent> batch = new ArrayList<>();
+        for (Map.Entry<ProductKey, PendingEvent> entry : pending.entrySet()) {
+            // Only take the exact event we saw; a newer one stays buffered for the next flush.
+            if (pending.remove(entry.getKey(), entry.getValue())) {
+                keys.add(entry.getKey());
+                batch.add(entry.getValue());
+            }
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        List<StockLevelChangedEvent> events = batch.stream().map(PendingEvent::event).toList();
+        StockUpdateBatchResponse response;
+        try {
+            response = flushTimer.record(() -> storefrontService.applyStockUpdates(events));
+        } catch (RuntimeException e) {
+            // The events already left the buffer; put them all back instead of losing them.
+            log.warn("Stock update batch of {} events failed: {}", events.size(), e.getMessage());
+            for (int i = 0; i < batch.size(); i++) {
+                retry(keys.get(i), batch.get(i), e.getMessage());
+            }
+            return;
+        }
+        flushedEvents.increment(events.size());
+
+        for (StockUpdateResult result : response.getResults()) {
+            int index = result.getIndex();
+            if (result.getStatus() == StockUpdateResult.Status.FAILED) {
+                // STALE and INVALID results are final and never retried.
+                retry(keys.get(index), batch.get(index), result.getMessage());
+            } else {
+                stockEventJournal.ack(batch.get(index).journalSequence());
+            }
+        }
+    }
+
+    /**
+     * Puts a failed event back into the buffer, or gives up on it once it has used all its
+     * attempts. Whichever event is not kept is acknowledged.
+     */
+    private void retry(ProductKey key, PendingEvent failed, String reason) {
+        PendingEvent next = failed.nextAttempt();
+        if (next.attempts() >= maxAttempts) {
+            droppedEvents.increment();
+            log.error("Dropping stock update for product {} (org {}) after {} failed attempts: {}",
+                    key.productId(), key.organizationId(), next.attempts(), reason);
+            stockEventJournal.ack(failed.journalSequence());
+            return;
+        }
+        PendingEvent[] replaced = new PendingEvent[1];
+        // The buffered event arrived after the failed one, so it wins unless it is older.
+        PendingEvent kept = pending.merge(key, next, (current, retried) -> {
+            replaced[0] = current;
+            return newer(retried, current);
+        });
+        if (kept == next) {
+            requeuedEvents.increment();
+        }
+        if (replaced[0] != null) {
+            supersededEvents.increment();
+            stockEventJournal.ack(kept == next ? replaced[0].journalSequence() : failed.journalSequence());
+        }
+    }
+
+    /**
+     * Of two events for the same product, the one to keep: {@code later} unless its version
+     * is lower than {@code earlier}'s.
+     */
+    private static PendingEvent newer(PendingEvent earlier, PendingEvent later) {
+        return isOlder(later.event(), earlier.event()) ? earlier : later;
+    }
+
+    private static boolean isOlder(StockLevelChangedEvent event, StockLevelChangedEvent other) {
+        Long version = VersionedStockLevelChangedEvent.versionOf(event);
+        Long otherVersion = VersionedStockLevelChangedEvent.versionOf(other);
+        return version != null && otherVersion != null && version < otherVersion;
+    }
+
+    private double oldestPendingAgeMillis() {
+        long now = System.nanoTime();
+        long oldestNanos = pending.values().stream()
+                .mapToLong(p -> now - p.receivedAtNanos())
+                .max()
+                .orElse(0L);
+        return oldestNanos / 1_000_000.0;
+    }
+
+    @PreDestroy
+    void shutdown() throws InterruptedException {
+        scheduler.shutdown();
+        scheduler.awaitTermination(10, TimeUnit.SECONDS);
+        // Final, synchronous flush so the last value for every product lands before exit
+        flushSafely();
+        if (!pending.isEmpty()) {
+            log.error("{} stock updates could not be written before shutdown", pending.size());
+        }
+    }
+
+    private record ProductKey(String organizationId, String productId) {
+    }
+
+    private record PendingEvent(StockLevelChangedEvent event, long receivedAtNanos, long journalSequence, int attempts) {
+
+        PendingEvent nextAttempt() {
+            return new PendingEvent(event, receivedAtNanos, journalSequence, attempts + 1);
+        }
+    }
+}
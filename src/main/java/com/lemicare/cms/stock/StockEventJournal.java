@@ -0,0 +1,472 @@
+package com.lemicare.cms.stock;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.lemicare.cms.dto.request.VersionedStockLevelChangedEvent;
+import com.lemicare.cms.exception.ServiceCommunicationException;
+import com.lemicare.cms.service.StorefrontService;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only, memory-mapped journal of accepted stock change events.
+ * <p>
+ * The stock-update endpoint appends every event here before acknowledging it, and the
+ * pipeline {@link #ack acknowledges} the entry once the change has reached Firestore.
+ * Entries that were never acknowledged (because a write kept failing or the instance went
+ * away) are replayed into {@link StorefrontService#updateProductStockLevel} on the next
+ * startup. Only versioned events are replayed, since they are applied only if newer than
+ * the stored stock; an unversioned event could overwrite stock written since by other
+ * instances, so it is dropped.
+ * <p>
+ * The journal only protects events if {@code directory} survives the instance, i.e. it is
+ * a mounted volume. The container filesystem of Cloud Run is in memory and per instance,
+ * so journaling is off unless enabled, and enabling it without a directory fails startup.
+ * <p>
+ * Appends are group-committed: a single flusher thread forces the current segment to disk
+ * and releases every appender whose entry is covered, so one {@code fsync} serves all the
+ * events that arrived while the previous one was running. The journal is split into
+ * fixed-size segments; a segment is deleted once it and every older segment hold no
+ * unacknowledged events.
+ * <p>
+ * Entry layout: {@code [int payloadLength][long sequence][byte type][payload][int crc32]},
+ * where the payload is the event as JSON, or the acknowledged sequence for ACK entries.
+ * A zero length or a checksum mismatch marks the end of a segment.
+ */
+@Component
+public class StockEventJournal {
+    private static final Logger log = LoggerFactory.getLogger(StockEventJournal.class);
+
+    /** Returned by {@link #append} when journaling is disabled; {@link #ack} ignores it. */
+    public static final long NOT_JOURNALED = -1L;
+
+    private static final byte EVENT = 1;
+    private static final byte ACK = 2;
+    private static final int HEADER_BYTES = Integer.BYTES + Long.BYTES + 1;
+    private static final int TRAILER_BYTES = Integer.BYTES;
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    private final ObjectMapper objectMapper;
+    private final StorefrontService storefrontService;
+    private final MeterRegistry meterRegistry;
+
+    private final Object appendLock = new Object();
+    private final Object commitMonitor = new Object();
+    private final TreeMap<Long, Segment> segments = new TreeMap<>();
+    private final ConcurrentMap<Long, Long> segmentBySequence = new ConcurrentHashMap<>();
+    private final List<JournaledEvent> recovered = new ArrayList<>();
+    private Segment current;
+    private long nextSequence = 1;
+    private volatile long writtenSequence;
+    private volatile long durableSequence;
+    private volatile boolean running;
+    private Thread flusher;
+    private Timer commitTimer;
+
+    @Value("${app.stock-updates.journal.enabled:false}")
+    private boolean enabled;
+
+    @Value("${app.stock-updates.journal.directory:}")
+    private String directory;
+
+    @Value("${app.stock-updates.journal.segment-size:16MB}")
+    private DataSize segmentSize;
+
+    @Value("${app.stock-updates.journal.commit-timeout:5s}")
+    private Duration commitTimeout;
+
+    public StockEventJournal(ObjectMapper objectMapper, StorefrontService storefrontService, MeterRegistry meterRegistry) {
+        this.objectMapper = objectMapper;
+        this.storefrontService = storefrontService;
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * An event read back from the journal that was never acknowledged.
+     */
+    public record JournaledEvent(long sequence, VersionedStockLevelChangedEvent event) {
+    }
+
+    @PostConstruct
+    void open() throws IOException {
+        if (!enabled) {
+            return;
+        }
+        if (directory == null || directory.isBlank()) {
+            throw new IllegalStateException("app.stock-updates.journal.directory must point at a durable volume "
+                    + "(e.g. a mounted Cloud Run volume) when the stock event journal is enabled.");
+        }
+        Path dir = Paths.get(directory);
+        Files.createDirectories(dir);
+        recover(dir);
+
+        long nextSegmentId = segments.isEmpty() ? 1 : segments.lastKey() + 1;
+        current = openSegment(dir, nextSegmentId);
+        durableSequence = writtenSequence = nextSequence - 1;
+
+        running = true;
+        flusher = new Thread(this::flushLoop, "stock-journal-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+
+        commitTimer = Timer.builder("cms.stock.journal.commit")
+                .description("Time appenders wait for their entry to be forced to disk")
+                .register(meterRegistry);
+        Gauge.builder("cms.stock.journal.unacked", segmentBySequence, Map::size)
+                .description("Journaled stock events not yet written to Firestore")
+                .register(meterRegistry);
+        Gauge.builder("cms.stock.journal.segments", this, StockEventJournal::segmentCount)
+                .description("Journal segment files on disk")
+                .register(meterRegistry);
+        log.info("Stock event journal opened in {} with {} unacknowledged events to replay", dir.toAbsolutePath(), recovered.size());
+    }
+
+    /**
+     * Appends an event and blocks until it is durable.
+     *
+     * @return The entry's sequence, to be passed to {@link #ack} once the event is applied.
+     * @throws ServiceCommunicationException If the entry could not be written or forced to disk.
+     */
+    public long append(VersionedStockLevelChangedEvent event) {
+        if (!enabled) {
+            return NOT_JOURNALED;
+        }
+        long sequence;
+        try {
+            byte[] payload = objectMapper.writeValueAsBytes(event);
+            synchronized (appendLock) {
+                sequence = nextSequence++;
+                write(sequence, EVENT, payload);
+                segmentBySequence.put(sequence, current.id);
+                current.unacked++;
+                writtenSequence = sequence;
+            }
+        } catch (IOException e) {
+            throw new ServiceCommunicationException("Could not journal stock event for product " + event.getMedicineId() + ".", e);
+        }
+        synchronized (commitMonitor) {
+            commitMonitor.notifyAll();
+        }
+        awaitDurable(sequence);
+        return sequence;
+    }
+
+    /**
+     * Marks an entry as applied. Acknowledgements are not forced to disk: losing one only
+     * means the (idempotent) event is replayed once more.
+     */
+    public void ack(long sequence) {
+        if (sequence == NOT_JOURNALED || !enabled) {
+            return;
+        }
+        Long segmentId = segmentBySequence.remove(sequence);
+        if (segmentId == null) {
+            return;
+        }
+        synchronized (appendLock) {
+            try {
+                write(nextSequence++, ACK, ByteBuffer.allocate(Long.BYTES).putLong(sequence).array());
+            } catch (IOException e) {
+                log.warn("Could not journal acknowledgement of stock event {}: {}", sequence, e.getMessage());
+            }
+            Segment segment = segments.get(segmentId);
+            if (segment != null) {
+                segment.unacked--;
+            }
+            deleteAcknowledgedSegments();
+        }
+    }
+
+    /**
+     * Replays events that were accepted by a previous run but never applied.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void replay() {
+        if (recovered.isEmpty()) {
+            return;
+        }
+        int applied = 0;
+        int dropped = 0;
+        for (JournaledEvent entry : recovered) {
+            VersionedStockLevelChangedEvent event = entry.event();
+            if (event.getVersion() == null) {
+                log.warn("Dropping unversioned journaled stock event {} for product {}; replaying it could overwrite newer stock",
+                        entry.sequence(), event.getMedicineId());
+                ack(entry.sequence());
+                dropped++;
+                continue;
+            }
+            try {
+                // Versioned: skipped if the stored stock is already as new (StockUpdateWriter compares versions).
+                storefrontService.updateProductStockLevel(event.getOrganizationId(), event.getBranchId(), event.getMedicineId(),
+                        event.getNewTotalStock(), event.getMedicineName(), event.getMrp(), event.getTaxprofileId(),
+                        event.getGstType(), event.getCategory(), event.getVersion());
+                ack(entry.sequence());
+                applied++;
+            } catch (RuntimeException e) {
+                // Stays unacknowledged and is replayed again on the next startup.
+                log.warn("Replay of journaled stock event {} for product {} failed: {}", entry.sequence(), event.getMedicineId(), e.getMessage());
+            }
+        }
+        log.info("Replayed {} of {} journaled stock events ({} unversioned dropped)", applied, recovered.size(), dropped);
+        recovered.clear();
+    }
+
+    private void write(long sequence, byte type, byte[] payload) throws IOException {
+        int entrySize = HEADER_BYTES + payload.length + TRAILER_BYTES;
+        if (entrySize > segmentSize.toBytes()) {
+            throw new IOException("Journal entry of " + entrySize + " bytes exceeds the segment size");
+        }
+        if (current.position + entrySize > current.buffer.capacity()) {
+            rotate();
+        }
+        CRC32 crc = new CRC32();
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).putInt(payload.length).putLong(sequence).put(type);
+        crc.update(header.array(), Integer.BYTES, Long.BYTES + 1);
+        crc.update(payload);
+
+        MappedByteBuffer buffer = current.buffer;
+        int position = current.position;
+        buffer.put(position + Integer.BYTES, header.array(), Integer.BYTES, Long.BYTES + 1);
+        buffer.put(position + HEADER_BYTES, payload);
+        buffer.putInt(position + HEADER_BYTES + payload.length, (int) crc.getValue());
+        // The length goes last so a torn entry reads as the end of the segment.
+        buffer.putInt(position, payload.length);
+        current.position += entrySize;
+    }
+
+    /** Called with {@code appendLock} held. */
+    private void rotate() throws IOException {
+        current.buffer.force();
+        long sealedUpTo = writtenSequence;
+        synchronized (commitMonitor) {
+            durableSequence = Math.max(durableSequence, sealedUpTo);
+            commitMonitor.notifyAll();
+        }
+        current = openSegment(current.path.getParent(), current.id + 1);
+        deleteAcknowledgedSegments();
+    }
+
+    private void flushLoop() {
+        while (running) {
+            try {
+                long target;
+                Segment segment;
+                synchronized (appendLock) {
+                    target = writtenSequence;
+                    segment = current;
+                }
+                if (target > durableSequence) {
+                    segment.buffer.force();
+                    synchronized (commitMonitor) {
+                        durableSequence = Math.max(durableSequence, target);
+                        commitMonitor.notifyAll();
+                    }
+                } else {
+                    synchronized (commitMonitor) {
+                        if (writtenSequence <= durableSequence && running) {
+                            commitMonitor.wait(100);
+                        }
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                log.error("Stock journal flush failed", e);
+            }
+        }
+    }
+
+    private void awaitDurable(long sequence) {
+        long startNanos = System.nanoTime();
+        long deadlineNanos = startNanos + commitTimeout.toNanos();
+        synchronized (commitMonitor) {
+            while (durableSequence < sequence) {
+                long remainingMillis = TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime());
+                if (remainingMillis <= 0) {
+                    throw new ServiceCommunicationException("Timed out waiting for the stock journal to commit event " + sequence + ".");
+                }
+                try {
+                    commitMonitor.wait(remainingMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new ServiceCommunicationException("Interrupted while journaling stock event " + sequence + ".", e);
+                }
+            }
+        }
+        commitTimer.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /** Deletes the oldest segments while they hold no unacknowledged events. Called with {@code appendLock} held. */
+    private void deleteAcknowledgedSegments() {
+        Iterator<Segment> oldestFirst = segments.values().iterator();
+        while (oldestFirst.hasNext()) {
+            Segment segment = oldestFirst.next();
+            if (segment == current || segment.unacked > 0) {
+                return;
+            }
+            oldestFirst.remove();
+            try {
+                segment.channel.close();
+                Files.deleteIfExists(segment.path);
+            } catch (IOException e) {
+                log.warn("Could not delete journal segment {}: {}", segment.path, e.getMessage());
+            }
+        }
+    }
+
+    private void recover(Path dir) throws IOException {
+        List<Path> files;
+        try (Stream<Path> listing = Files.list(dir)) {
+            files = listing.filter(path -> path.getFileName().toString().startsWith(SEGMENT_PREFIX))
+                    .sorted()
+                    .toList();
+        }
+        Map<Long, JournaledEvent> pending = new TreeMap<>();
+        for (Path path : files) {
+            long segmentId = Long.parseLong(path.getFileName().toString()
+                    .substring(SEGMENT_PREFIX.length()).replace(SEGMENT_SUFFIX, ""));
+            Segment segment = new Segment(segmentId, path, FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE));
+            segment.buffer = segment.channel.map(FileChannel.MapMode.READ_WRITE, 0, segment.channel.size());
+            segments.put(segmentId, segment);
+            readEntries(segment, pending);
+        }
+        for (JournaledEvent entry : pending.values()) {
+            Long segmentId = segmentBySequence.get(entry.sequence());
+            segments.get(segmentId).unacked++;
+            recovered.add(entry);
+        }
+        synchronized (appendLock) {
+            deleteAcknowledgedSegments();
+        }
+    }
+
+    private void readEntries(Segment segment, Map<Long, JournaledEvent> pending) {
+        MappedByteBuffer buffer = segment.buffer;
+        int position = 0;
+        while (position + HEADER_BYTES + TRAILER_BYTES <= buffer.capacity()) {
+            int length = buffer.getInt(position);
+            if (length <= 0 || position + HEADER_BYTES + length + TRAILER_BYTES > buffer.capacity()) {
+                break;
+            }
+            long sequence = buffer.getLong(position + Integer.BYTES);
+            byte type = buffer.get(position + Integer.BYTES + Long.BYTES);
+            byte[] payload = new byte[length];
+            buffer.get(position + HEADER_BYTES, payload);
+
+            CRC32 crc = new CRC32();
+            crc.update(buffer.slice(position + Integer.BYTES, Long.BYTES + 1));
+            crc.update(payload);
+            if ((int) crc.getValue() != buffer.getInt(position + HEADER_BYTES + length)) {
+                log.warn("Torn entry at offset {} of journal segment {}; ignoring the rest of the segment", position, segment.path);
+                break;
+            }
+
+            nextSequence = Math.max(nextSequence, sequence + 1);
+            if (type == EVENT) {
+                try {
+                    pending.put(sequence, new JournaledEvent(sequence, objectMapper.readValue(payload, VersionedStockLevelChangedEvent.class)));
+                    segmentBySequence.put(sequence, segment.id);
+                } catch (IOException e) {
+                    log.warn("Skipping unreadable journaled stock event {}: {}", sequence, e.getMessage());
+                }
+            } else if (type == ACK) {
+                long acked = ByteBuffer.wrap(payload).getLong();
+                pending.remove(acked);
+                segmentBySequence.remove(acked);
+            }
+            position += HEADER_BYTES + length + TRAILER_BYTES;
+        }
+        segment.position = position;
+    }
+
+    private Segment openSegment(Path dir, long id) throws IOException {
+        Path path = dir.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, id, SEGMENT_SUFFIX));
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        Segment segment = new Segment(id, path, channel);
+        segment.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize.toBytes());
+        segments.put(id, segment);
+        return segment;
+    }
+
+    private int segmentCount() {
+        synchronized (appendLock) {
+            return segments.size();
+        }
+    }
+
+    /**
+     * Stops the flusher after forcing everything written so far. Unacknowledged events stay
+     * in the journal and are replayed on the next startup.
+     */
+    @PreDestroy
+    void close() throws InterruptedException {
+        if (!running) {
+            return;
+        }
+        running = false;
+        synchronized (commitMonitor) {
+            commitMonitor.notifyAll();
+        }
+        flusher.join(TimeUnit.SECONDS.toMillis(5));
+        synchronized (appendLock) {
+            current.buffer.force();
+            for (Segment segment : segments.values()) {
+                try {
+                    segment.channel.close();
+                } catch (IOException e) {
+                    log.warn("Could not close journal segment {}: {}", segment.path, e.getMessage());
+                }
+            }
+        }
+        if (!segmentBySequence.isEmpty()) {
+            log.warn("{} stock events remain unacknowledged in the journal and will be replayed on restart", segmentBySequence.size());
+        }
+    }
+
+    private static final class Segment {
+        private final long id;
+        private final Path path;
+        private final FileChannel channel;
+        private MappedByteBuffer buffer;
+        private int position;
+        private int unacked;
+
+        private Segment(long id, Path path, FileChannel channel) {
+            this.id = id;
+            this.path = path;
+            this.channel = channel;
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package com.lemicare.cms.stock;
+
+import com.lemicare.cms.dto.request.VersionedStockLevelChangedEvent;
+import com.lemicare.cms.service.StorefrontService;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounded hand-off between the stock-update endpoint and the Firestore writes, so that
+ * inventory's publisher is acknowledged as soon as an event is queued instead of waiting
+ * for our Firestore latency.
+ * <p>
+ * Events are sharded by (organization, product) onto single-threaded workers, which keeps
+ * the events of one product in arrival order. When a shard is full, {@link #offer} returns
+ * {@code false} and the caller signals backpressure to the sender.
+ * <p>
+ * Workers hand events to the {@link StockEventCoalescer} when coalescing is enabled and
+ * otherwise write them directly, retrying failed writes a few times before giving up.
+ * Directly written events are acknowledged in the {@link StockEventJournal}; events that
+ * exhaust their attempts stay in the journal and are replayed on the next startup.
+ */
+@Component
+public class StockEventQueue {
+    private static final Logger log = LoggerFactory.getLogger(StockEventQueue.class);
+
+    private final StorefrontService storefrontService;
+    private final StockEventCoalescer stockEventCoalescer;
+    private final StockEventJournal stockEventJournal;
+    private final MeterRegistry meterRegistry;
+    private final List<BlockingQueue<QueuedEvent>> shards = new ArrayList<>();
+    private final List<Thread> workers = new ArrayList<>();
+    private volatile boolean running;
+
+    private final Counter acceptedEvents;
+    private final Counter rejectedEvents;
+    private final Counter processedEvents;
+    private final Counter failedEvents;
+    private final Timer processingTimer;
+
+    @Value("${app.stock-updates.queue.capacity:10000}")
+    private int capacity;
+
+    @Value("${app.stock-updates.queue.workers:4}")
+    private int workerCount;
+
+    @Value("${app.stock-updates.queue.max-attempts:3}")
+    private int maxAttempts;
+
+    @Value("${app.stock-updates.queue.retry-backoff:500ms}")
+    private Duration retryBackoff;
+
+    @Value("${app.stock-updates.coalescing.enabled:true}")
+    private boolean coalesce;
+
+    public StockEventQueue(StorefrontService storefrontService, StockEventCoalescer stockEventCoalescer,
+                           StockEventJournal stockEventJournal, MeterRegistry meterRegistry) {
+        this.storefrontService = storefrontService;
+        this.stockEventCoalescer = stockEventCoalescer;
+        this.stockEventJournal = stockEventJournal;
+        this.meterRegistry = meterRegistry;
+        this.acceptedEvents = Counter.builder("cms.stock.queue.accepted")
+                .description("Stock events accepted into the queue")
+                .register(meterRegistry);
+        this.rejectedEvents = Counter.builder("cms.stock.queue.rejected")
+                .description("Stock events rejected with 429 because the queue was full")
+                .register(meterRegistry);
+        this.processedEvents = Counter.builder("cms.stock.queue.processed")
+                .description("Stock events taken off the queue and applied")
+                .register(meterRegistry);
+        this.failedEvents = Counter.builder("cms.stock.queue.failed")
+                .description("Stock events dropped after exhausting their write attempts")
+                .register(meterRegistry);
+        this.processingTimer = Timer.builder("cms.stock.queue.processing")
+                .description("Time spent applying one queued stock event")
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    void start() {
+        int shardCount = Math.max(1, workerCount);
+        int shardCapacity = Math.max(1, capacity / shardCount);
+        running = true;
+        for (int i = 0; i < shardCount; i++) {
+            BlockingQueue<QueuedEvent> shard = new ArrayBlockingQueue<>(shardCapacity);
+            shards.add(shard);
+            Thread worker = new Thread(() -> drain(shard), "stock-queue-" + i);
+            worker.setDaemon(true);
+            workers.add(worker);
+            worker.start();
+        }
+        Gauge.builder("cms.stock.queue.depth", this, StockEventQueue::depth)
+                .description("Stock events waiting to be applied")
+                .register(meterRegistry);
+        Gauge.builder("cms.stock.queue.age", this, StockEventQueue::oldestAgeMillis)
+                .description("Age in milliseconds of the oldest queued stock event")
+                .baseUnit("milliseconds")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Queues an event without blocking.
+     *
+     * @param journalSequence The event's {@link StockEventJournal} entry, acknowledged once applied.
+     * @return {@code false} if the event's shard is full or the queue is shutting down.
+     */
+    public boolean offer(VersionedStockLevelChangedEvent event, long journalSequence) {
+        if (!running) {
+            rejectedEvents.increment();
+            return false;
+        }
+        if (shardFor(event).offer(new QueuedEvent(event, System.nanoTime(), journalSequence))) {
+            acceptedEvents.increment();
+            return true;
+        }
+        rejectedEvents.increment();
+        return false;
+    }
+
+    private BlockingQueue<QueuedEvent> shardFor(VersionedStockLevelChangedEvent event) {
+        int hash = (event.getOrganizationId() + "/" + event.getMedicineId()).hashCode();
+        return shards.get(Math.floorMod(hash, shards.size()));
+    }
+
+    private void drain(BlockingQueue<QueuedEvent> shard) {
+        while (running || !shard.isEmpty()) {
+            QueuedEvent queued;
+            try {
+                queued = shard.poll(1, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            if (queued != null) {
+                processingTimer.record(() -> apply(queued.event(), queued.journalSequence()));
+            }
+        }
+    }
+
+    private void apply(VersionedStockLevelChangedEvent event, long journalSequence) {
+        if (coalesce) {
+            stockEventCoalescer.submit(event, journalSequence);
+            processedEvents.increment();
+            return;
+        }
+        for (int attempt = 1; ; attempt++) {
+            try {
+                storefrontService.updateProductStockLevel(event.getOrganizationId(), event.getBranchId(), event.getMedicineId(),
+                        event.getNewTotalStock(), event.getMedicineName(), event.getMrp(), event.getTaxprofileId(),
+                        event.getGstType(), event.getCategory(), event.getVersion());
+                stockEventJournal.ack(journalSequence);
+                processedEvents.increment();
+                return;
+            } catch (RuntimeException e) {
+                if (attempt >= maxAttempts) {
+                    failedEvents.increment();
+                    log.error("Dropping stock update for product {} (org {}) after {} attempts", event.getMedicineId(), event.getOrganizationId(), attempt, e);
+                    return;
+                }
+                log.warn("Stock update for product {} (org {}) failed, retrying: {}", event.getMedicineId(), event.getOrganizationId(), e.getMessage());
+                try {
+                    Thread.sleep(retryBackoff.toMillis() * attempt);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    private double depth() {
+        return shards.stream().mapToInt(BlockingQueue::size).sum();
+    }
+
+    private double oldestAgeMillis() {
+        long now = System.nanoTime();
+        long oldestNanos = 0;
+        for (BlockingQueue<QueuedEvent> shard : shards) {
+            QueuedEvent head = shard.peek();
+            if (head != null) {
+                oldestNanos = Math.max(oldestNanos, now - head.enqueuedAtNanos());
+            }
+        }
+        return oldestNanos / 1_000_000.0;
+    }
+
+    /**
+     * Stops accepting events and lets the workers drain what is already queued.
+     * Runs before the coalescer's own shutdown flush, which depends on this bean.
+     */
+    @PreDestroy
+    void shutdown() throws InterruptedException {
+        running = false;
+        for (Thread worker : workers) {
+            worker.join(TimeUnit.SECONDS.toMillis(10));
+        }
+        int remaining = (int) depth();
+        if (remaining > 0) {
+            log.error("{} queued stock updates could not be applied before shutdown", remaining);
+        }
+    }
+
+    private record QueuedEvent(VersionedStockLevelChangedEvent event, long enqueuedAtNanos, long journalSequence) {
+    }
+}
@@ -0,0 +1,158 @@
+package com.lemicare.cms.stock;
+
+import com.google.cloud.Timestamp;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * In-process, per-tenant projection of product stock levels, fed by the
+ * {@code StockLevelChangedEvent}s that inventory pushes to {@code /api/internal/stock-updates}.
+ * <p>
+ * Writes made by other instances arrive through the catalog listeners, which apply the
+ * stock of every changed product document with {@link #record}. Entries not refreshed for
+ * {@code max-age} are reported as unknown, which bounds how long a missed update can be
+ * served when no listener is active (the same safety net as the catalog TTL).
+ * <p>
+ * Listing pages read stock from here and only ask the inventory service for products
+ * this instance does not know. Each entry also remembers the version of the event that
+ * produced it and the Firestore update time of the last write made by this instance,
+ * which lets {@link StockUpdateWriter} reject stale events and write the next update
+ * without reading the document first.
+ */
+@Component
+public class StockProjection {
+
+    private final ConcurrentMap<String, ConcurrentMap<String, Entry>> stockByOrg = new ConcurrentHashMap<>();
+
+    private final Duration maxAge;
+
+    public StockProjection(@Value("${app.stock-updates.projection.max-age:10m}") Duration maxAge,
+                           MeterRegistry meterRegistry) {
+        this.maxAge = maxAge;
+        Gauge.builder("cms.stock.projection.entries", this, StockProjection::size)
+                .description("Products whose stock level is held in the local projection")
+                .register(meterRegistry);
+    }
+
+    /**
+     * @param stockLevel The last known stock level.
+     * @param version    The version of the event that set it, or {@code null} if unknown.
+     * @param updateTime The document's update time after our last write, or {@code null}
+     *                   if the document may have changed since (forces a read next time).
+     * @param recordedAt The time the value was recorded, for expiry.
+     */
+    public record Entry(int stockLevel, Long version, Timestamp updateTime, Instant recordedAt) {
+    }
+
+    /**
+     * Records a stock level unless it comes from an event older than the one already held.
+     * Unversioned values are always accepted and keep the currently known version.
+     *
+     * @return {@code true} if the value was applied, {@code false} if it was stale.
+     */
+    public boolean record(String orgId, String productId, int stockLevel, Long version, Timestamp updateTime) {
+        ConcurrentMap<String, Entry> orgStock = stockByOrg.computeIfAbsent(orgId, id -> new ConcurrentHashMap<>());
+        boolean[] applied = {false};
+        orgStock.compute(productId, (key, current) -> {
+            if (current != null && isOlder(version, current.version())) {
+                return current;
+            }
+            applied[0] = true;
+            Long effectiveVersion = version != null ? version : current != null ? current.version() : null;
+            return new Entry(stockLevel, effectiveVersion, updateTime, Instant.now());
+        });
+        return applied[0];
+    }
+
+    /**
+     * Seeds values fetched from inventory for products that have no current entry. An
+     * expired entry is refreshed but keeps its version, so older events stay rejected.
+     */
+    public void seed(String orgId, Map<String, Integer> stockLevels) {
+        ConcurrentMap<String, Entry> orgStock = stockByOrg.computeIfAbsent(orgId, id -> new ConcurrentHashMap<>());
+        Instant now = Instant.now();
+        stockLevels.forEach((productId, stock) -> {
+            if (stock != null) {
+                orgStock.compute(productId, (key, current) -> current == null || isExpired(current, now)
+                        ? new Entry(stock, current != null ? current.version() : null, null, now)
+                        : current);
+            }
+        });
+    }
+
+    public Optional<Entry> find(String orgId, String productId) {
+        Map<String, Entry> orgStock = stockByOrg.get(orgId);
+        return Optional.ofNullable(orgStock != null ? orgStock.get(productId) : null);
+    }
+
+    /**
+     * Returns the known stock levels for the given products. Products never seen by this
+     * instance, or not refreshed within {@code max-age}, are absent from the result.
+     */
+    public Map<String, Integer> getStockLevels(String orgId, Collection<String> productIds) {
+        Map<String, Entry> orgStock = stockByOrg.get(orgId);
+        Map<String, Integer> known = new HashMap<>();
+        if (orgStock == null) {
+            return known;
+        }
+        Instant now = Instant.now();
+        for (String productId : productIds) {
+            Entry entry = orgStock.get(productId);
+            if (entry != null && !isExpired(entry, now)) {
+                known.put(productId, entry.stockLevel());
+            }
+        }
+        return known;
+    }
+
+    public List<String> unknownProducts(String orgId, Collection<String> productIds) {
+        Map<String, Entry> orgStock = stockByOrg.get(orgId);
+        if (orgStock == null) {
+            return List.copyOf(productIds);
+        }
+        Instant now = Instant.now();
+        return productIds.stream().filter(id -> {
+            Entry entry = orgStock.get(id);
+            return entry == null || isExpired(entry, now);
+        }).toList();
+    }
+
+    public void forget(String orgId, String productId) {
+        Map<String, Entry> orgStock = stockByOrg.get(orgId);
+        if (orgStock != null) {
+            orgStock.remove(productId);
+        }
+    }
+
+    /**
+     * Whether an event with the given version is already covered by the known version.
+     * Equal versions count as covered, so redelivered events are dropped.
+     */
+    public static boolean isCovered(Long incoming, Long known) {
+        return incoming != null && known != null && incoming <= known;
+    }
+
+    private boolean isExpired(Entry entry, Instant now) {
+        return entry.recordedAt().plus(maxAge).isBefore(now);
+    }
+
+    private static boolean isOlder(Long incoming, Long known) {
+        return incoming != null && known != null && incoming < known;
+    }
+
+    private double size() {
+        return stockByOrg.values().stream().mapToInt(Map::size).sum();
+    }
+}
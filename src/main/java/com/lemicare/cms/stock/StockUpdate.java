@@ -0,0 +1,16 @@
+package com.lemicare.cms.stock;
+
+/**
+ * The subset of a {@code StockLevelChangedEvent} that the CMS persists on the
+ * corresponding {@code StorefrontProduct}, plus the event version ({@code null} if the
+ * event carried none).
+ */
+public record StockUpdate(
+        String organizationId,
+        String productId,
+        int stockLevel,
+        String currentStatus,
+        String productName,
+        Double mrp,
+        Long version) {
+}
@@ -0,0 +1,267 @@
+package com.lemicare.cms.stock;
+
+import com.google.api.core.ApiFuture;
+import com.google.api.gax.rpc.ApiException;
+import com.google.cloud.Timestamp;
+import com.google.cloud.firestore.BulkWriter;
+import com.google.cloud.firestore.BulkWriterException;
+import com.google.cloud.firestore.BulkWriterOptions;
+import com.google.cloud.firestore.DocumentReference;
+import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.FirestoreException;
+import com.google.cloud.firestore.Precondition;
+import com.google.cloud.firestore.WriteResult;
+import com.lemicare.cms.firestore.StorefrontFirestorePaths;
+import io.grpc.Status;
+import lombok.RequiredArgsConstructor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Applies stock updates to storefront product documents with field-level Firestore
+ * writes, without reading the documents first whenever possible.
+ * <p>
+ * Versioned updates are ordered with the {@code stockVersion} field stored on the product.
+ * When this instance made the last write to a document, it knows the document's update
+ * time from the {@link StockProjection} and writes with an {@code updatedAt} precondition
+ * instead of reading: if anyone else touched the document in between, the precondition
+ * fails and the writer falls back to read-compare-write. Events whose version is not newer
+ * than the stored one are reported as {@link Outcome#STALE} and never written. Unversioned
+ * updates are written unconditionally, but still require the document to exist: a bare
+ * field write would otherwise create a partial product that the create path never sees.
+ * <p>
+ * Batches go through a Firestore {@link BulkWriter}, which parallelises the writes and
+ * throttles them to {@code max-ops-per-second}. Documents that do not exist are reported
+ * as {@link Outcome#NOT_FOUND} so the caller can fall back to the create path.
+ */
+@Component
+@RequiredArgsConstructor
+public class StockUpdateWriter {
+    private static final Logger log = LoggerFactory.getLogger(StockUpdateWriter.class);
+
+    static final String STOCK_VERSION_FIELD = "stockVersion";
+
+    private final Firestore firestore;
+    private final StorefrontFirestorePaths paths;
+    private final StockProjection stockProjection;
+
+    @Value("${app.stock-updates.bulk-writer.initial-ops-per-second:100}")
+    private int initialOpsPerSecond;
+
+    @Value("${app.stock-updates.bulk-writer.max-ops-per-second:500}")
+    private int maxOpsPerSecond;
+
+    @Value("${app.stock-updates.bulk-writer.max-attempts:5}")
+    private int maxAttempts;
+
+    public enum Outcome { APPLIED, STALE, NOT_FOUND, FAILED }
+
+    public record WriteOutcome(StockUpdate update, Outcome outcome, String message) {
+    }
+
+    /**
+     * Writes a single update, retrying with a fresh read when the document changed under us.
+     */
+    public WriteOutcome writeOne(StockUpdate update) {
+        StockProjection.Entry known = stockProjection.find(update.organizationId(), update.productId()).orElse(null);
+        if (known != null && StockProjection.isCovered(update.version(), known.version())) {
+            return new WriteOutcome(update, Outcome.STALE, null);
+        }
+
+        DocumentReference ref = paths.product(update.organizationId(), update.productId());
+        Precondition precondition = update.version() == null ? Precondition.exists(true)
+                : known != null && known.updateTime() != null ? Precondition.updatedAt(known.updateTime()) : null;
+
+        for (int attempt = 1; attempt <= maxAttempts; attempt++) {
+            try {
+                if (precondition == null) {
+                    DocumentSnapshot snapshot = ref.get().get();
+                    if (!snapshot.exists()) {
+                        return new WriteOutcome(update, Outcome.NOT_FOUND, null);
+                    }
+                    if (StockProjection.isCovered(update.version(), snapshot.getLong(STOCK_VERSION_FIELD))) {
+                        return new WriteOutcome(update, Outcome.STALE, null);
+                    }
+                    precondition = Precondition.updatedAt(snapshot.getUpdateTime());
+                }
+                WriteResult result = ref.update(toFields(update), precondition).get();
+                return applied(update, result.getUpdateTime());
+            } catch (ExecutionException e) {
+                if (hasCode(e.getCause(), Status.Code.NOT_FOUND)) {
+                    return new WriteOutcome(update, Outcome.NOT_FOUND, null);
+                }
+                if (hasCode(e.getCause(), Status.Code.FAILED_PRECONDITION) && update.version() != null) {
+                    // Someone else wrote the document since our last write; re-read and compare.
+                    precondition = null;
+                    continue;
+                }
+                log.warn("Stock update for product {} (org {}) failed: {}", update.productId(), update.organizationId(), e.getCause().getMessage());
+                return new WriteOutcome(update, Outcome.FAILED, e.getCause().getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return new WriteOutcome(update, Outcome.FAILED, "Interrupted");
+            }
+        }
+        return new WriteOutcome(update, Outcome.FAILED, "Document kept changing after " + maxAttempts + " attempts");
+    }
+
+    /**
+     * Writes all updates through one BulkWriter and waits for every write to settle.
+     * The caller must not pass two updates for the same document, because BulkWriter
+     * does not guarantee the order of writes.
+     *
+     * @return One outcome per update, in input order.
+     */
+    public List<WriteOutcome> writeAll(List<StockUpdate> updates) {
+        if (updates.isEmpty()) {
+            return List.of();
+        }
+
+        WriteOutcome[] outcomes = new WriteOutcome[updates.size()];
+        Precondition[] preconditions = new Precondition[updates.size()];
+        List<Integer> unknown = new ArrayList<>();
+        for (int i = 0; i < updates.size(); i++) {
+            StockUpdate update = updates.get(i);
+            StockProjection.Entry known = stockProjection.find(update.organizationId(), update.productId()).orElse(null);
+            if (known != null && StockProjection.isCovered(update.version(), known.version())) {
+                outcomes[i] = new WriteOutcome(update, Outcome.STALE, null);
+            } else if (update.version() == null) {
+                preconditions[i] = Precondition.exists(true);
+            } else if (known != null && known.updateTime() != null) {
+                preconditions[i] = Precondition.updatedAt(known.updateTime());
+            } else {
+                unknown.add(i);
+            }
+        }
+        readPreconditions(updates, unknown, preconditions, outcomes);
+
+        BulkWriter bulkWriter = firestore.bulkWriter(BulkWriterOptions.builder()
+                .setInitialOpsPerSecond(Math.min(initialOpsPerSecond, maxOpsPerSecond))
+                .setMaxOpsPerSecond(maxOpsPerSecond)
+                .build());
+        // Missing documents and lost races are handled below; only retry transient failures.
+        bulkWriter.addWriteErrorListener(error ->
+                error.getStatus().getCode() != Status.Code.NOT_FOUND
+                        && error.getStatus().getCode() != Status.Code.FAILED_PRECONDITION
+                        && error.getFailedAttempts() < maxAttempts);
+
+        List<ApiFuture<WriteResult>> futures = new ArrayList<>(updates.size());
+        for (int i = 0; i < updates.size(); i++) {
+            StockUpdate update = updates.get(i);
+            futures.add(outcomes[i] != null ? null
+                    : bulkWriter.update(paths.product(update.organizationId(), update.productId()), toFields(update), preconditions[i]));
+        }
+
+        try {
+            bulkWriter.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.warn("Interrupted while flushing {} stock updates", updates.size());
+        } catch (ExecutionException e) {
+            // Individual failures are reported through their own futures below.
+            log.debug("BulkWriter reported failures while flushing stock updates: {}", e.getMessage());
+        }
+
+        for (int i = 0; i < updates.size(); i++) {
+            if (outcomes[i] == null) {
+                outcomes[i] = outcomeOf(updates.get(i), futures.get(i));
+            }
+        }
+        return Arrays.asList(outcomes);
+    }
+
+    static Map<String, Object> toFields(StockUpdate update) {
+        Map<String, Object> fields = new HashMap<>();
+        fields.put("stockLevel", update.stockLevel());
+        fields.put("currentStatus", update.currentStatus());
+        fields.put("productName", update.productName());
+        fields.put("mrp", update.mrp());
+        if (update.version() != null) {
+            fields.put(STOCK_VERSION_FIELD, update.version());
+        }
+        return fields;
+    }
+
+    /**
+     * Reads, in one {@code getAll}, the documents of versioned updates whose last update
+     * time is unknown, and turns each into a precondition or a terminal outcome.
+     */
+    private void readPreconditions(List<StockUpdate> updates, List<Integer> indexes,
+                                   Precondition[] preconditions, WriteOutcome[] outcomes) {
+        if (indexes.isEmpty()) {
+            return;
+        }
+        DocumentReference[] refs = indexes.stream()
+                .map(updates::get)
+                .map(update -> paths.product(update.organizationId(), update.productId()))
+                .toArray(DocumentReference[]::new);
+        try {
+            List<DocumentSnapshot> snapshots = firestore.getAll(refs).get();
+            for (int j = 0; j < indexes.size(); j++) {
+                int i = indexes.get(j);
+                DocumentSnapshot snapshot = snapshots.get(j);
+                if (!snapshot.exists()) {
+                    outcomes[i] = new WriteOutcome(updates.get(i), Outcome.NOT_FOUND, null);
+                } else if (StockProjection.isCovered(updates.get(i).version(), snapshot.getLong(STOCK_VERSION_FIELD))) {
+                    outcomes[i] = new WriteOutcome(updates.get(i), Outcome.STALE, null);
+                } else {
+                    preconditions[i] = Precondition.updatedAt(snapshot.getUpdateTime());
+                }
+            }
+        } catch (ExecutionException | InterruptedException e) {
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+            log.warn("Failed to read stock versions for {} products: {}", indexes.size(), e.getMessage());
+            for (int i : indexes) {
+                outcomes[i] = new WriteOutcome(updates.get(i), Outcome.FAILED, "Could not read current stock version");
+            }
+        }
+    }
+
+    private WriteOutcome outcomeOf(StockUpdate update, ApiFuture<WriteResult> future) {
+        try {
+            return applied(update, future.get().getUpdateTime());
+        } catch (ExecutionException e) {
+            if (hasCode(e.getCause(), Status.Code.NOT_FOUND)) {
+                return new WriteOutcome(update, Outcome.NOT_FOUND, null);
+            }
+            if (hasCode(e.getCause(), Status.Code.FAILED_PRECONDITION)) {
+                return writeOne(update);
+            }
+            log.warn("Stock update for product {} (org {}) failed: {}", update.productId(), update.organizationId(), e.getCause().getMessage());
+            return new WriteOutcome(update, Outcome.FAILED, e.getCause().getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new WriteOutcome(update, Outcome.FAILED, "Interrupted");
+        }
+    }
+
+    private WriteOutcome applied(StockUpdate update, Timestamp updateTime) {
+        stockProjection.record(update.organizationId(), update.productId(), update.stockLevel(), update.version(), updateTime);
+        return new WriteOutcome(update, Outcome.APPLIED, null);
+    }
+
+    private static boolean hasCode(Throwable error, Status.Code code) {
+        if (error instanceof BulkWriterException writeError) {
+            return writeError.getStatus().getCode() == code;
+        }
+        if (error instanceof ApiException apiError) {
+            return apiError.getStatusCode().getCode().name().equals(code.name());
+        }
+        if (error instanceof FirestoreException firestoreError && firestoreError.getStatus() != null) {
+            return firestoreError.getStatus().getCode() == code;
+        }
+        return false;
+    }
+}
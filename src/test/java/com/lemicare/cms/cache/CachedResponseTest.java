@@ -0,0 +1,31 @@
+package com.lemicare.cms.cache;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CachedResponseTest {
+
+    private final CachedResponse response = new CachedResponse(new byte[0], "\"v2\"", Instant.now());
+
+    @Test
+    void matchesAnyTagOfAList() {
+        assertThat(response.matches("\"v1\", \"v2\"")).isTrue();
+        assertThat(response.matches("\"v1\", \"v3\"")).isFalse();
+    }
+
+    @Test
+    void matchesWildcardAndWeakValidators() {
+        assertThat(response.matches("*")).isTrue();
+        assertThat(response.matches("W/\"v2\"")).isTrue();
+        assertThat(response.matches("W/\"v1\"")).isFalse();
+    }
+
+    @Test
+    void missingHeaderNeverMatches() {
+        assertThat(response.matches(null)).isFalse();
+        assertThat(response.matches(" ")).isFalse();
+    }
+}
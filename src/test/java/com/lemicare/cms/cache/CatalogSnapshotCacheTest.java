@@ -0,0 +1,105 @@
+package com.lemicare.cms.cache;
+
+import com.cosmicdoc.common.model.StorefrontProduct;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+
+class CatalogSnapshotCacheTest {
+
+    private static final String ORG = "org-1";
+
+    private CatalogSnapshotCache cache;
+
+    @BeforeEach
+    void setUp() {
+        cache = new CatalogSnapshotCache(mock(ApplicationEventPublisher.class));
+        ReflectionTestUtils.setField(cache, "ttl", Duration.ofMinutes(10));
+    }
+
+    @Test
+    void loadOverlappingAWriteIsReturnedButNotCached() {
+        AtomicInteger loads = new AtomicInteger();
+
+        List<StorefrontProduct> first = cache.getProducts(ORG, () -> {
+            loads.incrementAndGet();
+            // A write is applied while the (now possibly stale) catalog is being read;
+            // under a map lock this would fail as a recursive update.
+            cache.upsert(ORG, product("p2"));
+            return List.of(product("p1"));
+        });
+        List<StorefrontProduct> second = cache.getProducts(ORG, () -> {
+            loads.incrementAndGet();
+            return List.of(product("p1"), product("p2"));
+        });
+
+        assertThat(first).extracting(StorefrontProduct::getProductId).containsExactly("p1");
+        assertThat(second).extracting(StorefrontProduct::getProductId).containsExactly("p1", "p2");
+        assertThat(loads).hasValue(2);
+    }
+
+    @Test
+    void concurrentCallersShareOneLoad() throws Exception {
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        CompletableFuture<List<StorefrontProduct>> leader = CompletableFuture.supplyAsync(() -> cache.getProducts(ORG, () -> {
+            loads.incrementAndGet();
+            loading.countDown();
+            await(release);
+            return List.of(product("p1"));
+        }));
+        assertThat(loading.await(5, TimeUnit.SECONDS)).isTrue();
+        CompletableFuture<List<StorefrontProduct>> follower = CompletableFuture.supplyAsync(() -> cache.getProducts(ORG, () -> {
+            loads.incrementAndGet();
+            return List.of();
+        }));
+        Thread.sleep(50); // Let the follower join the load in flight
+        release.countDown();
+
+        assertThat(leader.get(5, TimeUnit.SECONDS)).hasSize(1);
+        assertThat(follower.get(5, TimeUnit.SECONDS)).hasSize(1);
+        assertThat(loads).hasValue(1);
+    }
+
+    @Test
+    void failedLoadIsNotCached() {
+        assertThatThrownBy(() -> cache.getProducts(ORG, () -> {
+            throw new IllegalStateException("Firestore unavailable");
+        })).isInstanceOf(IllegalStateException.class);
+
+        assertThat(cache.getProducts(ORG, () -> List.of(product("p1")))).hasSize(1);
+    }
+
+    @Test
+    void productListIsUnmodifiable() {
+        List<StorefrontProduct> products = cache.getProducts(ORG, () -> List.of(product("p1")));
+
+        assertThatThrownBy(() -> products.add(product("p2"))).isInstanceOf(UnsupportedOperationException.class);
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static StorefrontProduct product(String productId) {
+        return StorefrontProduct.builder().productId(productId).build();
+    }
+}
@@ -0,0 +1,92 @@
+package com.lemicare.cms.cache;
+
+import com.lemicare.cms.firestore.ImageAssetRecordStore;
+import com.lemicare.cms.image.ImagePlaceholder;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class ImagePlaceholderCacheTest {
+
+    private static final String ORG = "org-1";
+    private static final ImagePlaceholder PLACEHOLDER = new ImagePlaceholder("LEHV6nWB2yk8", "#a0b0c0");
+
+    private final ImageAssetRecordStore store = mock(ImageAssetRecordStore.class);
+    private ImagePlaceholderCache cache;
+
+    @BeforeEach
+    void setUp() {
+        cache = new ImagePlaceholderCache(store);
+        ReflectionTestUtils.setField(cache, "ttl", Duration.ofMinutes(10));
+        ReflectionTestUtils.setField(cache, "missReloadInterval", Duration.ZERO);
+    }
+
+    @Test
+    void knownMissDoesNotReloadAgain() throws InterruptedException {
+        when(store.findPlaceholders(ORG)).thenReturn(Map.of("a1", PLACEHOLDER));
+
+        cache.get(ORG, List.of("a1", "legacy"));
+        Thread.sleep(5); // Past the miss reload interval
+        cache.get(ORG, List.of("a1", "legacy"));
+        cache.get(ORG, List.of("legacy"));
+
+        verify(store, times(1)).findPlaceholders(ORG);
+    }
+
+    @Test
+    void unknownAssetReloadsAndPicksUpOtherInstances() throws InterruptedException {
+        when(store.findPlaceholders(ORG)).thenReturn(Map.of("a1", PLACEHOLDER), Map.of("a1", PLACEHOLDER, "a2", PLACEHOLDER));
+
+        cache.get(ORG, List.of("a1"));
+        Thread.sleep(5);
+        Map<String, ImagePlaceholder> placeholders = cache.get(ORG, List.of("a2"));
+
+        assertThat(placeholders).containsKey("a2");
+        verify(store, times(2)).findPlaceholders(ORG);
+    }
+
+    @Test
+    void putClearsAKnownMiss() {
+        when(store.findPlaceholders(ORG)).thenReturn(Map.of());
+        cache.get(ORG, List.of("a1"));
+
+        cache.put(ORG, "a1", PLACEHOLDER);
+
+        assertThat(cache.get(ORG, List.of("a1"))).containsEntry("a1", PLACEHOLDER);
+        verify(store, times(1)).findPlaceholders(ORG);
+    }
+
+    @Test
+    void concurrentCallersShareOneLoad() throws Exception {
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        when(store.findPlaceholders(ORG)).thenAnswer(invocation -> {
+            loading.countDown();
+            release.await(5, TimeUnit.SECONDS);
+            return Map.of("a1", PLACEHOLDER);
+        });
+
+        CompletableFuture<Map<String, ImagePlaceholder>> leader = CompletableFuture.supplyAsync(() -> cache.get(ORG, List.of("a1")));
+        assertThat(loading.await(5, TimeUnit.SECONDS)).isTrue();
+        CompletableFuture<Map<String, ImagePlaceholder>> follower = CompletableFuture.supplyAsync(() -> cache.get(ORG, List.of("a1")));
+        Thread.sleep(50); // Let the follower join the load in flight
+        release.countDown();
+
+        assertThat(leader.get(5, TimeUnit.SECONDS)).containsKey("a1");
+        assertThat(follower.get(5, TimeUnit.SECONDS)).containsKey("a1");
+        verify(store, times(1)).findPlaceholders(ORG);
+    }
+}
@@ -0,0 +1,61 @@
+package com.lemicare.cms.cache;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PublicResponseCacheTest {
+
+    private static final String ORG = "org-1";
+
+    private PublicResponseCache cache;
+
+    @BeforeEach
+    void setUp() {
+        cache = new PublicResponseCache(new ObjectMapper());
+        ReflectionTestUtils.setField(cache, "ttl", Duration.ofMinutes(10));
+        ReflectionTestUtils.setField(cache, "maxEntriesPerOrg", 2);
+    }
+
+    @Test
+    void bodyProducedBeforeAnInvalidationIsNotCached() {
+        AtomicInteger loads = new AtomicInteger();
+
+        cache.get(ORG, PublicResponseCache.PRODUCTS, () -> {
+            loads.incrementAndGet();
+            // A catalog write lands while the stale body is being read.
+            cache.onCatalogChanged(CatalogChangedEvent.products(ORG, Set.of("p1")));
+            return "stale";
+        });
+        CachedResponse next = cache.get(ORG, PublicResponseCache.PRODUCTS, () -> {
+            loads.incrementAndGet();
+            return "fresh";
+        });
+
+        assertThat(loads).hasValue(2);
+        assertThat(new String(next.body())).isEqualTo("\"fresh\"");
+    }
+
+    @Test
+    void fullOrganizationEvictsOnlyTheLeastRecentlyUsedEntry() {
+        cache.get(ORG, "a", () -> "a");
+        cache.get(ORG, "b", () -> "b");
+        cache.get(ORG, "a", () -> "unused"); // "a" is now the most recently used
+        cache.get(ORG, "c", () -> "c");
+
+        AtomicInteger loads = new AtomicInteger();
+        cache.get(ORG, "a", () -> { loads.incrementAndGet(); return "a"; });
+        cache.get(ORG, "c", () -> { loads.incrementAndGet(); return "c"; });
+        assertThat(loads).hasValue(0);
+
+        cache.get(ORG, "b", () -> { loads.incrementAndGet(); return "b"; });
+        assertThat(loads).hasValue(1);
+    }
+}
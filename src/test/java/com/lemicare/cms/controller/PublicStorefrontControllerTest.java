@@ -0,0 +1,40 @@
+package com.lemicare.cms.controller;
+
+import com.lemicare.cms.cache.PublicResponseCache;
+import com.lemicare.cms.image.ImageRenditions;
+import com.lemicare.cms.service.StorefrontService;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class PublicStorefrontControllerTest {
+
+    private static final String ETAG = "\"a1-w600.webp\"";
+
+    private final ImageRenditions imageRenditions = mock(ImageRenditions.class);
+    private final PublicStorefrontController controller =
+            new PublicStorefrontController(mock(StorefrontService.class), mock(PublicResponseCache.class), imageRenditions);
+
+    @Test
+    void imageIsNotModifiedForAListOrWeakValidator() throws Exception {
+        when(imageRenditions.etag("a1", 600, "webp")).thenReturn(ETAG);
+
+        for (String ifNoneMatch : new String[]{"\"other\", " + ETAG, "W/" + ETAG, "*"}) {
+            MockHttpServletResponse response = new MockHttpServletResponse();
+            controller.getProductImage("org-1", "p1", "a1", 600, "webp", null, ifNoneMatch, response);
+
+            assertThat(response.getStatus()).as(ifNoneMatch).isEqualTo(HttpStatus.NOT_MODIFIED.value());
+            assertThat(response.getHeader("ETag")).isEqualTo(ETAG);
+        }
+        verify(imageRenditions, never()).render(any(), anyInt(), anyString());
+    }
+}
@@ -0,0 +1,220 @@
+package com.lemicare.cms.firestore;
+
+import com.cosmicdoc.common.model.StorefrontProduct;
+import com.google.cloud.Timestamp;
+import com.google.cloud.firestore.CollectionReference;
+import com.google.cloud.firestore.DocumentChange;
+import com.google.cloud.firestore.EventListener;
+import com.google.cloud.firestore.ListenerRegistration;
+import com.google.cloud.firestore.QueryDocumentSnapshot;
+import com.google.cloud.firestore.QuerySnapshot;
+import com.lemicare.cms.cache.CatalogSnapshotCache;
+import com.lemicare.cms.stock.StockProjection;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class CatalogChangeListenerTest {
+
+    private static final String ORG = "org-1";
+
+    private final StorefrontFirestorePaths paths = mock(StorefrontFirestorePaths.class);
+    private final CatalogSnapshotCache catalogSnapshotCache = mock(CatalogSnapshotCache.class);
+    private final StockProjection stockProjection = new StockProjection(Duration.ofMinutes(10), new SimpleMeterRegistry());
+    private final ListenerRegistration productsRegistration = mock(ListenerRegistration.class);
+    private CatalogChangeListener listener;
+    private EventListener<QuerySnapshot> productEvents;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        CollectionReference products = mock(CollectionReference.class);
+        CollectionReference categories = mock(CollectionReference.class);
+        when(paths.products(ORG)).thenReturn(products);
+        when(paths.categories(ORG)).thenReturn(categories);
+        when(products.addSnapshotListener(any())).thenReturn(productsRegistration);
+        when(categories.addSnapshotListener(any())).thenReturn(mock(ListenerRegistration.class));
+
+        listener = new CatalogChangeListener(paths, catalogSnapshotCache, stockProjection);
+        ReflectionTestUtils.setField(listener, "enabled", true);
+        ReflectionTestUtils.setField(listener, "seedTimeout", Duration.ofSeconds(5));
+        ReflectionTestUtils.setField(listener, "idleTimeout", Duration.ofMinutes(30));
+        listener.watch(ORG);
+
+        ArgumentCaptor<EventListener<QuerySnapshot>> captor = ArgumentCaptor.forClass(EventListener.class);
+        verify(products).addSnapshotListener(captor.capture());
+        productEvents = captor.getValue();
+    }
+
+    @Test
+    void initialEventSeedsSnapshotAndStock() {
+        QueryDocumentSnapshot p1 = product("p1", 5L, null);
+        productEvents.onEvent(snapshot(List.of(p1), List.of()), null);
+
+        verify(catalogSnapshotCache).replaceProducts(eq(ORG), any());
+        assertThat(stockProjection.getStockLevels(ORG, List.of("p1"))).isEqualTo(Map.of("p1", 5));
+    }
+
+    @Test
+    void remoteStockWriteReachesTheProjection() {
+        productEvents.onEvent(snapshot(List.of(product("p1", 5L, 1L)), List.of()), null);
+
+        // Another instance writes version 2 of the product's stock.
+        DocumentChange modified = change(DocumentChange.Type.MODIFIED, product("p1", 2L, 2L));
+        productEvents.onEvent(snapshot(List.of(), List.of(modified)), null);
+
+        verify(catalogSnapshotCache).applyProductChanges(eq(ORG), any(), eq(List.of()));
+        assertThat(stockProjection.getStockLevels(ORG, List.of("p1"))).isEqualTo(Map.of("p1", 2));
+        assertThat(stockProjection.find(ORG, "p1")).get().extracting(StockProjection.Entry::version).isEqualTo(2L);
+    }
+
+    @Test
+    void olderRemoteVersionDoesNotOverwriteNewerLocalStock() {
+        productEvents.onEvent(snapshot(List.of(), List.of()), null);
+        stockProjection.record(ORG, "p1", 9, 5L, null);
+
+        DocumentChange modified = change(DocumentChange.Type.MODIFIED, product("p1", 3L, 4L));
+        productEvents.onEvent(snapshot(List.of(), List.of(modified)), null);
+
+        assertThat(stockProjection.getStockLevels(ORG, List.of("p1"))).isEqualTo(Map.of("p1", 9));
+    }
+
+    @Test
+    void removedProductIsForgotten() {
+        productEvents.onEvent(snapshot(List.of(product("p1", 5L, null)), List.of()), null);
+
+        DocumentChange removed = change(DocumentChange.Type.REMOVED, product("p1", 5L, null));
+        productEvents.onEvent(snapshot(List.of(), List.of(removed)), null);
+
+        verify(catalogSnapshotCache).applyProductChanges(eq(ORG), eq(List.of()), eq(List.of("p1")));
+        assertThat(stockProjection.unknownProducts(ORG, List.of("p1"))).containsExactly("p1");
+    }
+
+    @Test
+    void firstLoadIsServedFromTheInitialEvent() {
+        CompletableFuture.runAsync(() -> {
+            sleep(200); // The load is waiting by then
+            productEvents.onEvent(snapshot(List.of(product("p1", 5L, null)), List.of()), null);
+        });
+
+        Optional<List<StorefrontProduct>> seeded = listener.awaitInitialProducts(ORG);
+
+        assertThat(seeded.orElseThrow()).extracting(StorefrontProduct::getProductId).containsExactly("p1");
+        // A later load (e.g. after the TTL) reads the collection itself.
+        assertThat(listener.awaitInitialProducts(ORG)).isEmpty();
+    }
+
+    @Test
+    void initialEventThatAlreadySeededTheCacheIsNotReused() {
+        productEvents.onEvent(snapshot(List.of(product("p1", 5L, null)), List.of()), null);
+
+        assertThat(listener.awaitInitialProducts(ORG)).isEmpty();
+    }
+
+    @Test
+    void emptyInitialEventIsNotTrusted() {
+        CompletableFuture.runAsync(() -> {
+            sleep(200);
+            productEvents.onEvent(snapshot(List.of(), List.of()), null);
+        });
+
+        // The waiting load reads the repository, and the cached catalog is left alone.
+        assertThat(listener.awaitInitialProducts(ORG)).isEmpty();
+        verify(catalogSnapshotCache, never()).replaceProducts(eq(ORG), any());
+    }
+
+    @Test
+    void repositoryProductsAfterAnEmptyInitialEventDisableTheListeners() {
+        productEvents.onEvent(snapshot(List.of(), List.of()), null);
+
+        listener.checkRepositoryProducts(ORG, List.of(StorefrontProduct.builder().productId("p1").build()));
+
+        assertThat(listener.isWatching(ORG)).isFalse();
+        verify(productsRegistration).remove();
+        verify(catalogSnapshotCache).invalidate(ORG);
+        listener.watch(ORG);
+        assertThat(listener.isWatching(ORG)).isFalse();
+    }
+
+    @Test
+    void emptyInitialEventAfterARepositoryLoadWithProductsDisablesTheListeners() {
+        listener.checkRepositoryProducts(ORG, List.of(StorefrontProduct.builder().productId("p1").build()));
+        assertThat(listener.isWatching(ORG)).isTrue();
+
+        productEvents.onEvent(snapshot(List.of(), List.of()), null);
+
+        assertThat(listener.isWatching(ORG)).isFalse();
+        verify(catalogSnapshotCache, never()).replaceProducts(eq(ORG), any());
+    }
+
+    @Test
+    void productsAddedAfterAnEmptyStartAreNotAPathMismatch() {
+        productEvents.onEvent(snapshot(List.of(), List.of()), null);
+        productEvents.onEvent(snapshot(List.of(), List.of(change(DocumentChange.Type.ADDED, product("p1", 5L, null)))), null);
+
+        listener.checkRepositoryProducts(ORG, List.of(StorefrontProduct.builder().productId("p1").build()));
+
+        assertThat(listener.isWatching(ORG)).isTrue();
+    }
+
+    @Test
+    void idleOrganizationsLoseTheirListenersAndCachedCatalog() {
+        listener.removeIdleListeners();
+        assertThat(listener.isWatching(ORG)).isTrue();
+
+        ReflectionTestUtils.setField(listener, "idleTimeout", Duration.ZERO);
+        listener.removeIdleListeners();
+
+        assertThat(listener.isWatching(ORG)).isFalse();
+        verify(productsRegistration).remove();
+        verify(catalogSnapshotCache).invalidate(ORG);
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static QueryDocumentSnapshot product(String productId, Long stockLevel, Long stockVersion) {
+        QueryDocumentSnapshot document = mock(QueryDocumentSnapshot.class);
+        when(document.getId()).thenReturn(productId);
+        when(document.getLong("stockLevel")).thenReturn(stockLevel);
+        when(document.getLong("stockVersion")).thenReturn(stockVersion);
+        when(document.getUpdateTime()).thenReturn(Timestamp.now());
+        when(document.toObject(StorefrontProduct.class)).thenReturn(StorefrontProduct.builder().productId(productId).build());
+        return document;
+    }
+
+    private static DocumentChange change(DocumentChange.Type type, QueryDocumentSnapshot document) {
+        DocumentChange change = mock(DocumentChange.class);
+        when(change.getType()).thenReturn(type);
+        when(change.getDocument()).thenReturn(document);
+        return change;
+    }
+
+    private static QuerySnapshot snapshot(List<QueryDocumentSnapshot> documents, List<DocumentChange> changes) {
+        QuerySnapshot snapshot = mock(QuerySnapshot.class);
+        when(snapshot.getDocuments()).thenReturn(documents);
+        when(snapshot.getDocumentChanges()).thenReturn(changes);
+        return snapshot;
+    }
+}
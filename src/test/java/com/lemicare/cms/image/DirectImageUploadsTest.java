@@ -0,0 +1,118 @@
+package com.lemicare.cms.image;
+
+import com.google.cloud.storage.Blob;
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.BlobInfo;
+import com.google.cloud.storage.Storage;
+import com.lemicare.cms.exception.ResourceNotFoundException;
+import com.lemicare.cms.firestore.ImageAssetRecordStore;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.unit.DataSize;
+
+import java.net.URL;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class DirectImageUploadsTest {
+
+    private static final String ORG = "org-1";
+    private static final String BASE_PATH = "images/org-1/p1/a1/";
+
+    private final Storage storage = mock(Storage.class);
+    private final OriginalImageUploader originalImageUploader = mock(OriginalImageUploader.class);
+    private final ImageAssetRecordStore recordStore = mock(ImageAssetRecordStore.class);
+    private DirectImageUploads uploads;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        uploads = new DirectImageUploads(storage, originalImageUploader, recordStore);
+        ReflectionTestUtils.setField(uploads, "bucketName", "bucket");
+        ReflectionTestUtils.setField(uploads, "storageHost", "");
+        ReflectionTestUtils.setField(uploads, "urlTtl", Duration.ofMinutes(15));
+        ReflectionTestUtils.setField(uploads, "maxSize", DataSize.ofMegabytes(50));
+        when(storage.signUrl(any(BlobInfo.class), anyLong(), eq(TimeUnit.SECONDS), any(Storage.SignUrlOption[].class)))
+                .thenReturn(new URL("https://storage.example/upload"));
+    }
+
+    @Test
+    void extensionFollowsTheContentTypeAndIsRecorded() {
+        DirectImageUploads.UploadTicket ticket = uploads.issue(ORG, "p1", "a1", "image/png", 1024);
+
+        assertThat(ticket.blobName()).isEqualTo(BASE_PATH + "original.png");
+        ArgumentCaptor<ImageAssetRecord> saved = ArgumentCaptor.forClass(ImageAssetRecord.class);
+        verify(recordStore).save(saved.capture());
+        assertThat(saved.getValue().getStatus()).isEqualTo(ImageAssetRecord.Status.UPLOADING);
+        assertThat(saved.getValue().getBasePath()).isEqualTo(BASE_PATH);
+        assertThat(saved.getValue().getFileExtension()).isEqualTo(".png");
+        assertThat(saved.getValue().getOriginalBlobName()).isEqualTo(BASE_PATH + "original.png");
+    }
+
+    @Test
+    void unsupportedContentTypeIsRejected() {
+        assertThatThrownBy(() -> uploads.issue(ORG, "p1", "a1", "image/svg+xml", 1024))
+                .isInstanceOf(IllegalArgumentException.class);
+        verify(recordStore, never()).save(any());
+    }
+
+    @Test
+    void finalizeReadsTheRecordedBlob() throws Exception {
+        when(recordStore.findById(ORG, "a1")).thenReturn(Optional.of(uploadingRecord("p1")));
+        Blob blob = mock(Blob.class);
+        when(storage.get(BlobId.of("bucket", BASE_PATH + "original.webp"))).thenReturn(blob);
+        StoredOriginal original = new StoredOriginal(BASE_PATH + "original.webp", "https://media", "abc", 10, null);
+        when(originalImageUploader.inspect(blob)).thenReturn(original);
+
+        DirectImageUploads.AdoptedUpload adopted = uploads.adopt(ORG, "p1", "a1");
+
+        assertThat(adopted.basePath()).isEqualTo(BASE_PATH);
+        assertThat(adopted.fileExtension()).isEqualTo(".webp");
+        assertThat(adopted.original()).isSameAs(original);
+    }
+
+    @Test
+    void finalizeWithoutAnIssuedUrlIsNotFound() {
+        when(recordStore.findById(ORG, "a1")).thenReturn(Optional.empty());
+
+        assertThatThrownBy(() -> uploads.adopt(ORG, "p1", "a1")).isInstanceOf(ResourceNotFoundException.class);
+    }
+
+    @Test
+    void finalizeOfAnotherProductsAssetIsNotFound() {
+        when(recordStore.findById(ORG, "a1")).thenReturn(Optional.of(uploadingRecord("p2")));
+
+        assertThatThrownBy(() -> uploads.adopt(ORG, "p1", "a1")).isInstanceOf(ResourceNotFoundException.class);
+    }
+
+    @Test
+    void finalizeBeforeTheUploadIsNotFound() {
+        when(recordStore.findById(ORG, "a1")).thenReturn(Optional.of(uploadingRecord("p1")));
+
+        assertThatThrownBy(() -> uploads.adopt(ORG, "p1", "a1")).isInstanceOf(ResourceNotFoundException.class);
+    }
+
+    private static ImageAssetRecord uploadingRecord(String productId) {
+        return ImageAssetRecord.builder()
+                .assetId("a1")
+                .organizationId(ORG)
+                .productId(productId)
+                .status(ImageAssetRecord.Status.UPLOADING)
+                .basePath(BASE_PATH)
+                .fileExtension(".webp")
+                .originalBlobName(BASE_PATH + "original.webp")
+                .build();
+    }
+}
@@ -0,0 +1,92 @@
+package com.lemicare.cms.image;
+
+import com.google.api.gax.paging.Page;
+import com.google.cloud.storage.Blob;
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.Storage;
+import com.google.cloud.storage.StorageBatch;
+import com.google.cloud.storage.StorageBatchResult;
+import com.google.cloud.storage.StorageException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.after;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class GcsBlobDeleterTest {
+
+    private static final String PREFIX = "images/org-1/p1/a1/";
+    private static final BlobId ORIGINAL = BlobId.of("bucket", PREFIX + "original.jpg");
+    private static final BlobId THUMBNAIL = BlobId.of("bucket", PREFIX + "thumbnail.jpg");
+
+    private final Storage storage = mock(Storage.class);
+    private final StorageBatch batch = mock(StorageBatch.class);
+    private GcsBlobDeleter deleter;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        deleter = new GcsBlobDeleter(storage, new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(deleter, "bucketName", "bucket");
+        ReflectionTestUtils.setField(deleter, "maxAttempts", 3);
+        ReflectionTestUtils.setField(deleter, "retryBackoff", Duration.ofMillis(10));
+        when(storage.batch()).thenReturn(batch);
+        when(batch.delete(any(BlobId.class))).thenReturn(mock(StorageBatchResult.class));
+    }
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        deleter.shutdown();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void listingThatFailsPartWayDoesNotQueueBlobsTwice() {
+        Blob original = blob(ORIGINAL);
+        Blob thumbnail = blob(THUMBNAIL);
+        Page<Blob> failing = mock(Page.class);
+        when(failing.iterateAll()).thenReturn(() -> new Iterator<>() {
+            private boolean returned;
+
+            @Override
+            public boolean hasNext() {
+                return true;
+            }
+
+            @Override
+            public Blob next() {
+                if (returned) {
+                    throw new StorageException(503, "Backend error");
+                }
+                returned = true;
+                return original;
+            }
+        });
+        Page<Blob> complete = mock(Page.class);
+        when(complete.iterateAll()).thenReturn(List.of(original, thumbnail));
+        when(storage.list(eq("bucket"), any(Storage.BlobListOption.class))).thenReturn(failing, complete);
+
+        deleter.deletePrefixes(List.of(PREFIX));
+
+        verify(batch, timeout(2000)).delete(THUMBNAIL);
+        verify(batch, after(200)).delete(ORIGINAL);
+    }
+
+    private static Blob blob(BlobId blobId) {
+        Blob blob = mock(Blob.class);
+        when(blob.getBlobId()).thenReturn(blobId);
+        return blob;
+    }
+}
@@ -0,0 +1,258 @@
+package com.lemicare.cms.image;
+
+import com.cosmicdoc.common.model.ImageAsset;
+import com.cosmicdoc.common.model.StorefrontProduct;
+import com.google.api.core.ApiFutures;
+import com.google.cloud.firestore.DocumentReference;
+import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.Transaction;
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.Storage;
+import com.lemicare.cms.cache.CatalogSnapshotCache;
+import com.lemicare.cms.cache.ImagePlaceholderCache;
+import com.lemicare.cms.firestore.ImageAssetRecordStore;
+import com.lemicare.cms.firestore.ImageContentIndex;
+import com.lemicare.cms.firestore.StorefrontFirestorePaths;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.after;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class ImageProcessingJobsTest {
+
+    private static final String ORG = "org-1";
+    private static final String BASE_PATH = "images/org-1/p1/a1/";
+
+    private final ImageVariantPipeline pipeline = mock(ImageVariantPipeline.class);
+    private final ImageAssetRecordStore recordStore = mock(ImageAssetRecordStore.class);
+    private final ImageContentIndex contentIndex = mock(ImageContentIndex.class);
+    private final StorefrontFirestorePaths paths = mock(StorefrontFirestorePaths.class);
+    private final Firestore firestore = mock(Firestore.class);
+    private final Storage storage = mock(Storage.class);
+    private final GcsBlobDeleter gcsBlobDeleter = mock(GcsBlobDeleter.class);
+    private ImageProcessingJobs jobs;
+    private volatile StorefrontProduct storedProduct; // The product document, for tests that run transactions
+
+    @BeforeEach
+    void setUp() {
+        jobs = new ImageProcessingJobs(pipeline, recordStore, contentIndex, paths, firestore, storage,
+                mock(CatalogSnapshotCache.class), gcsBlobDeleter, mock(ImagePlaceholderCache.class), new SimpleMeterRegistry(), 1);
+        ReflectionTestUtils.setField(jobs, "bucketName", "bucket");
+        ReflectionTestUtils.setField(jobs, "maxAttempts", 1);
+        ReflectionTestUtils.setField(jobs, "retryBackoff", Duration.ofMillis(10));
+        ReflectionTestUtils.setField(jobs, "recoverAfter", Duration.ZERO);
+    }
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        jobs.shutdown();
+    }
+
+    @Test
+    void jobOfAReleasedAssetDoesNothing() throws Exception {
+        ImageAssetRecord record = processingRecord();
+        when(recordStore.findAllByStatus(ImageAssetRecord.Status.PROCESSING)).thenReturn(List.of(record));
+        when(recordStore.findById(ORG, "a1")).thenReturn(Optional.empty());
+
+        jobs.recoverInterruptedJobs();
+
+        verify(pipeline, after(200).never()).createVariants(anyString(), anyString(), any());
+        verify(recordStore, never()).save(any());
+        verify(recordStore, never()).saveIfExists(any());
+    }
+
+    @Test
+    void assetReleasedWhileTheJobRunsIsNotSavedAndItsVariantsAreDeleted() throws Exception {
+        ImageAssetRecord record = processingRecord();
+        when(recordStore.findAllByStatus(ImageAssetRecord.Status.PROCESSING)).thenReturn(List.of(record));
+        when(recordStore.findById(ORG, "a1")).thenReturn(Optional.of(record));
+        when(storage.readAllBytes(any(BlobId.class))).thenReturn(new byte[]{1});
+        when(pipeline.createVariants(BASE_PATH, ".jpg", new byte[]{1}))
+                .thenReturn(new ImageVariantUrls("t", "m", "l", List.of(), null));
+        // The release removed the content entry and the product's image.
+        when(contentIndex.markReady(any(), any(), any())).thenReturn(List.of());
+        when(paths.product(ORG, "p1")).thenReturn(mock(DocumentReference.class));
+        doReturn(ApiFutures.immediateFuture(null)).when(firestore).runTransaction(any());
+        when(recordStore.saveIfExists(record)).thenReturn(false);
+
+        jobs.recoverInterruptedJobs();
+
+        verify(gcsBlobDeleter, timeout(2000)).deletePrefixes(List.of(BASE_PATH));
+        verify(recordStore, never()).save(any());
+    }
+
+    @Test
+    void productSavedFromAnEarlierReadKeepsTheAttachedVariants() throws Exception {
+        storedProduct = product("orig", "Old alt text");
+        stubProductTransactions();
+        StorefrontProduct edited = copy(storedProduct); // Read by an editor before the job finished
+
+        ImageAssetRecord record = processingRecord();
+        when(recordStore.findAllByStatus(ImageAssetRecord.Status.PROCESSING)).thenReturn(List.of(record));
+        when(recordStore.findById(ORG, "a1")).thenReturn(Optional.of(record));
+        when(storage.readAllBytes(any(BlobId.class))).thenReturn(new byte[]{1});
+        when(pipeline.createVariants(BASE_PATH, ".jpg", new byte[]{1}))
+                .thenReturn(new ImageVariantUrls("t", "m", "l", List.of(), null));
+        when(contentIndex.markReady(any(), any(), any())).thenReturn(List.of());
+        when(recordStore.saveIfExists(record)).thenReturn(true);
+        jobs.recoverInterruptedJobs();
+        verify(recordStore, timeout(2000)).saveIfExists(record);
+        assertThat(storedProduct.getImages().get(0).getThumbnailUrl()).isEqualTo("t");
+
+        edited.getImages().get(0).setAltText("New alt text");
+        jobs.saveProduct(ORG, "p1", edited);
+
+        ImageAsset saved = storedProduct.getImages().get(0);
+        assertThat(saved.getAltText()).isEqualTo("New alt text");
+        assertThat(saved.getThumbnailUrl()).isEqualTo("t");
+        assertThat(saved.getMediumUrl()).isEqualTo("m");
+        assertThat(saved.getLargeUrl()).isEqualTo("l");
+    }
+
+    @Test
+    void duplicateContentReusesTheStoredBlobs() {
+        ImageContentEntry existing = ImageContentEntry.builder().sha256("abc").basePath("images/org-1/p0/a0/").build();
+        when(contentIndex.claim(eq(ORG), any(), eq("p1"), eq("a1"))).thenReturn(new ImageContentIndex.Claim(existing, true));
+        StoredOriginal original = new StoredOriginal(BASE_PATH + "original.jpg", "https://media", "abc", 10, new byte[]{1});
+
+        ImageProcessingJobs.Job job = jobs.prepare(ORG, "p1", "a1", BASE_PATH, ".jpg", original);
+
+        assertThat(job.content()).isSameAs(existing);
+        assertThat(job.newContent()).isFalse();
+        assertThat(job.inlineBytes()).isNull();
+        verify(gcsBlobDeleter).deleteBlobs(List.of(BASE_PATH + "original.jpg"));
+    }
+
+    @Test
+    void newContentKeepsItsUpload() {
+        when(contentIndex.claim(eq(ORG), any(), eq("p1"), eq("a1")))
+                .thenAnswer(invocation -> new ImageContentIndex.Claim(invocation.getArgument(1), false));
+        StoredOriginal original = new StoredOriginal(BASE_PATH + "original.jpg", "https://media", "abc", 10, new byte[]{1});
+
+        ImageProcessingJobs.Job job = jobs.prepare(ORG, "p1", "a1", BASE_PATH, ".jpg", original);
+
+        assertThat(job.content().getBasePath()).isEqualTo(BASE_PATH);
+        assertThat(job.newContent()).isTrue();
+        verify(gcsBlobDeleter, never()).deleteBlobs(any());
+    }
+
+    @Test
+    void releaseKeepsContentOtherAssetsStillUse() {
+        when(recordStore.findById(ORG, "a1")).thenReturn(Optional.of(processingRecord()));
+        when(contentIndex.release(ORG, "abc", "p1", "a1")).thenReturn(new ImageContentIndex.Release(true, null));
+
+        assertThat(jobs.release(ORG, "p1", "a1")).isEmpty();
+        verify(recordStore).delete(ORG, "a1");
+    }
+
+    @Test
+    void releaseOfTheLastReferenceFreesTheContent() {
+        when(recordStore.findById(ORG, "a1")).thenReturn(Optional.of(processingRecord()));
+        ImageContentEntry entry = ImageContentEntry.builder().sha256("abc").basePath(BASE_PATH).build();
+        when(contentIndex.release(ORG, "abc", "p1", "a1")).thenReturn(new ImageContentIndex.Release(true, entry));
+
+        assertThat(jobs.release(ORG, "p1", "a1")).contains(BASE_PATH);
+    }
+
+    /**
+     * Runs transactions against {@link #storedProduct}, as Firestore would against the document.
+     */
+    private void stubProductTransactions() {
+        DocumentReference ref = mock(DocumentReference.class);
+        when(paths.product(ORG, "p1")).thenReturn(ref);
+        DocumentSnapshot snapshot = mock(DocumentSnapshot.class);
+        when(snapshot.exists()).thenReturn(true);
+        when(snapshot.toObject(StorefrontProduct.class)).thenAnswer(invocation -> copy(storedProduct));
+        Transaction transaction = mock(Transaction.class, invocation -> {
+            switch (invocation.getMethod().getName()) {
+                case "get" -> {
+                    return ApiFutures.immediateFuture(snapshot);
+                }
+                case "set" -> storedProduct = copy(invocation.getArgument(1));
+                case "update" -> {
+                    StorefrontProduct updated = copy(storedProduct);
+                    updated.setImages(copyImages(invocation.getArgument(2)));
+                    storedProduct = updated;
+                }
+                default -> {
+                }
+            }
+            return invocation.getMock();
+        });
+        doAnswer(invocation -> ApiFutures.immediateFuture(
+                invocation.<Transaction.Function<?>>getArgument(0).updateCallback(transaction)))
+                .when(firestore).runTransaction(any());
+    }
+
+    private static StorefrontProduct product(String url, String altText) {
+        return StorefrontProduct.builder()
+                .productId("p1")
+                .organizationId(ORG)
+                .images(new ArrayList<>(List.of(ImageAsset.builder()
+                        .assetId("a1")
+                        .originalUrl(url)
+                        .thumbnailUrl(url)
+                        .mediumUrl(url)
+                        .largeUrl(url)
+                        .altText(altText)
+                        .build())))
+                .build();
+    }
+
+    private static StorefrontProduct copy(StorefrontProduct product) {
+        return StorefrontProduct.builder()
+                .productId(product.getProductId())
+                .organizationId(product.getOrganizationId())
+                .images(copyImages(product.getImages()))
+                .build();
+    }
+
+    private static List<ImageAsset> copyImages(List<ImageAsset> images) {
+        List<ImageAsset> copies = new ArrayList<>();
+        for (ImageAsset image : images) {
+            copies.add(ImageAsset.builder()
+                    .assetId(image.getAssetId())
+                    .originalUrl(image.getOriginalUrl())
+                    .thumbnailUrl(image.getThumbnailUrl())
+                    .mediumUrl(image.getMediumUrl())
+                    .largeUrl(image.getLargeUrl())
+                    .altText(image.getAltText())
+                    .displayOrder(image.getDisplayOrder())
+                    .build());
+        }
+        return copies;
+    }
+
+    private static ImageAssetRecord processingRecord() {
+        return ImageAssetRecord.builder()
+                .assetId("a1")
+                .organizationId(ORG)
+                .productId("p1")
+                .status(ImageAssetRecord.Status.PROCESSING)
+                .basePath(BASE_PATH)
+                .fileExtension(".jpg")
+                .originalBlobName(BASE_PATH + "original.jpg")
+                .contentSha256("abc")
+                .build();
+    }
+}
@@ -0,0 +1,62 @@
+package com.lemicare.cms.image;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ImageRenditionCacheTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void cachedRenditionIsRenderedOnce() throws IOException {
+        ImageRenditionCache cache = new ImageRenditionCache(directory.toString(), DataSize.ofKilobytes(64), new SimpleMeterRegistry());
+        AtomicInteger renders = new AtomicInteger();
+        ImageRenditionCache.Renderer renderer = out -> {
+            renders.incrementAndGet();
+            out.write("rendition".getBytes(StandardCharsets.UTF_8));
+        };
+
+        try (FileChannel first = cache.open("a/w600.jpg", renderer); FileChannel second = cache.open("a/w600.jpg", renderer)) {
+            assertThat(read(first)).isEqualTo("rendition");
+            assertThat(read(second)).isEqualTo("rendition");
+        }
+        assertThat(renders).hasValue(1);
+    }
+
+    @Test
+    void openChannelSurvivesEviction() throws IOException {
+        ImageRenditionCache cache = new ImageRenditionCache(directory.toString(), DataSize.ofBytes(10), new SimpleMeterRegistry());
+
+        try (FileChannel first = cache.open("a", out -> out.write("12345678".getBytes(StandardCharsets.UTF_8)))) {
+            // Storing a second rendition exceeds the cache size and evicts the first one.
+            cache.open("b", out -> out.write("abcdefgh".getBytes(StandardCharsets.UTF_8))).close();
+
+            assertThat(read(first)).isEqualTo("12345678");
+        }
+
+        AtomicInteger renders = new AtomicInteger();
+        cache.open("a", out -> {
+            renders.incrementAndGet();
+            out.write("12345678".getBytes(StandardCharsets.UTF_8));
+        }).close();
+        assertThat(renders).hasValue(1);
+    }
+
+    private static String read(FileChannel channel) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+        channel.read(buffer, 0);
+        return new String(buffer.array(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,146 @@
+package com.lemicare.cms.service;
+
+import com.cosmicdoc.common.model.StorefrontCategory;
+import com.cosmicdoc.common.model.StorefrontProduct;
+import com.cosmicdoc.common.repository.BranchRepository;
+import com.cosmicdoc.common.repository.StorefrontCategoryRepository;
+import com.cosmicdoc.common.repository.StorefrontOrderRepository;
+import com.cosmicdoc.common.repository.StorefrontProductRepository;
+import com.cosmicdoc.common.repository.TaxProfileRepository;
+import com.google.api.core.ApiFutures;
+import com.google.api.gax.grpc.GrpcStatusCode;
+import com.google.api.gax.rpc.NotFoundException;
+import com.google.cloud.firestore.DocumentReference;
+import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.Precondition;
+import com.google.cloud.firestore.WriteResult;
+import com.google.cloud.storage.Storage;
+import com.lemicare.cms.cache.CatalogSnapshotCache;
+import com.lemicare.cms.cache.ImagePlaceholderCache;
+import com.lemicare.cms.dto.response.PublicProductDetailResponse;
+import com.lemicare.cms.firestore.CatalogChangeListener;
+import com.lemicare.cms.firestore.StorefrontFirestorePaths;
+import com.lemicare.cms.firestore.StorefrontProductBatchReader;
+import com.lemicare.cms.image.DirectImageUploads;
+import com.lemicare.cms.image.GcsBlobDeleter;
+import com.lemicare.cms.image.ImageProcessingJobs;
+import com.lemicare.cms.image.OriginalImageUploader;
+import com.lemicare.cms.integration.client.InventoryService;
+import com.lemicare.cms.integration.client.InventoryServiceClient;
+import com.lemicare.cms.integration.client.InventoryStockDetailLookup;
+import com.lemicare.cms.integration.client.PaymentServiceClient;
+import com.lemicare.cms.stock.StockProjection;
+import com.lemicare.cms.stock.StockUpdateWriter;
+import io.grpc.Status;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class StorefrontServiceTest {
+
+    private static final String ORG = "org-1";
+
+    private final Firestore firestore = mock(Firestore.class);
+    private final StorefrontFirestorePaths paths = mock(StorefrontFirestorePaths.class);
+    private final DocumentReference productRef = mock(DocumentReference.class);
+    private final StorefrontProductRepository productRepository = mock(StorefrontProductRepository.class);
+    private final StorefrontCategoryRepository categoryRepository = mock(StorefrontCategoryRepository.class);
+    private final CatalogSnapshotCache catalogSnapshotCache = mock(CatalogSnapshotCache.class);
+    private final CatalogChangeListener catalogChangeListener = mock(CatalogChangeListener.class);
+    private final InventoryStockDetailLookup inventoryStockDetailLookup = mock(InventoryStockDetailLookup.class);
+    private final ThreadPoolTaskExecutor lookupExecutor = mock(ThreadPoolTaskExecutor.class);
+    private final StockProjection stockProjection = new StockProjection(Duration.ofMinutes(10), new SimpleMeterRegistry());
+    private StorefrontService service;
+
+    @BeforeEach
+    void setUp() {
+        StockUpdateWriter writer = new StockUpdateWriter(firestore, paths, stockProjection);
+        ReflectionTestUtils.setField(writer, "maxAttempts", 5);
+        when(paths.product(ORG, "p1")).thenReturn(productRef);
+
+        service = new StorefrontService(productRepository, categoryRepository, mock(StorefrontOrderRepository.class),
+                mock(InventoryServiceClient.class), mock(Storage.class), mock(PaymentServiceClient.class),
+                mock(TaxProfileRepository.class), mock(BranchRepository.class), mock(InventoryService.class),
+                catalogSnapshotCache, catalogChangeListener, inventoryStockDetailLookup,
+                mock(StorefrontProductBatchReader.class), stockProjection, mock(FulfillingBranchResolver.class),
+                writer, mock(OriginalImageUploader.class), mock(ImageProcessingJobs.class), mock(GcsBlobDeleter.class),
+                mock(DirectImageUploads.class), mock(ImagePlaceholderCache.class),
+                lookupExecutor, mock(ThreadPoolTaskExecutor.class));
+        ReflectionTestUtils.setField(service, "productDetailsDeadline", Duration.ofMillis(1500));
+    }
+
+    @Test
+    void unversionedStockEventCreatesAMissingProduct() {
+        when(productRef.update(anyMap(), eq(Precondition.exists(true))))
+                .thenReturn(ApiFutures.<WriteResult>immediateFailedFuture(
+                        new NotFoundException(new RuntimeException("No document to update"),
+                                GrpcStatusCode.of(Status.Code.NOT_FOUND), false)));
+        when(productRepository.findById(ORG, "p1")).thenReturn(Optional.empty());
+        when(productRepository.save(any(StorefrontProduct.class))).thenAnswer(invocation -> invocation.getArgument(0));
+
+        service.updateProductStockLevel(ORG, "branch-1", "p1", 5, "Paracetamol", 20.0, "tax-1", "GST", "Analgesics", null);
+
+        ArgumentCaptor<StorefrontProduct> saved = ArgumentCaptor.forClass(StorefrontProduct.class);
+        verify(productRepository).save(saved.capture());
+        assertThat(saved.getValue().getProductId()).isEqualTo("p1");
+        assertThat(saved.getValue().getOrganizationId()).isEqualTo(ORG);
+        assertThat(saved.getValue().getStockLevel()).isEqualTo(5);
+        verify(catalogSnapshotCache).upsert(ORG, saved.getValue());
+    }
+
+    @Test
+    void productDetailsDoNotWaitForCategoriesThatAreNotCached() {
+        stubVisibleProduct();
+        when(catalogSnapshotCache.findCategories(ORG)).thenReturn(Optional.empty());
+
+        PublicProductDetailResponse details = service.getPublicProductDetails(ORG, "p1");
+
+        // The stored value is served; the categories are loaded in the background.
+        assertThat(details.getCategoryName()).isEqualTo("cat-1");
+        verify(lookupExecutor).execute(any(Runnable.class));
+        verify(catalogChangeListener, never()).awaitInitialCategories(ORG);
+    }
+
+    @Test
+    void productDetailsResolveCachedCategoryNames() {
+        stubVisibleProduct();
+        when(catalogSnapshotCache.findCategories(ORG)).thenReturn(Optional.of(List.of(
+                StorefrontCategory.builder().categoryId("cat-1").name("Pain Relief").build())));
+
+        PublicProductDetailResponse details = service.getPublicProductDetails(ORG, "p1");
+
+        assertThat(details.getCategoryName()).isEqualTo("Pain Relief");
+        verify(lookupExecutor, never()).execute(any(Runnable.class));
+    }
+
+    private void stubVisibleProduct() {
+        StorefrontProduct product = StorefrontProduct.builder()
+                .productId("p1")
+                .organizationId(ORG)
+                .productName("Paracetamol")
+                .categoryName("cat-1")
+                .isVisible(true)
+                .stockLevel(3)
+                .currentStatus("In Stock")
+                .build();
+        when(catalogSnapshotCache.findProduct(ORG, "p1")).thenReturn(Optional.of(product));
+        when(inventoryStockDetailLookup.lookup(ORG, "p1", lookupExecutor)).thenReturn(CompletableFuture.failedFuture(new IllegalStateException("down")));
+    }
+}
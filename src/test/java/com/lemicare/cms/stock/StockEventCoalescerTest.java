@@ -0,0 +1,140 @@
+package com.lemicare.cms.stock;
+
+import com.cosmicdoc.common.model.StockLevelChangedEvent;
+import com.lemicare.cms.dto.request.VersionedStockLevelChangedEvent;
+import com.lemicare.cms.dto.response.StockUpdateBatchResponse;
+import com.lemicare.cms.dto.response.StockUpdateResult;
+import com.lemicare.cms.service.StorefrontService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class StockEventCoalescerTest {
+
+    private static final String ORG = "org-1";
+
+    private final StorefrontService storefrontService = mock(StorefrontService.class);
+    private final StockEventJournal journal = mock(StockEventJournal.class);
+    private StockEventCoalescer coalescer;
+
+    @BeforeEach
+    void setUp() {
+        coalescer = new StockEventCoalescer(storefrontService, journal, new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(coalescer, "window", Duration.ofSeconds(2));
+        ReflectionTestUtils.setField(coalescer, "flushSize", 500);
+        ReflectionTestUtils.setField(coalescer, "maxAttempts", 3);
+    }
+
+    @Test
+    void failedEventDisplacesAnOlderEventBufferedDuringTheWrite() {
+        // v1 arrives late, while v2 is being written; v2 fails and must not lose to it.
+        failOnce(() -> coalescer.submit(event(1L), 2L));
+        coalescer.submit(event(2L), 1L);
+
+        coalescer.flush();
+        verify(journal).ack(2L);
+        verify(journal, never()).ack(1L);
+
+        succeed();
+        coalescer.flush();
+        assertThat(lastFlushedVersions()).containsExactly(2L);
+        verify(journal).ack(1L);
+    }
+
+    @Test
+    void newerEventBufferedDuringTheWriteWinsOverTheFailedOne() {
+        failOnce(() -> coalescer.submit(event(3L), 2L));
+        coalescer.submit(event(2L), 1L);
+
+        coalescer.flush();
+        verify(journal).ack(1L);
+
+        succeed();
+        coalescer.flush();
+        assertThat(lastFlushedVersions()).containsExactly(3L);
+        verify(journal).ack(2L);
+    }
+
+    @Test
+    void eventIsDroppedAndAcknowledgedAfterMaxAttempts() {
+        when(storefrontService.applyStockUpdates(anyList())).thenAnswer(invocation -> response(invocation.getArgument(0), StockUpdateResult.Status.FAILED));
+        coalescer.submit(event(1L), 7L);
+
+        for (int i = 0; i < 3; i++) {
+            coalescer.flush();
+        }
+        verify(journal).ack(7L);
+
+        coalescer.flush();
+        verify(storefrontService, times(3)).applyStockUpdates(anyList());
+    }
+
+    @Test
+    void batchThatThrowsIsPutBack() {
+        when(storefrontService.applyStockUpdates(anyList()))
+                .thenThrow(new IllegalStateException("Firestore unavailable"))
+                .thenAnswer(invocation -> response(invocation.getArgument(0), StockUpdateResult.Status.APPLIED));
+        coalescer.submit(event(1L), 7L);
+
+        coalescer.flush();
+        verify(journal, never()).ack(anyLong());
+
+        coalescer.flush();
+        assertThat(lastFlushedVersions()).containsExactly(1L);
+        verify(journal).ack(7L);
+    }
+
+    /** Fails every batch, running {@code duringWrite} while it is being written. */
+    private void failOnce(Runnable duringWrite) {
+        doAnswer(invocation -> {
+            duringWrite.run();
+            return response(invocation.getArgument(0), StockUpdateResult.Status.FAILED);
+        }).when(storefrontService).applyStockUpdates(anyList());
+    }
+
+    private void succeed() {
+        // doAnswer, so re-stubbing does not run the previous answer
+        doAnswer(invocation -> response(invocation.getArgument(0), StockUpdateResult.Status.APPLIED))
+                .when(storefrontService).applyStockUpdates(anyList());
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<Long> lastFlushedVersions() {
+        ArgumentCaptor<List<StockLevelChangedEvent>> batches = ArgumentCaptor.forClass(List.class);
+        verify(storefrontService, times(2)).applyStockUpdates(batches.capture());
+        return batches.getValue().stream().map(VersionedStockLevelChangedEvent::versionOf).toList();
+    }
+
+    private static StockUpdateBatchResponse response(List<StockLevelChangedEvent> events, StockUpdateResult.Status status) {
+        List<StockUpdateResult> results = new ArrayList<>();
+        for (int i = 0; i < events.size(); i++) {
+            results.add(StockUpdateResult.builder().index(i).status(status).build());
+        }
+        return StockUpdateBatchResponse.builder().received(events.size()).results(results).build();
+    }
+
+    private static VersionedStockLevelChangedEvent event(Long version) {
+        VersionedStockLevelChangedEvent event = new VersionedStockLevelChangedEvent();
+        event.setOrganizationId(ORG);
+        event.setMedicineId("p1");
+        event.setNewTotalStock(5);
+        event.setVersion(version);
+        return event;
+    }
+}
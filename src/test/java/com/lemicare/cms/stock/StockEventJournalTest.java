@@ -0,0 +1,161 @@
+package com.lemicare.cms.stock;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.lemicare.cms.dto.request.VersionedStockLevelChangedEvent;
+import com.lemicare.cms.service.StorefrontService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+class StockEventJournalTest {
+
+    private static final String ORG = "org-1";
+
+    @TempDir
+    Path directory;
+
+    private final StorefrontService storefrontService = mock(StorefrontService.class);
+
+    @Test
+    void enablingWithoutADirectoryFailsStartup() {
+        StockEventJournal journal = journal(DataSize.ofMegabytes(1));
+        ReflectionTestUtils.setField(journal, "directory", "");
+
+        assertThatThrownBy(journal::open).isInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    void fullSegmentsRotateAndAreDeletedOnceAcknowledged() throws Exception {
+        StockEventJournal journal = open(DataSize.ofBytes(1024));
+        List<Long> sequences = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            sequences.add(journal.append(event("p" + i, 1L)));
+        }
+        assertThat(segmentFiles()).hasSizeGreaterThan(1);
+
+        sequences.forEach(journal::ack);
+        assertThat(segmentFiles()).hasSize(1); // Only the current segment is kept
+        journal.close();
+    }
+
+    @Test
+    void recoveryReplaysOnlyUnacknowledgedEvents() throws Exception {
+        StockEventJournal first = open(DataSize.ofBytes(1024));
+        long applied = first.append(event("p1", 1L));
+        first.append(event("p2", 2L));
+        first.ack(applied);
+        first.close();
+
+        StockEventJournal second = open(DataSize.ofBytes(1024));
+        second.replay();
+
+        verify(storefrontService).updateProductStockLevel(eq(ORG), any(), eq("p2"), anyInt(), any(), any(), any(), any(), any(), eq(2L));
+        verify(storefrontService, times(1)).updateProductStockLevel(any(), any(), any(), anyInt(), any(), any(), any(), any(), any(), any());
+        second.close();
+
+        // The replayed event was acknowledged, so a third start has nothing left to replay.
+        StockEventJournal third = open(DataSize.ofBytes(1024));
+        third.replay();
+        third.close();
+        verify(storefrontService, times(1)).updateProductStockLevel(any(), any(), any(), anyInt(), any(), any(), any(), any(), any(), any());
+    }
+
+    @Test
+    void tornEntryEndsTheSegment() throws Exception {
+        StockEventJournal first = open(DataSize.ofMegabytes(1));
+        first.append(event("p1", 1L));
+        first.append(event("p2", 2L));
+        first.close();
+
+        Path segment = segmentFiles().get(0);
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer length = ByteBuffer.allocate(Integer.BYTES);
+            channel.read(length, 0);
+            long secondEntry = Integer.BYTES + Long.BYTES + 1 + length.flip().getInt() + Integer.BYTES;
+            // Flip a payload byte of the second entry, as if it was only partially written.
+            long payloadByte = secondEntry + Integer.BYTES + Long.BYTES + 1 + 2;
+            ByteBuffer current = ByteBuffer.allocate(1);
+            channel.read(current, payloadByte);
+            channel.write(ByteBuffer.wrap(new byte[]{(byte) (current.get(0) ^ 0xFF)}), payloadByte);
+        }
+
+        StockEventJournal second = open(DataSize.ofMegabytes(1));
+        second.replay();
+
+        verify(storefrontService).updateProductStockLevel(eq(ORG), any(), eq("p1"), anyInt(), any(), any(), any(), any(), any(), eq(1L));
+        verify(storefrontService, never()).updateProductStockLevel(any(), any(), eq("p2"), anyInt(), any(), any(), any(), any(), any(), any());
+        second.close();
+    }
+
+    @Test
+    void unversionedEventsAreDroppedOnReplay() throws Exception {
+        StockEventJournal first = open(DataSize.ofMegabytes(1));
+        first.append(event("p1", null));
+        first.close();
+
+        StockEventJournal second = open(DataSize.ofMegabytes(1));
+        second.replay();
+        second.close();
+        verify(storefrontService, never()).updateProductStockLevel(any(), any(), any(), anyInt(), any(), any(), any(), any(), any(), any());
+
+        // Dropping acknowledged it, so it is not seen again either.
+        StockEventJournal third = open(DataSize.ofMegabytes(1));
+        third.replay();
+        third.close();
+        verify(storefrontService, never()).updateProductStockLevel(any(), any(), any(), anyInt(), any(), any(), any(), any(), any(), any());
+    }
+
+    private StockEventJournal open(DataSize segmentSize) throws IOException {
+        StockEventJournal journal = journal(segmentSize);
+        journal.open();
+        return journal;
+    }
+
+    private StockEventJournal journal(DataSize segmentSize) {
+        StockEventJournal journal = new StockEventJournal(new ObjectMapper(), storefrontService, new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(journal, "enabled", true);
+        ReflectionTestUtils.setField(journal, "directory", directory.toString());
+        ReflectionTestUtils.setField(journal, "segmentSize", segmentSize);
+        ReflectionTestUtils.setField(journal, "commitTimeout", Duration.ofSeconds(5));
+        return journal;
+    }
+
+    private List<Path> segmentFiles() throws IOException {
+        try (Stream<Path> listing = Files.list(directory)) {
+            return listing.sorted().toList();
+        }
+    }
+
+    private static VersionedStockLevelChangedEvent event(String productId, Long version) {
+        VersionedStockLevelChangedEvent event = new VersionedStockLevelChangedEvent();
+        event.setOrganizationId(ORG);
+        event.setBranchId("branch-1");
+        event.setMedicineId(productId);
+        event.setNewTotalStock(5);
+        event.setVersion(version);
+        return event;
+    }
+}
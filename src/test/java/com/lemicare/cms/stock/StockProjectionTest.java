@@ -0,0 +1,51 @@
+package com.lemicare.cms.stock;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class StockProjectionTest {
+
+    private static final String ORG = "org-1";
+
+    @Test
+    void staleVersionIsRejected() {
+        StockProjection projection = new StockProjection(Duration.ofMinutes(10), new SimpleMeterRegistry());
+
+        assertThat(projection.record(ORG, "p1", 4, 2L, null)).isTrue();
+        assertThat(projection.record(ORG, "p1", 7, 1L, null)).isFalse();
+
+        assertThat(projection.getStockLevels(ORG, List.of("p1"))).isEqualTo(Map.of("p1", 4));
+    }
+
+    @Test
+    void expiredEntriesAreUnknownAndReseeded() {
+        StockProjection projection = new StockProjection(Duration.ZERO, new SimpleMeterRegistry());
+        projection.record(ORG, "p1", 4, 3L, null);
+
+        assertThat(projection.getStockLevels(ORG, List.of("p1"))).isEmpty();
+        assertThat(projection.unknownProducts(ORG, List.of("p1"))).containsExactly("p1");
+
+        projection.seed(ORG, Map.of("p1", 8));
+        assertThat(projection.find(ORG, "p1")).get()
+                .satisfies(entry -> {
+                    assertThat(entry.stockLevel()).isEqualTo(8);
+                    assertThat(entry.version()).isEqualTo(3L); // Older events stay rejected
+                });
+    }
+
+    @Test
+    void seedDoesNotOverwriteCurrentEntries() {
+        StockProjection projection = new StockProjection(Duration.ofMinutes(10), new SimpleMeterRegistry());
+        projection.record(ORG, "p1", 4, null, null);
+
+        projection.seed(ORG, Map.of("p1", 8, "p2", 1));
+
+        assertThat(projection.getStockLevels(ORG, List.of("p1", "p2"))).isEqualTo(Map.of("p1", 4, "p2", 1));
+    }
+}
@@ -0,0 +1,104 @@
+package com.lemicare.cms.stock;
+
+import com.google.api.core.ApiFutures;
+import com.google.api.gax.grpc.GrpcStatusCode;
+import com.google.api.gax.rpc.FailedPreconditionException;
+import com.google.api.gax.rpc.NotFoundException;
+import com.google.cloud.Timestamp;
+import com.google.cloud.firestore.BulkWriter;
+import com.google.cloud.firestore.BulkWriterOptions;
+import com.google.cloud.firestore.DocumentReference;
+import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.Precondition;
+import com.google.cloud.firestore.WriteResult;
+import com.lemicare.cms.firestore.StorefrontFirestorePaths;
+import io.grpc.Status;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class StockUpdateWriterTest {
+
+    private static final String ORG = "org-1";
+
+    private final Firestore firestore = mock(Firestore.class);
+    private final StorefrontFirestorePaths paths = mock(StorefrontFirestorePaths.class);
+    private final DocumentReference ref = mock(DocumentReference.class);
+    private final StockProjection projection = new StockProjection(Duration.ofMinutes(10), new SimpleMeterRegistry());
+    private StockUpdateWriter writer;
+
+    @BeforeEach
+    void setUp() {
+        writer = new StockUpdateWriter(firestore, paths, projection);
+        ReflectionTestUtils.setField(writer, "initialOpsPerSecond", 100);
+        ReflectionTestUtils.setField(writer, "maxOpsPerSecond", 500);
+        ReflectionTestUtils.setField(writer, "maxAttempts", 5);
+        when(paths.product(ORG, "p1")).thenReturn(ref);
+    }
+
+    @Test
+    void unversionedUpdateOfAMissingProductIsNotFound() {
+        when(ref.update(anyMap(), eq(Precondition.exists(true))))
+                .thenReturn(ApiFutures.<WriteResult>immediateFailedFuture(notFound()));
+
+        StockUpdateWriter.WriteOutcome outcome = writer.writeOne(update(null));
+
+        assertThat(outcome.outcome()).isEqualTo(StockUpdateWriter.Outcome.NOT_FOUND);
+        verify(ref, never()).update(anyMap(), eq(Precondition.NONE));
+    }
+
+    @Test
+    void unversionedBatchUpdateOfAMissingProductIsNotFound() {
+        BulkWriter bulkWriter = mock(BulkWriter.class);
+        when(firestore.bulkWriter(any(BulkWriterOptions.class))).thenReturn(bulkWriter);
+        when(bulkWriter.update(eq(ref), anyMap(), eq(Precondition.exists(true))))
+                .thenReturn(ApiFutures.<WriteResult>immediateFailedFuture(notFound()));
+
+        List<StockUpdateWriter.WriteOutcome> outcomes = writer.writeAll(List.of(update(null)));
+
+        assertThat(outcomes).extracting(StockUpdateWriter.WriteOutcome::outcome)
+                .containsExactly(StockUpdateWriter.Outcome.NOT_FOUND);
+        verify(bulkWriter, never()).update(eq(ref), anyMap(), eq(Precondition.NONE));
+    }
+
+    @Test
+    void documentThatKeepsChangingFailsAfterMaxAttempts() {
+        projection.record(ORG, "p1", 3, 1L, Timestamp.ofTimeSecondsAndNanos(100, 0));
+        DocumentSnapshot snapshot = mock(DocumentSnapshot.class);
+        when(snapshot.exists()).thenReturn(true);
+        when(snapshot.getLong(StockUpdateWriter.STOCK_VERSION_FIELD)).thenReturn(1L);
+        when(snapshot.getUpdateTime()).thenReturn(Timestamp.ofTimeSecondsAndNanos(200, 0));
+        when(ref.get()).thenReturn(ApiFutures.immediateFuture(snapshot));
+        when(ref.update(anyMap(), any(Precondition.class)))
+                .thenReturn(ApiFutures.<WriteResult>immediateFailedFuture(new FailedPreconditionException(
+                        new RuntimeException("Document was updated"), GrpcStatusCode.of(Status.Code.FAILED_PRECONDITION), false)));
+
+        StockUpdateWriter.WriteOutcome outcome = writer.writeOne(update(2L));
+
+        assertThat(outcome.outcome()).isEqualTo(StockUpdateWriter.Outcome.FAILED);
+        verify(ref, times(5)).update(anyMap(), any(Precondition.class));
+    }
+
+    static StockUpdate update(Long version) {
+        return new StockUpdate(ORG, "p1", 5, "In Stock", "Paracetamol", 20.0, version);
+    }
+
+    static NotFoundException notFound() {
+        return new NotFoundException(new RuntimeException("No document to update"), GrpcStatusCode.of(Status.Code.NOT_FOUND), false);
+    }
+}